@@ -0,0 +1,90 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+
+package de.gesundkrank.wikipedia.hadoop.benchmark;
+
+import de.gesundkrank.wikipedia.hadoop.io.ParallelBzip2InputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decompresses the example dump repeated several times, as it happens while ingesting a dump. threads = 0
+ * uses the sequential decompressor.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecompressionBenchmark {
+    private static final int REPETITIONS = 8;
+
+    @Param({"0", "1", "2", "4"})
+    public int threads;
+
+    private byte[] compressed;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] dump = Dumps.readExampleDump();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream bzOut = new BZip2CompressorOutputStream(out)) {
+            for (int i = 0; i < REPETITIONS; i++) {
+                bzOut.write(dump);
+            }
+        }
+        compressed = out.toByteArray();
+    }
+
+    @Benchmark
+    public long decompress() throws IOException {
+        InputStream in = new ByteArrayInputStream(compressed);
+        long length = 0;
+        try (InputStream decompressed = threads == 0 ?
+                new BZip2CompressorInputStream(in) : new ParallelBzip2InputStream(in, threads)) {
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = decompressed.read(buffer)) != -1) {
+                length += n;
+            }
+        }
+        return length;
+    }
+}
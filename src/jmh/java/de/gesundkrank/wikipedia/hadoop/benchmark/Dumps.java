@@ -0,0 +1,77 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.benchmark;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.parser.ByteParser;
+import de.gesundkrank.wikipedia.hadoop.parser.WikiParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Test data shared by the benchmarks.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+final class Dumps {
+    private static final String EXAMPLE_DUMP = "/wikidump_example.xml";
+
+    private Dumps() {
+    }
+
+    /**
+     * Returns the example dump of the test resources.
+     */
+    static byte[] readExampleDump() throws IOException {
+        try (InputStream in = Dumps.class.getResourceAsStream(EXAMPLE_DUMP)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1 << 16];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Returns all revisions of the example dump.
+     */
+    static List<WikiRevisionWritable> readExampleRevisions() throws IOException {
+        WikiParser parser = new ByteParser(new ByteArrayInputStream(readExampleDump()));
+        List<WikiRevisionWritable> revisions = new ArrayList<>();
+        WikiRevisionWritable revision;
+        while ((revision = parser.readNextRevision()) != null) {
+            revisions.add(revision);
+        }
+        return revisions;
+    }
+
+    /**
+     * Resolves the simple name of a parser engine.
+     */
+    static Class<? extends WikiParser> parserClass(String name) throws ClassNotFoundException {
+        return Class.forName(WikiParser.class.getPackage().getName() + "." + name).asSubclass(WikiParser.class);
+    }
+}
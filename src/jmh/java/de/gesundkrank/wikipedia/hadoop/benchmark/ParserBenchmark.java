@@ -0,0 +1,112 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.benchmark;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.parser.RevisionField;
+import de.gesundkrank.wikipedia.hadoop.parser.WikiParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the example dump from memory. Besides the dumps per second the counters report the parsed bytes
+ * and records per second.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"ByteParser", "StaxParser", "Parser"})
+    public String parser;
+
+    @Param({"false", "true"})
+    public boolean reuse;
+
+    // optional fields to read, "metadata" reads none of them
+    @Param({"all", "metadata"})
+    public String fields;
+
+    private byte[] dump;
+    private Class<? extends WikiParser> parserClass;
+    private Configuration conf;
+
+    @Setup
+    public void setUp() throws Exception {
+        dump = Dumps.readExampleDump();
+        parserClass = Dumps.parserClass(parser);
+        conf = new Configuration();
+        if ("metadata".equals(fields)) {
+            conf.set(RevisionField.FIELDS, "");
+        }
+    }
+
+    @Benchmark
+    public void parse(Counters counters, Blackhole blackhole) throws Exception {
+        WikiParser wikiParser = ReflectionUtils.newInstance(parserClass, conf);
+        wikiParser.initialize(new ByteArrayInputStream(dump), conf);
+        WikiRevisionWritable reusableRevision = reuse ? new WikiRevisionWritable() : null;
+
+        WikiRevisionWritable revision;
+        while ((revision = reuse ? wikiParser.readNextRevision(reusableRevision) :
+                wikiParser.readNextRevision()) != null) {
+            blackhole.consume(revision);
+            counters.records++;
+        }
+        counters.bytes += dump.length;
+    }
+
+    /**
+     * Parsed records and bytes, reported per second.
+     */
+    @AuxCounters
+    @State(Scope.Thread)
+    public static class Counters {
+        public long records;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            records = 0;
+            bytes = 0;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.benchmark;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cleans the text of the longest revision of the example dump.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PlainTextBenchmark {
+
+    @Param({"en", "de", "zh"})
+    public String language;
+
+    private Locale locale;
+    private WikiRevisionWritable revision;
+
+    @Setup
+    public void setUp() throws IOException {
+        // getPlainText compares the locale constants by identity
+        switch (language) {
+            case "de":
+                locale = Locale.GERMAN;
+                break;
+            case "zh":
+                locale = Locale.CHINESE;
+                break;
+            default:
+                locale = Locale.ENGLISH;
+        }
+
+        for (WikiRevisionWritable candidate : Dumps.readExampleRevisions()) {
+            if (revision == null || candidate.getText().length() > revision.getText().length()) {
+                revision = candidate;
+            }
+        }
+    }
+
+    @Benchmark
+    public String getPlainText() {
+        return revision.getPlainText(locale);
+    }
+}
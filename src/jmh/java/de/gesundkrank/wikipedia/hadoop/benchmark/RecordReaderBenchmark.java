@@ -0,0 +1,102 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.benchmark;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.inputformat.WikiInputFormat;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the example dump end to end through {@link WikiInputFormat} from a local file as a single split.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RecordReaderBenchmark {
+
+    @Param({"ByteParser", "StaxParser", "Parser"})
+    public String parser;
+
+    @Param({"false", "true"})
+    public boolean reuse;
+
+    private File dump;
+    private FileSplit split;
+    private TaskAttemptContext context;
+    private final WikiInputFormat inputFormat = new WikiInputFormat();
+
+    @Setup
+    public void setUp() throws Exception {
+        dump = File.createTempFile("wikidump", ".xml");
+        Files.write(dump.toPath(), Dumps.readExampleDump());
+        split = new FileSplit(new Path(dump.toURI()), 0, dump.length(), null);
+
+        Job job = Job.getInstance();
+        WikiInputFormat.setParserClass(job, Dumps.parserClass(parser));
+        WikiInputFormat.setReuseObjects(job, reuse);
+        context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(dump.toPath());
+    }
+
+    @Benchmark
+    public long readSplit() throws Exception {
+        long ids = 0;
+        try (RecordReader<LongWritable, WikiRevisionWritable> reader =
+                     inputFormat.createRecordReader(split, context)) {
+            reader.initialize(split, context);
+            while (reader.nextKeyValue()) {
+                ids += reader.getCurrentKey().get();
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.benchmark;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and deserializes all revisions of the example dump.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerializationBenchmark {
+
+    private List<WikiRevisionWritable> revisions;
+    private byte[] serialized;
+    private int serializedLength;
+
+    private final DataOutputBuffer out = new DataOutputBuffer();
+    private final DataInputBuffer in = new DataInputBuffer();
+    private final WikiRevisionWritable reusableRevision = new WikiRevisionWritable();
+
+    @Setup
+    public void setUp() throws IOException {
+        revisions = Dumps.readExampleRevisions();
+        write();
+        serialized = out.getData().clone();
+        serializedLength = out.getLength();
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        out.reset();
+        for (WikiRevisionWritable revision : revisions) {
+            revision.write(out);
+        }
+        return out.getLength();
+    }
+
+    @Benchmark
+    public long read() throws IOException {
+        in.reset(serialized, serializedLength);
+        long ids = 0;
+        for (int i = 0; i < revisions.size(); i++) {
+            reusableRevision.readFields(in);
+            ids += reusableRevision.getId();
+        }
+        return ids;
+    }
+
+    @Benchmark
+    public long roundTrip() throws IOException {
+        write();
+        in.reset(out.getData(), out.getLength());
+        long ids = 0;
+        for (int i = 0; i < revisions.size(); i++) {
+            WikiRevisionWritable revision = new WikiRevisionWritable();
+            revision.readFields(in);
+            ids += revision.getId() + revision.getText().length();
+        }
+        return ids;
+    }
+}
@@ -20,6 +20,7 @@ package de.gesundkrank.wikipedia.hadoop;
 
 
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -31,9 +32,17 @@ import java.util.Locale;
  */
 public class WikiPageWritable implements WritableComparable<WikiPageWritable> {
 
+    static {
+        WritableComparator.define(WikiPageWritable.class, new Comparator());
+    }
+
     private String title;
     private long id;
     private boolean isRedirect;
+    // the namespace is only serialized as part of a revision, see WikiRevisionWritable
+    private int namespace;
+    // set by the parsers, it is not serialized
+    private String redirectTarget;
 
     public WikiPageWritable() {
         this(null, -1, false);
@@ -45,6 +54,17 @@ public class WikiPageWritable implements WritableComparable<WikiPageWritable> {
         this.isRedirect = isRedirect;
     }
 
+    /**
+     * Resets all fields, so the instance can be refilled.
+     */
+    public void clear() {
+        title = null;
+        id = -1;
+        isRedirect = false;
+        namespace = 0;
+        redirectTarget = null;
+    }
+
     public String getTitle() {
         return title;
     }
@@ -73,6 +93,29 @@ public class WikiPageWritable implements WritableComparable<WikiPageWritable> {
         this.isRedirect = isRedirect;
     }
 
+    /**
+     * Returns the title of the page a redirect points to or null if the parser didn't find one. The target is
+     * not serialized, it is lost once the page is written.
+     */
+    public String getRedirectTarget() {
+        return redirectTarget;
+    }
+
+    public void setRedirectTarget(String redirectTarget) {
+        this.redirectTarget = redirectTarget;
+    }
+
+    /**
+     * Returns the namespace of the page, 0 for articles.
+     */
+    public int getNamespace() {
+        return namespace;
+    }
+
+    public void setNamespace(int namespace) {
+        this.namespace = namespace;
+    }
+
     public String getURL(Locale locale) {
         return getURL(locale.getLanguage());
     }
@@ -109,15 +152,46 @@ public class WikiPageWritable implements WritableComparable<WikiPageWritable> {
         title = in.readUTF();
         id = in.readLong();
         isRedirect = in.readBoolean();
+        // the redirect target is not serialized
+        redirectTarget = null;
     }
 
     @Override
     public int compareTo(WikiPageWritable o) {
-        return Long.valueOf(id).compareTo(o.id);
+        return Long.compare(id, o.id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof WikiPageWritable && id == ((WikiPageWritable) o).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
     }
 
     @Override
     public String toString() {
         return String.format("title:%s\nid:%d\nisRedirect:%s", title, id, isRedirect);
     }
+
+    /**
+     * Compares serialized pages by id without deserializing them.
+     */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(WikiPageWritable.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return Long.compare(readId(b1, s1), readId(b2, s2));
+        }
+
+        // the id follows the title, which is written with a 2 byte length
+        private static long readId(byte[] bytes, int start) {
+            return readLong(bytes, start + 2 + readUnsignedShort(bytes, start));
+        }
+    }
 }
@@ -19,6 +19,7 @@
 package de.gesundkrank.wikipedia.hadoop;
 
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
@@ -29,6 +30,10 @@ import java.io.IOException;
  */
 public class WikiRevisionContributor implements WritableComparable<WikiRevisionContributor> {
 
+        static {
+            WritableComparator.define(WikiRevisionContributor.class, new Comparator());
+        }
+
         private String username;
         private long id;
 
@@ -41,6 +46,14 @@ public class WikiRevisionContributor implements WritableComparable<WikiRevisionC
             this.id = id;
         }
 
+        /**
+         * Resets all fields, so the instance can be refilled.
+         */
+        public void clear() {
+            username = "";
+            id = -1;
+        }
+
         public String getUsername() {
             return username;
         }
@@ -73,11 +86,40 @@ public class WikiRevisionContributor implements WritableComparable<WikiRevisionC
 
         @Override
         public int compareTo(WikiRevisionContributor o) {
-            return Long.valueOf(id).compareTo(o.id);
+            return Long.compare(id, o.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof WikiRevisionContributor && id == ((WikiRevisionContributor) o).id;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(id);
         }
 
         @Override
         public String toString() {
             return String.format("username:%s\nid:%d", username, id);
         }
+
+        /**
+         * Compares serialized contributors by id without deserializing them.
+         */
+        public static class Comparator extends WritableComparator {
+            public Comparator() {
+                super(WikiRevisionContributor.class);
+            }
+
+            @Override
+            public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+                return Long.compare(readId(b1, s1), readId(b2, s2));
+            }
+
+            // the id follows the username, which is written with a 2 byte length
+            private static long readId(byte[] bytes, int start) {
+                return readLong(bytes, start + 2 + readUnsignedShort(bytes, start));
+            }
+        }
 }
@@ -19,20 +19,59 @@
 package de.gesundkrank.wikipedia.hadoop;
 
 import com.google.common.base.Strings;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 import org.wikiclean.WikiClean;
 import org.wikiclean.WikiCleanBuilder;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Locale;
 
 /**
+ * A revision of a wikipedia page.
+ * <p>
+ * Instances can be refilled: {@link #readFields} reuses the page and contributor objects and the text buffer
+ * of the revision. References to the page, the contributor or the revision itself therefore are only valid
+ * until the revision is refilled. Copy them if you need to keep them longer. The text is kept utf-8 encoded
+ * and only decoded when {@link #getText()} is called.
+ * <p>
+ * Revisions are serialized in a compact format: a version byte, a byte of presence bits, variable length
+ * ids and timestamps and the page inline with its namespace. Data written in the former
+ * fixed size format can still be read.
+ *
  * @author Jan Graßegger<jan@anycook.de>
  */
 public class WikiRevisionWritable implements WritableComparable<WikiRevisionWritable> {
 
+    /**
+     * Leading byte of the current serialization format. Data written before the format was versioned starts
+     * with the high byte of the revision id, which is 0 for every real revision id.
+     */
+    static final byte VERSION_2 = 2;
+
+    // presence and value bits of the v2 format
+    private static final int HAS_PAGE = 1;
+    private static final int REDIRECT = 1 << 1;
+    private static final int HAS_CONTRIBUTOR = 1 << 2;
+    private static final int HAS_COMMENT = 1 << 3;
+    private static final int HAS_TEXT = 1 << 4;
+    private static final int MINOR = 1 << 5;
+    private static final int TIMESTAMP_MILLIS = 1 << 6;
+    private static final int TEXT_DELTA = 1 << 7;
+
+    // timestamps are stored relative to 2001-01-15, the day wikipedia started, in seconds if possible
+    private static final long TIMESTAMP_BASE = 979516800000L;
+
+    static {
+        WritableComparator.define(WikiRevisionWritable.class, new Comparator());
+    }
+
     private static WikiClean cleaner;
     private static Locale cleanerLocale;
 
@@ -44,6 +83,12 @@ public class WikiRevisionWritable implements WritableComparable<WikiRevisionWrit
     private String text;
     private boolean isMinor = false;
 
+    // utf-8 encoded text, textLength is -1 if the text is only available as string
+    private byte[] textBytes;
+    private int textLength = -1;
+    // revision the text bytes are a delta against, -1 if they are the complete text
+    private long textBaseId = -1;
+
     public WikiRevisionWritable() {
         this(null);
     }
@@ -52,6 +97,20 @@ public class WikiRevisionWritable implements WritableComparable<WikiRevisionWrit
         this.page = page;
     }
 
+    /**
+     * Resets all fields except the page, so the instance can be refilled.
+     */
+    public void clear() {
+        id = 0;
+        timestamp = 0;
+        contributor = null;
+        comment = null;
+        text = null;
+        textLength = -1;
+        textBaseId = -1;
+        isMinor = false;
+    }
+
     public long getId() {
         return id;
     }
@@ -93,9 +152,63 @@ public class WikiRevisionWritable implements WritableComparable<WikiRevisionWrit
     }
 
     public String getText() {
+        if (isTextDelta()) {
+            throw new IllegalStateException(String.format(
+                    "Text of revision %d is stored as delta against revision %d", id, textBaseId));
+        }
+        if (text == null && textLength >= 0) {
+            text = new String(textBytes, 0, textLength, StandardCharsets.UTF_8);
+        }
         return Strings.nullToEmpty(text);
     }
 
+    public boolean hasText() {
+        return text != null || textLength >= 0;
+    }
+
+    /**
+     * Returns the buffer holding the utf-8 encoded text or the text delta, it is valid up to
+     * {@link #getTextLength()}.
+     */
+    public byte[] getTextBytes() {
+        if (textLength < 0 && text != null) {
+            byte[] b = text.getBytes(StandardCharsets.UTF_8);
+            textBytes = b;
+            textLength = b.length;
+        }
+        return textBytes;
+    }
+
+    /**
+     * Returns the length of the encoded text or the text delta, -1 if the revision has no text.
+     */
+    public int getTextLength() {
+        getTextBytes();
+        return textLength;
+    }
+
+    /**
+     * True if the text is stored as {@link de.gesundkrank.wikipedia.hadoop.io.TextDelta} against the text of
+     * the revision {@link #getTextBaseId()}. The text is only available once it was rebuilt.
+     */
+    public boolean isTextDelta() {
+        return textBaseId >= 0;
+    }
+
+    public long getTextBaseId() {
+        return textBaseId;
+    }
+
+    /**
+     * Sets a delta against the text of another revision of the page instead of the text.
+     *
+     * @param baseId id of the revision the delta applies to
+     */
+    public void setTextDelta(long baseId, byte[] delta, int offset, int length) {
+        setText(delta, offset, length);
+        textBaseId = baseId;
+    }
+
     public String getPlainText(Locale locale) {
         if (cleaner == null || cleanerLocale != locale) {
             cleanerLocale = locale;
@@ -118,6 +231,26 @@ public class WikiRevisionWritable implements WritableComparable<WikiRevisionWrit
 
     public void setText(String text) {
         this.text = text;
+        this.textLength = -1;
+        this.textBaseId = -1;
+    }
+
+    /**
+     * Sets the utf-8 encoded text. The bytes are copied into a buffer owned by the revision.
+     */
+    public void setText(byte[] utf8, int offset, int length) {
+        ensureTextCapacity(length);
+        System.arraycopy(utf8, offset, textBytes, 0, length);
+        textLength = length;
+        textBaseId = -1;
+        text = null;
+    }
+
+    private void ensureTextCapacity(int capacity) {
+        if (textBytes == null || textBytes.length < capacity) {
+            textBytes = textBytes == null ? new byte[capacity] :
+                    Arrays.copyOf(textBytes, Math.max(capacity, textBytes.length * 2));
+        }
     }
 
     public boolean isMinor() {
@@ -130,42 +263,134 @@ public class WikiRevisionWritable implements WritableComparable<WikiRevisionWrit
 
     @Override
     public void write(DataOutput out) throws IOException {
-        out.writeLong(id);
-        out.writeLong(timestamp);
-        page.write(out);
-
+        int flags = 0;
+        boolean millis = timestamp % 1000 != 0;
+        if (page != null) {
+            flags |= HAS_PAGE;
+            if (page.isRedirect()) {
+                flags |= REDIRECT;
+            }
+        }
         if (contributor != null) {
-            out.writeBoolean(true);
-            contributor.write(out);
-        } else {
-            out.writeBoolean(false);
+            flags |= HAS_CONTRIBUTOR;
+        }
+        if (comment != null && !comment.isEmpty()) {
+            flags |= HAS_COMMENT;
         }
+        if (hasText()) {
+            flags |= HAS_TEXT;
+        }
+        if (isMinor) {
+            flags |= MINOR;
+        }
+        if (millis) {
+            flags |= TIMESTAMP_MILLIS;
+        }
+        if (isTextDelta()) {
+            flags |= TEXT_DELTA;
+        }
+
+        out.writeByte(VERSION_2);
+        out.writeByte(flags);
+        WritableUtils.writeVLong(out, id);
+        WritableUtils.writeVLong(out, millis ? timestamp - TIMESTAMP_BASE : (timestamp - TIMESTAMP_BASE) / 1000);
 
-        out.writeUTF(comment != null ? comment : "");
-        out.writeBoolean(isMinor);
+        if (page != null) {
+            WritableUtils.writeVLong(out, page.getId());
+            WritableUtils.writeVInt(out, page.getNamespace());
+            Text.writeString(out, page.getTitle() != null ? page.getTitle() : "");
+        }
+        if (contributor != null) {
+            WritableUtils.writeVLong(out, contributor.getId());
+            Text.writeString(out, contributor.getUsername());
+        }
+        if ((flags & HAS_COMMENT) != 0) {
+            Text.writeString(out, comment);
+        }
 
-        // workaround for "java.io.UTFDataFormatException: encoded string too long"
-        if (text != null) {
-            out.writeBoolean(true);
-            byte[] b = text.getBytes("utf-8");
-            out.writeInt(b.length);
+        if (isTextDelta()) {
+            WritableUtils.writeVLong(out, textBaseId);
+        }
+        if (textLength >= 0) {
+            WritableUtils.writeVInt(out, textLength);
+            out.write(textBytes, 0, textLength);
+        } else if (text != null) {
+            byte[] b = text.getBytes(StandardCharsets.UTF_8);
+            WritableUtils.writeVInt(out, b.length);
             out.write(b);
-        } else {
-            out.writeBoolean(false);
         }
     }
 
-
     @Override
     public void readFields(DataInput in) throws IOException {
-        id = in.readLong();
+        byte version = in.readByte();
+        if (version == VERSION_2) {
+            readFieldsV2(in);
+        } else {
+            readFieldsV1(version, in);
+        }
+    }
+
+    private void readFieldsV2(DataInput in) throws IOException {
+        int flags = in.readUnsignedByte();
+        id = WritableUtils.readVLong(in);
+        long time = WritableUtils.readVLong(in);
+        timestamp = (flags & TIMESTAMP_MILLIS) != 0 ? TIMESTAMP_BASE + time : TIMESTAMP_BASE + time * 1000;
+
+        if ((flags & HAS_PAGE) != 0) {
+            if (page == null) {
+                page = new WikiPageWritable();
+            } else {
+                page.clear();
+            }
+            page.setId(WritableUtils.readVLong(in));
+            page.setNamespace(WritableUtils.readVInt(in));
+            page.setTitle(Text.readString(in));
+            page.setRedirect((flags & REDIRECT) != 0);
+        } else {
+            page = null;
+        }
+
+        if ((flags & HAS_CONTRIBUTOR) != 0) {
+            if (contributor == null) {
+                contributor = new WikiRevisionContributor();
+            }
+            contributor.setId(WritableUtils.readVLong(in));
+            contributor.setUsername(Text.readString(in));
+        } else {
+            contributor = null;
+        }
+
+        comment = (flags & HAS_COMMENT) != 0 ? Text.readString(in) : "";
+        isMinor = (flags & MINOR) != 0;
+
+        text = null;
+        textBaseId = (flags & TEXT_DELTA) != 0 ? WritableUtils.readVLong(in) : -1;
+        if ((flags & HAS_TEXT) != 0) {
+            readText(in, WritableUtils.readVInt(in));
+        } else {
+            textLength = -1;
+        }
+    }
+
+    /**
+     * Reads the format written before the version byte was introduced, it starts with the revision id as
+     * fixed size long whose first byte was already read.
+     */
+    private void readFieldsV1(byte firstByte, DataInput in) throws IOException {
+        id = ((long) firstByte << 56) | (((long) in.readByte() & 0xff) << 48) |
+                (((long) in.readUnsignedShort()) << 32) | (in.readInt() & 0xffffffffL);
         timestamp = in.readLong();
-        page = new WikiPageWritable();
+        if (page == null) {
+            page = new WikiPageWritable();
+        }
         page.readFields(in);
-
+        page.setNamespace(0);
 
         if (in.readBoolean()) {
-            contributor = new WikiRevisionContributor();
+            if (contributor == null) {
+                contributor = new WikiRevisionContributor();
+            }
             contributor.readFields(in);
         } else {
             contributor = null;
@@ -173,31 +398,64 @@ public class WikiRevisionWritable implements WritableComparable<WikiRevisionWrit
         comment = in.readUTF();
         isMinor = in.readBoolean();
 
-
-
-        int textLength = in.readInt();
-
+        text = null;
+        textBaseId = -1;
         if (in.readBoolean()) {
-            byte[] b = new byte[textLength];
-            in.readFully(b);
-            text = new String(b, "utf-8");
+            readText(in, in.readInt());
         } else {
-            text = null;
+            textLength = -1;
         }
     }
 
+    private void readText(DataInput in, int length) throws IOException {
+        ensureTextCapacity(length);
+        in.readFully(textBytes, 0, length);
+        textLength = length;
+    }
+
     @Override
     public String toString() {
+        String textString = isTextDelta() ? "delta against " + textBaseId : hasText() ? getText() : null;
         return String.format("id:%d%n timestamp:%d%n page: %s %n contributor:%s %n comment:%s %n isMinor:%s %n text:%s",
-                id, timestamp, page, contributor, comment, isMinor, text);
+                id, timestamp, page, contributor, comment, isMinor, textString);
     }
 
 
     @Override
     public int compareTo(WikiRevisionWritable o) {
-        return Long.valueOf(id).compareTo(o.id);
+        return Long.compare(id, o.id);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof WikiRevisionWritable && id == ((WikiRevisionWritable) o).id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
     }
 
+    /**
+     * Compares serialized revisions by id without deserializing them, the text is never touched.
+     */
+    public static class Comparator extends WritableComparator {
+        public Comparator() {
+            super(WikiRevisionWritable.class);
+        }
 
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                return Long.compare(readId(b1, s1), readId(b2, s2));
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
 
+        // v2 stores the id as vlong behind the version and flags byte, v1 starts with the id
+        private static long readId(byte[] bytes, int start) throws IOException {
+            return bytes[start] == VERSION_2 ? readVLong(bytes, start + 2) : readLong(bytes, start);
+        }
+    }
 }
@@ -0,0 +1,147 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.inputformat;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Inputformat for multistream dumps (pages-articles-multistream.xml.bz2).
+ * <p>
+ * These dumps are a concatenation of independent bzip2 streams of 100 pages each. The accompanying index
+ * (pages-articles-multistream-index.txt.bz2) lists the stream offset of every page as
+ * {@code offset:pageid:title}. Splits are cut exactly at stream boundaries, so every split just
+ * decompresses its own streams. The index has to lie next to the dump, its name is the dump name with
+ * {@code .xml.bz2} replaced by {@code -index.txt.bz2}.
+ *
+ * @author Jan Graßegger <jan@anycook.de>
+ */
+public class MultistreamWikiInputFormat extends WikiInputFormat {
+    private static final String DUMP_SUFFIX = ".xml.bz2";
+    private static final String INDEX_SUFFIX = "-index.txt.bz2";
+
+    @Override
+    public RecordReader<LongWritable, WikiRevisionWritable> createRecordReader(
+            InputSplit split, TaskAttemptContext context) {
+
+        return new MultistreamWikiInputRecordReader();
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        long maxSize = getMaxSplitSize(job);
+
+        List<InputSplit> splits = new ArrayList<>();
+        for (FileStatus file : listStatus(job)) {
+            Path path = file.getPath();
+            FileSystem fs = path.getFileSystem(conf);
+            long length = file.getLen();
+            BlockLocation[] blockLocations = fs.getFileBlockLocations(file, 0, length);
+            long splitSize = computeSplitSize(file.getBlockSize(), minSize, maxSize);
+
+            // the first stream only contains the siteinfo, it is kept together with the following pages
+            long splitStart = 0;
+            for (long offset : readStreamOffsets(fs, getIndexPath(path), conf)) {
+                if (offset - splitStart >= splitSize && offset < length) {
+                    splits.add(makeSplit(path, splitStart, offset - splitStart,
+                            blockLocations[getBlockIndex(blockLocations, splitStart)].getHosts()));
+                    splitStart = offset;
+                }
+            }
+            if (splitStart < length) {
+                splits.add(makeSplit(path, splitStart, length - splitStart,
+                        blockLocations[getBlockIndex(blockLocations, splitStart)].getHosts()));
+            }
+        }
+
+        return splits;
+    }
+
+    /**
+     * Returns the path of the index belonging to a multistream dump.
+     */
+    public static Path getIndexPath(Path dump) throws IOException {
+        String name = dump.getName();
+        if (!name.endsWith(DUMP_SUFFIX)) {
+            throw new IOException(String.format("%s is not a multistream dump", dump));
+        }
+        return new Path(dump.getParent(), name.substring(0, name.length() - DUMP_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * Reads the distinct stream offsets in ascending order from a multistream index.
+     */
+    static long[] readStreamOffsets(FileSystem fs, Path indexPath, Configuration conf) throws IOException {
+        if (!fs.exists(indexPath)) {
+            throw new IOException(String.format("Could not find multistream index %s", indexPath));
+        }
+
+        InputStream in = fs.open(indexPath);
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(indexPath);
+        if (codec != null) {
+            in = codec.createInputStream(in);
+        }
+
+        long[] offsets = new long[1024];
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(':');
+                if (separator <= 0) {
+                    continue;
+                }
+                long offset = Long.parseLong(line.substring(0, separator));
+                if (count > 0 && offsets[count - 1] == offset) {
+                    continue;
+                }
+                if (count == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                offsets[count++] = offset;
+            }
+        }
+
+        offsets = Arrays.copyOf(offsets, count);
+        Arrays.sort(offsets);
+        return offsets;
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.inputformat;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.utils.BoundedInputStream;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads the splits of {@link MultistreamWikiInputFormat}. A split consists of complete bzip2 streams, so it
+ * is decompressed from its first to its last byte without looking for page boundaries.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class MultistreamWikiInputRecordReader extends WikiInputRecordReader {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private FSDataInputStream file;
+
+    @Override
+    protected InputStream openSplit(FSDataInputStream file, FileSplit fileSplit) throws IOException {
+        this.file = file;
+        file.seek(fileSplit.getStart());
+
+        InputStream streams = new BoundedInputStream(file, fileSplit.getLength());
+        return new BZip2CompressorInputStream(new BufferedInputStream(streams, BUFFER_SIZE), true);
+    }
+
+    @Override
+    protected long getPosition() throws IOException {
+        return file.getPos();
+    }
+}
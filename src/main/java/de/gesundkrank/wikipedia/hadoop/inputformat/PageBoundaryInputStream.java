@@ -0,0 +1,227 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.inputformat;
+
+import org.apache.hadoop.fs.Seekable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Cuts the pages of a split out of a dump stream.
+ * <p>
+ * Everything in front of the first &lt;page&gt; tag is dropped and the stream ends right in front of the
+ * first &lt;page&gt; tag that belongs to the next split. A page belongs to the split its start tag was
+ * read from, so pages crossing the split end are read completely.
+ * <p>
+ * For uncompressed input the exact byte offset of every tag is known: a split owns the pages starting in
+ * [start, end). Compressed streams only report the position of the current compression block, there a
+ * split owns the pages read while the position is at most end.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+class PageBoundaryInputStream extends InputStream {
+    private static final byte[] PAGE_START = "<page>".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private final Seekable position;
+    private final long end;
+
+    // offset of buffer[0] for uncompressed input
+    private long bufferOffset;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    // bytes in [bufferPosition, scanned) can be handed out, [scanned, limit) are not checked yet
+    private int bufferPosition;
+    private int scanned;
+    private int limit;
+
+    // bytes kept from the previous read, they have been read at carriedPosition
+    private int carriedLength;
+    private long carriedPosition;
+    private long readPosition;
+
+    private boolean foundFirstPage;
+    private boolean reachedEnd;
+    private boolean eof;
+
+    /**
+     * Creates a stream for uncompressed input.
+     *
+     * @param in    stream positioned at start
+     * @param start offset of the first byte of in
+     * @param end   pages starting at end or later belong to the next split
+     */
+    PageBoundaryInputStream(InputStream in, long start, long end) {
+        this(in, null, end);
+        this.bufferOffset = start;
+    }
+
+    /**
+     * Creates a stream for compressed input.
+     *
+     * @param in       decompressed stream starting at or in front of the first page of the split
+     * @param position reports the position of the compression block the last read came from
+     * @param end      pages read at a position after end belong to the next split
+     */
+    PageBoundaryInputStream(InputStream in, Seekable position, long end) {
+        this.in = in;
+        this.position = position;
+        this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureAvailable()) {
+            return -1;
+        }
+        return buffer[bufferPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureAvailable()) {
+            return -1;
+        }
+
+        int n = Math.min(len, scanned - bufferPosition);
+        System.arraycopy(buffer, bufferPosition, b, off, n);
+        bufferPosition += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return scanned - bufferPosition;
+    }
+
+    /**
+     * True as soon as the first page of the next split or the end of the input was reached.
+     */
+    boolean reachedEnd() {
+        return reachedEnd;
+    }
+
+    /**
+     * Returns the exact offset of the next byte handed out for uncompressed input, the position of the
+     * current compression block otherwise.
+     */
+    long getPosition() throws IOException {
+        return position == null ? bufferOffset + bufferPosition : position.getPos();
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private boolean ensureAvailable() throws IOException {
+        while (bufferPosition == scanned) {
+            if (reachedEnd) {
+                return false;
+            }
+            fill();
+        }
+        return true;
+    }
+
+    private void fill() throws IOException {
+        // keep a page tag that might be split between two reads
+        int remaining = limit - bufferPosition;
+        if (remaining > 0) {
+            carriedPosition = positionOf(bufferPosition);
+            System.arraycopy(buffer, bufferPosition, buffer, 0, remaining);
+        }
+        bufferOffset += bufferPosition;
+        carriedLength = remaining;
+        bufferPosition = 0;
+        scanned = 0;
+        limit = remaining;
+
+        int n = in.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+            if (position != null) {
+                readPosition = position.getPos();
+            }
+        }
+
+        scan();
+    }
+
+    private void scan() {
+        int i = scanned;
+        while (i < limit) {
+            if (buffer[i] == '<') {
+                if (limit - i < PAGE_START.length && !eof) {
+                    break;
+                }
+                if (isPageStart(i)) {
+                    if (belongsToNextSplit(positionOf(i))) {
+                        reachedEnd = true;
+                        break;
+                    }
+                    if (!foundFirstPage) {
+                        foundFirstPage = true;
+                        bufferPosition = i;
+                    }
+                }
+            }
+            i++;
+        }
+
+        scanned = i;
+        if (!foundFirstPage) {
+            bufferPosition = scanned;
+        }
+        if (eof && scanned == limit) {
+            reachedEnd = true;
+        }
+    }
+
+    private boolean isPageStart(int index) {
+        if (limit - index < PAGE_START.length) {
+            return false;
+        }
+        for (int i = 0; i < PAGE_START.length; i++) {
+            if (buffer[index + i] != PAGE_START[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private long positionOf(int index) {
+        if (position == null) {
+            return bufferOffset + index;
+        }
+        return index < carriedLength ? carriedPosition : readPosition;
+    }
+
+    private boolean belongsToNextSplit(long pagePosition) {
+        return position == null ? pagePosition >= end : pagePosition > end;
+    }
+}
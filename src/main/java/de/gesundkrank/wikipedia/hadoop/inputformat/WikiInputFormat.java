@@ -19,13 +19,31 @@
 package de.gesundkrank.wikipedia.hadoop.inputformat;
 
 import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.io.WikiBlockFile;
+import de.gesundkrank.wikipedia.hadoop.parser.ByteParser;
+import de.gesundkrank.wikipedia.hadoop.parser.RevisionField;
+import de.gesundkrank.wikipedia.hadoop.parser.RevisionFilter;
+import de.gesundkrank.wikipedia.hadoop.parser.WikiParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 
 /**
@@ -34,6 +52,113 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
  * @author Jan Graßegger <jan.grassegger@uni-weimar.de>
  */
 public class WikiInputFormat extends FileInputFormat<LongWritable, WikiRevisionWritable> {
+    public static final String PARSER_CLASS = "wikipedia.parser.class";
+    public static final String REUSE_OBJECTS = "wikipedia.reuse.objects";
+    public static final String FIELDS = RevisionField.FIELDS;
+
+    /**
+     * Sets the parser engine used to read the dump. Defaults to {@link ByteParser}.
+     *
+     * @param job         hadoop job
+     * @param parserClass parser implementation
+     */
+    public static void setParserClass(Job job, Class<? extends WikiParser> parserClass) {
+        job.getConfiguration().setClass(PARSER_CLASS, parserClass, WikiParser.class);
+    }
+
+    /**
+     * Returns the parser engine configured for the job.
+     */
+    public static Class<? extends WikiParser> getParserClass(Configuration conf) {
+        return conf.getClass(PARSER_CLASS, ByteParser.class, WikiParser.class);
+    }
+
+    /**
+     * Lets the record reader refill one revision instead of creating new objects for every record. The
+     * revision returned by the record reader, its page and its contributor are then only valid until the
+     * next call of nextKeyValue. Mappers have to copy everything they want to keep. Only engines that support
+     * reuse, like {@link ByteParser}, avoid the allocations.
+     *
+     * @param job   hadoop job
+     * @param reuse true to enable object reuse
+     */
+    public static void setReuseObjects(Job job, boolean reuse) {
+        job.getConfiguration().setBoolean(REUSE_OBJECTS, reuse);
+    }
+
+    /**
+     * Sets the optional fields the parser reads. The others are skipped without decoding them, jobs that only
+     * need metadata should at least leave out the text. All fields are read by default.
+     *
+     * @param job    hadoop job
+     * @param fields fields to read
+     */
+    public static void setFields(Job job, RevisionField... fields) {
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            names[i] = fields[i].name();
+        }
+        job.getConfiguration().setStrings(FIELDS, names);
+    }
+
+    /**
+     * Only reads pages of the given namespaces, e.g. 0 for articles. Pages of other namespaces are skipped
+     * by the parser together with all their revisions.
+     *
+     * @param job        hadoop job
+     * @param namespaces namespace ids to read
+     */
+    public static void setNamespaces(Job job, int... namespaces) {
+        String[] names = new String[namespaces.length];
+        for (int i = 0; i < namespaces.length; i++) {
+            names[i] = Integer.toString(namespaces[i]);
+        }
+        job.getConfiguration().setStrings(RevisionFilter.NAMESPACES, names);
+    }
+
+    /**
+     * Skips redirect pages in the parser.
+     *
+     * @param job           hadoop job
+     * @param skipRedirects true to skip redirects
+     */
+    public static void setSkipRedirects(Job job, boolean skipRedirects) {
+        job.getConfiguration().setBoolean(RevisionFilter.SKIP_REDIRECTS, skipRedirects);
+    }
+
+    /**
+     * Only reads pages with an id in [minId, maxId].
+     *
+     * @param job   hadoop job
+     * @param minId smallest page id to read
+     * @param maxId largest page id to read
+     */
+    public static void setPageIdRange(Job job, long minId, long maxId) {
+        job.getConfiguration().setLong(RevisionFilter.MIN_PAGE_ID, minId);
+        job.getConfiguration().setLong(RevisionFilter.MAX_PAGE_ID, maxId);
+    }
+
+    /**
+     * Only reads pages whose title starts with prefix.
+     *
+     * @param job    hadoop job
+     * @param prefix title prefix
+     */
+    public static void setTitlePrefix(Job job, String prefix) {
+        job.getConfiguration().set(RevisionFilter.TITLE_PREFIX, prefix);
+    }
+
+    /**
+     * Only reads revisions with a timestamp in [minTimestamp, maxTimestamp).
+     *
+     * @param job          hadoop job
+     * @param minTimestamp smallest timestamp in milliseconds
+     * @param maxTimestamp timestamp in milliseconds behind the window
+     */
+    public static void setTimestampRange(Job job, long minTimestamp, long maxTimestamp) {
+        job.getConfiguration().setLong(RevisionFilter.MIN_TIMESTAMP, minTimestamp);
+        job.getConfiguration().setLong(RevisionFilter.MAX_TIMESTAMP, maxTimestamp);
+    }
 
     @Override
     public RecordReader<LongWritable, WikiRevisionWritable> createRecordReader(
@@ -42,10 +167,71 @@ public class WikiInputFormat extends FileInputFormat<LongWritable, WikiRevisionW
         return new WikiInputRecordReader();
     }
 
+    /**
+     * Splits {@link WikiBlockFile}s into groups of blocks, all other dumps as usual.
+     */
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        return splitBlockFiles(super.getSplits(job), job.getConfiguration(), minSize, getMaxSplitSize(job));
+    }
+
+    /**
+     * Uncompressed and bzip2 compressed dumps are splittable. Every split starts reading at its first page.
+     * Block files are split at block boundaries by {@link #getSplits(JobContext)}.
+     */
     @Override
     protected boolean isSplitable(JobContext context, Path filename) {
-        return !filename.getName().endsWith(".bz2");
+        return isSplitable(context.getConfiguration(), filename);
+    }
+
+    static boolean isSplitable(Configuration conf, Path filename) {
+        if (WikiBlockFile.isBlockFile(filename)) {
+            return false;
+        }
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(filename);
+        return codec == null || codec instanceof SplittableCompressionCodec;
     }
 
+    /**
+     * Replaces the single split of every block file by splits of consecutive blocks of about the split size.
+     */
+    static List<InputSplit> splitBlockFiles(List<InputSplit> splits, Configuration conf, long minSize,
+                                            long maxSize) throws IOException {
+        List<InputSplit> result = new ArrayList<>();
+        for (InputSplit split : splits) {
+            Path path = ((FileSplit) split).getPath();
+            if (!WikiBlockFile.isBlockFile(path)) {
+                result.add(split);
+                continue;
+            }
+
+            FileSystem fs = path.getFileSystem(conf);
+            FileStatus file = fs.getFileStatus(path);
+            BlockLocation[] blockLocations = fs.getFileBlockLocations(file, 0, file.getLen());
+            long splitSize = Math.max(minSize, Math.min(maxSize, file.getBlockSize()));
 
+            long[] offsets = WikiBlockFile.readBlockOffsets(fs, path);
+            long splitStart = 0;
+            for (int i = 1; i < offsets.length - 1; i++) {
+                if (offsets[i] - splitStart >= splitSize) {
+                    result.add(makeBlockSplit(path, splitStart, offsets[i], blockLocations));
+                    splitStart = offsets[i];
+                }
+            }
+            result.add(makeBlockSplit(path, splitStart, file.getLen(), blockLocations));
+        }
+        return result;
+    }
+
+    private static FileSplit makeBlockSplit(Path path, long start, long end, BlockLocation[] blockLocations)
+            throws IOException {
+        String[] hosts = new String[0];
+        for (BlockLocation location : blockLocations) {
+            if (location.getOffset() <= start && start < location.getOffset() + location.getLength()) {
+                hosts = location.getHosts();
+            }
+        }
+        return new FileSplit(path, start, end - start, hosts);
+    }
 }
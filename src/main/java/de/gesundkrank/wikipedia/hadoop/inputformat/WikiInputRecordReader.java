@@ -19,78 +19,126 @@
 package de.gesundkrank.wikipedia.hadoop.inputformat;
 
 import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
-import de.gesundkrank.wikipedia.hadoop.parser.Parser;
+import de.gesundkrank.wikipedia.hadoop.io.WikiBlockFile;
+import de.gesundkrank.wikipedia.hadoop.parser.RevisionFilter;
+import de.gesundkrank.wikipedia.hadoop.parser.WikiParser;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
-import org.apache.log4j.Logger;
+import org.apache.hadoop.util.ReflectionUtils;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 
 /**
  * Jan Graßegger<jan.grassegger@uni-weimar.de>
  */
 public class WikiInputRecordReader
         extends RecordReader<LongWritable, WikiRevisionWritable> {
-    private static final Logger LOGGER = Logger.getLogger(WikiInputRecordReader.class);
 
     private LongWritable currentId = new LongWritable();
-    private Parser parser;
+    private WikiParser parser;
+    private RevisionFilter filter;
     private WikiRevisionWritable currentRevision;
+    private WikiRevisionWritable reusableRevision;
     private FSDataInputStream currentFile;
-    private BufferedReader currentReader;
-    private FileSystem fs;
-    private FileSplit fileSplit;
+    private InputStream currentStream;
+    private PageBoundaryInputStream pageStream;
+    private WikiBlockFile.BlockInputStream blockStream;
+    private Decompressor decompressor;
+    private Configuration conf;
+    private long start;
+    private long end;
 
     @Override
     public void initialize(InputSplit split, TaskAttemptContext context)
             throws IOException, InterruptedException {
-        this.fs = FileSystem.get(context.getConfiguration());
-        this.parser = new Parser();
-        openSplit(split);
+        this.conf = context.getConfiguration();
+        this.parser = ReflectionUtils.newInstance(WikiInputFormat.getParserClass(conf), conf);
+        this.filter = new RevisionFilter(conf);
+        if (conf.getBoolean(WikiInputFormat.REUSE_OBJECTS, false)) {
+            reusableRevision = new WikiRevisionWritable();
+        }
+
+        FileSplit fileSplit = (FileSplit) split;
+        start = fileSplit.getStart();
+        end = start + fileSplit.getLength();
+
+        Path splitPath = fileSplit.getPath();
+        FileSystem fs = splitPath.getFileSystem(conf);
+        currentFile = fs.open(splitPath);
+        currentStream = openSplit(currentFile, fileSplit);
 
+        parser.initialize(currentStream, conf);
     }
 
-    private void openSplit(InputSplit split) {
-        try {
-            fileSplit = ((FileSplit) split);
-            Path splitPath = fileSplit.getPath();
-            currentFile = this.fs.open(splitPath);
-            currentFile.skip(fileSplit.getStart() - 1);
-
-            InputStream inputStream = currentFile;
-
-            /*if(fileSplit.getPath().getName().endsWith(".bz2")) {
-                CompressionCodec compressionCodec = new BZip2Codec();
-                inputStream = compressionCodec.createInputStream(currentFile);
-            }*/
-            currentReader = new BufferedReader(new InputStreamReader(inputStream));
-        } catch (IOException e) {
-            LOGGER.error(e);
+    /**
+     * Opens the decompressed pages of the split that are handed to the parser.
+     *
+     * @param file      opened file of the split
+     * @param fileSplit split to read
+     * @return stream starting at the first page of the split and ending behind its last page
+     * @throws IOException
+     */
+    protected InputStream openSplit(FSDataInputStream file, FileSplit fileSplit) throws IOException {
+        if (WikiBlockFile.isBlockFile(fileSplit.getPath())) {
+            // splits consist of whole blocks of whole pages
+            blockStream = new WikiBlockFile.BlockInputStream(file, fileSplit.getPath(), start, end, conf);
+            return blockStream;
         }
+
+        CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(fileSplit.getPath());
+        if (codec == null) {
+            file.seek(start);
+            pageStream = new PageBoundaryInputStream(file, start, end);
+        } else {
+            decompressor = CodecPool.getDecompressor(codec);
+            if (codec instanceof SplittableCompressionCodec) {
+                // bzip2 splits are aligned to the compression blocks
+                SplitCompressionInputStream compressionStream = ((SplittableCompressionCodec) codec)
+                        .createInputStream(file, decompressor, start, end,
+                                SplittableCompressionCodec.READ_MODE.BYBLOCK);
+                start = compressionStream.getAdjustedStart();
+                end = compressionStream.getAdjustedEnd();
+                pageStream = new PageBoundaryInputStream(compressionStream, compressionStream, end);
+            } else {
+                pageStream = new PageBoundaryInputStream(codec.createInputStream(file, decompressor), file, end);
+            }
+        }
+
+        return pageStream;
+    }
+
+    /**
+     * Returns the position in the file of the split, it is used to report the progress.
+     */
+    protected long getPosition() throws IOException {
+        return blockStream != null ? blockStream.getPosition() : pageStream.getPosition();
     }
 
     @Override
     public boolean nextKeyValue() throws IOException, InterruptedException {
-        if (currentFile == null) {
+        if (currentStream == null) {
             return false;
         }
 
-        if (currentFile.getPos() > fileSplit.getStart() + fileSplit.getLength()) {
-            close();
-            return false;
-        }
-
-
-        currentRevision = parser.readNextRevision(currentReader);
+        // engines that can't skip filtered pages while parsing rely on this check
+        do {
+            currentRevision = reusableRevision != null ?
+                    parser.readNextRevision(reusableRevision) : parser.readNextRevision();
+        } while (currentRevision != null && !filter.accepts(currentRevision));
         if (currentRevision == null) {
             close();
             return false;
@@ -116,12 +164,25 @@ public class WikiInputRecordReader
 
     @Override
     public float getProgress() throws IOException, InterruptedException {
-        return (float) (currentFile.getPos() - fileSplit.getStart()) /
-                (float) fileSplit.getLength();
+        if (currentStream == null || start == end) {
+            return 1.0f;
+        }
+        return Math.min(1.0f, (float) (getPosition() - start) / (float) (end - start));
     }
 
     @Override
     public void close() throws IOException {
-        currentFile.close();
+        try {
+            if (currentStream != null) {
+                currentStream.close();
+                currentFile.close();
+            }
+        } finally {
+            currentStream = null;
+            if (decompressor != null) {
+                CodecPool.returnDecompressor(decompressor);
+                decompressor = null;
+            }
+        }
     }
 }
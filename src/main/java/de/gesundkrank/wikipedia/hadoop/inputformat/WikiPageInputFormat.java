@@ -0,0 +1,60 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.inputformat;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Inputformat for full history dumps that emits one record per page. The key is the page id, the value
+ * iterates the revisions of the page while they are read from the dump, so the history of a page is never
+ * held in memory at once and per page analytics can run without a shuffle.
+ * <p>
+ * Splitting, the parser engine and object reuse are configured as for {@link WikiInputFormat}.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class WikiPageInputFormat extends FileInputFormat<LongWritable, WikiPageRevisions> {
+
+    @Override
+    public RecordReader<LongWritable, WikiPageRevisions> createRecordReader(InputSplit split,
+                                                                            TaskAttemptContext context) {
+        return new WikiPageRecordReader(new WikiInputRecordReader());
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        long minSize = Math.max(getFormatMinSplitSize(), getMinSplitSize(job));
+        return WikiInputFormat.splitBlockFiles(super.getSplits(job), job.getConfiguration(), minSize,
+                getMaxSplitSize(job));
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path filename) {
+        return WikiInputFormat.isSplitable(context.getConfiguration(), filename);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.inputformat;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+import java.io.IOException;
+
+/**
+ * Groups the revisions read by a revision record reader by page. A split always contains complete pages,
+ * so the revisions of a page are never spread over several readers.
+ * <p>
+ * The first revision of the next page is read ahead to find the end of a page. Revisions the mapper does not
+ * iterate are skipped when the next page is requested.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class WikiPageRecordReader extends RecordReader<LongWritable, WikiPageRevisions> {
+    private final RecordReader<LongWritable, WikiRevisionWritable> revisionReader;
+    private final LongWritable currentId = new LongWritable();
+    private final WikiPageRevisions currentPage = new WikiPageRevisions(this);
+
+    // first revision of the next page, it was read to detect the end of the current page
+    private WikiRevisionWritable pending;
+    private boolean pageFinished = true;
+
+    /**
+     * @param revisionReader reader of the revisions, it is initialized and closed by this reader
+     */
+    public WikiPageRecordReader(RecordReader<LongWritable, WikiRevisionWritable> revisionReader) {
+        this.revisionReader = revisionReader;
+    }
+
+    @Override
+    public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+        revisionReader.initialize(split, context);
+    }
+
+    @Override
+    public boolean nextKeyValue() throws IOException, InterruptedException {
+        while (!pageFinished) {
+            nextRevision();
+        }
+
+        if (pending == null) {
+            if (!revisionReader.nextKeyValue()) {
+                return false;
+            }
+            pending = revisionReader.getCurrentValue();
+        }
+
+        currentPage.reset(pending.getPage());
+        currentId.set(pending.getPage().getId());
+        pageFinished = false;
+        return true;
+    }
+
+    /**
+     * Returns the next revision of the current page or null if all revisions of the page were read.
+     */
+    WikiRevisionWritable nextRevision() throws IOException, InterruptedException {
+        if (pageFinished) {
+            return null;
+        }
+        if (pending != null) {
+            WikiRevisionWritable revision = pending;
+            pending = null;
+            return revision;
+        }
+
+        if (!revisionReader.nextKeyValue()) {
+            pageFinished = true;
+            return null;
+        }
+
+        WikiRevisionWritable revision = revisionReader.getCurrentValue();
+        if (revision.getPage().getId() != currentId.get()) {
+            pending = revision;
+            pageFinished = true;
+            return null;
+        }
+        return revision;
+    }
+
+    @Override
+    public LongWritable getCurrentKey() throws IOException, InterruptedException {
+        return currentId;
+    }
+
+    @Override
+    public WikiPageRevisions getCurrentValue() throws IOException, InterruptedException {
+        return currentPage;
+    }
+
+    @Override
+    public float getProgress() throws IOException, InterruptedException {
+        return revisionReader.getProgress();
+    }
+
+    @Override
+    public void close() throws IOException {
+        revisionReader.close();
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.inputformat;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A page and its revisions, which are read from the dump while iterating. The revisions can be iterated only
+ * once and only until the next page is requested from the record reader.
+ * <p>
+ * If object reuse is enabled a revision is only valid until the iterator is moved on.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class WikiPageRevisions implements Iterable<WikiRevisionWritable> {
+    private final WikiPageRecordReader reader;
+    private final WikiPageWritable page = new WikiPageWritable();
+    private boolean iterated;
+    private int generation;
+
+    WikiPageRevisions(WikiPageRecordReader reader) {
+        this.reader = reader;
+    }
+
+    void reset(WikiPageWritable page) {
+        // the page of the revisions might be refilled as soon as the next page is read ahead
+        this.page.setTitle(page.getTitle());
+        this.page.setId(page.getId());
+        this.page.setRedirect(page.isRedirect());
+        this.page.setNamespace(page.getNamespace());
+        this.page.setRedirectTarget(page.getRedirectTarget());
+        iterated = false;
+        generation++;
+    }
+
+    public WikiPageWritable getPage() {
+        return page;
+    }
+
+    @Override
+    public Iterator<WikiRevisionWritable> iterator() {
+        if (iterated) {
+            throw new IllegalStateException("Revisions of page " + page.getId() + " were already iterated");
+        }
+        iterated = true;
+        return new RevisionIterator();
+    }
+
+    private class RevisionIterator implements Iterator<WikiRevisionWritable> {
+        private final int pageGeneration = generation;
+        private WikiRevisionWritable next;
+        private boolean fetched;
+
+        @Override
+        public boolean hasNext() {
+            if (!fetched) {
+                next = fetch();
+                fetched = true;
+            }
+            return next != null;
+        }
+
+        @Override
+        public WikiRevisionWritable next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            fetched = false;
+            return next;
+        }
+
+        private WikiRevisionWritable fetch() {
+            if (pageGeneration != generation) {
+                // the reader moved on to the next page
+                return null;
+            }
+            try {
+                return reader.nextRevision();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
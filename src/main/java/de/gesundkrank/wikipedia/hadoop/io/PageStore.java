@@ -0,0 +1,401 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.apache.hadoop.io.DataInputByteBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Immutable local store of revisions keyed by revision id, read through memory mapped files.
+ * <p>
+ * Every record is compressed on its own, records that don't get smaller are stored uncompressed and are
+ * returned by {@link #getSerialized(long)} without copying them out of the mapping. Opening a store only maps
+ * the file, a lookup is a binary search over the mapped keys and one record. The layout of {@link #FILE_NAME} is
+ * <pre>
+ * header:  magic "WIKIPGS", version byte
+ * records: per record the length of the serialized revision (int), then the deflated or plain revision
+ * keys:    revision id (long) of every record, ascending
+ * offsets: offset (long) of every record and of the end of the records
+ * trailer: number of records (long), offset of the keys (long), length of the longest record (int)
+ * </pre>
+ * A {@link TitleIndex} and a {@link RedirectTable} next to the file are used for lookups by title.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class PageStore implements Closeable {
+    public static final String FILE_NAME = "revisions.store";
+
+    private static final byte[] MAGIC = "WIKIPGS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
+    private static final int TRAILER_LENGTH = 8 + 8 + 4;
+    // records are mapped in overlapping segments, a record starting in a segment ends in it as well
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final RandomAccessFile file;
+    private final long size;
+    private final LongBuffer keys;
+    private final LongBuffer offsets;
+    private final MappedByteBuffer[] segments;
+    private final TitleIndex titleIndex;
+    private final RedirectTable redirectTable;
+    private final ThreadLocal<Inflater> inflaters = new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+            return new Inflater(true);
+        }
+    };
+
+    /**
+     * @param directory directory with the {@link #FILE_NAME} and optionally title index and redirect table
+     */
+    public PageStore(File directory) throws IOException {
+        file = new RandomAccessFile(new File(directory, FILE_NAME), "r");
+        try {
+            FileChannel channel = file.getChannel();
+            long length = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_LENGTH);
+            if (length < HEADER_LENGTH + TRAILER_LENGTH + 8 || channel.read(header, 0) != HEADER_LENGTH ||
+                    !Arrays.equals(MAGIC, Arrays.copyOf(header.array(), MAGIC.length))) {
+                throw new IOException("Not a page store");
+            }
+            if (header.get(MAGIC.length) != VERSION) {
+                throw new IOException(String.format("Unknown version %d of page store", header.get(MAGIC.length)));
+            }
+            channel.read(trailer, length - TRAILER_LENGTH);
+            trailer.flip();
+            size = trailer.getLong();
+            long keysOffset = trailer.getLong();
+            int maxRecordLength = trailer.getInt();
+            if ((size + 1) * 8 > Integer.MAX_VALUE) {
+                throw new IOException(String.format("Page store with %d records is too large", size));
+            }
+
+            keys = channel.map(FileChannel.MapMode.READ_ONLY, keysOffset, size * 8).asLongBuffer();
+            offsets = channel.map(FileChannel.MapMode.READ_ONLY, keysOffset + size * 8, (size + 1) * 8)
+                    .asLongBuffer();
+            segments = new MappedByteBuffer[(int) ((keysOffset + SEGMENT_SIZE - 1) / SEGMENT_SIZE)];
+            for (int i = 0; i < segments.length; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(SEGMENT_SIZE + maxRecordLength, keysOffset - start));
+            }
+
+            titleIndex = readTitleIndex(directory);
+            redirectTable = titleIndex != null ? readRedirectTable(directory) : null;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    private static TitleIndex readTitleIndex(File directory) throws IOException {
+        File index = new File(directory, TitleIndex.FILE_NAME);
+        return index.exists() ? new TitleIndex(Files.readAllBytes(index.toPath())) : null;
+    }
+
+    private static RedirectTable readRedirectTable(File directory) throws IOException {
+        File table = new File(directory, RedirectTable.FILE_NAME);
+        if (!table.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(table))) {
+            return RedirectTable.read(in);
+        }
+    }
+
+    /**
+     * Returns the number of revisions.
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Returns the title index of the store or null if it has none.
+     */
+    public TitleIndex getTitleIndex() {
+        return titleIndex;
+    }
+
+    /**
+     * Returns the serialized revision or null if it does not exist. Uncompressed records are read only views
+     * of the mapping, compressed ones are inflated into a new buffer.
+     */
+    public ByteBuffer getSerialized(long revisionId) throws IOException {
+        int index = indexOf(revisionId);
+        if (index < 0) {
+            return null;
+        }
+
+        long offset = offsets.get(index);
+        int length = (int) (offsets.get(index + 1) - offset);
+        int segment = (int) (offset / SEGMENT_SIZE);
+        ByteBuffer record = segments[segment].duplicate();
+        int position = (int) (offset - segment * SEGMENT_SIZE);
+        record.limit(position + length).position(position);
+
+        int rawLength = record.getInt();
+        if (rawLength == length - 4) {
+            return record.slice();
+        }
+        return ByteBuffer.wrap(inflate(record, rawLength));
+    }
+
+    private byte[] inflate(ByteBuffer record, int rawLength) throws IOException {
+        // the inflater takes arrays only, the extra byte is needed by inflaters without zlib header
+        byte[] compressed = new byte[record.remaining() + 1];
+        record.get(compressed, 0, compressed.length - 1);
+        byte[] raw = new byte[rawLength];
+
+        Inflater inflater = inflaters.get();
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            int length = 0;
+            while (length < rawLength && !inflater.finished()) {
+                int inflated = inflater.inflate(raw, length, rawLength - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+            if (length != rawLength) {
+                throw new IOException(String.format("Corrupt record, inflated %d of %d bytes", length, rawLength));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt record", e);
+        }
+        return raw;
+    }
+
+    /**
+     * Returns the revision or null if it does not exist.
+     */
+    public WikiRevisionWritable get(long revisionId) throws IOException {
+        return get(revisionId, new WikiRevisionWritable());
+    }
+
+    public WikiRevisionWritable get(long revisionId, WikiRevisionWritable reuse) throws IOException {
+        ByteBuffer serialized = getSerialized(revisionId);
+        if (serialized == null) {
+            return null;
+        }
+        DataInputByteBuffer in = new DataInputByteBuffer();
+        in.reset(serialized);
+        reuse.readFields(in);
+        return reuse;
+    }
+
+    /**
+     * Returns the latest revision of a title or null if it does not exist.
+     *
+     * @param title           title, spaces and underscores are equivalent
+     * @param followRedirects read the final target of a redirect, redirects that end in a cycle or a missing
+     *                        page are read themselves
+     */
+    public WikiRevisionWritable getByTitle(String title, boolean followRedirects) throws IOException {
+        if (titleIndex == null) {
+            throw new IOException("Page store has no title index");
+        }
+
+        int ordinal = titleIndex.indexOf(WikiPageWritable.normalizeTitle(title));
+        if (ordinal < 0) {
+            return null;
+        }
+        if (followRedirects && redirectTable != null && redirectTable.resolve(ordinal) >= 0) {
+            ordinal = redirectTable.resolve(ordinal);
+        }
+        return get(titleIndex.get(ordinal).getRevisionId());
+    }
+
+    private int indexOf(long revisionId) {
+        int low = 0;
+        int high = (int) size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long key = keys.get(mid);
+            if (key < revisionId) {
+                low = mid + 1;
+            } else if (key > revisionId) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Closes the file, the mappings are released by the garbage collector.
+     */
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Writes a store, the revisions have to be appended in ascending order of their ids.
+     */
+    public static class Writer implements Closeable {
+        private final File directory;
+        private final CountingOutputStream counter;
+        private final DataOutputStream out;
+        private final File keysFile;
+        private final File offsetsFile;
+        private final DataOutputStream keysOut;
+        private final DataOutputStream offsetsOut;
+        private final Deflater deflater;
+        private final DataOutputBuffer buffer = new DataOutputBuffer();
+        private byte[] compressed = new byte[1024];
+
+        private long size;
+        private long previousKey;
+        private int maxRecordLength;
+        private boolean closed;
+
+        /**
+         * @param directory        output directory, it is created if necessary
+         * @param compressionLevel deflate level of the records, 0 stores them uncompressed
+         */
+        public Writer(File directory, int compressionLevel) throws IOException {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Could not create " + directory);
+            }
+            this.directory = directory;
+            this.counter = new CountingOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(new File(directory, FILE_NAME))));
+            this.out = new DataOutputStream(counter);
+            this.deflater = compressionLevel != 0 ? new Deflater(compressionLevel, true) : null;
+
+            // keys and offsets follow the records, they are buffered in temporary files
+            this.keysFile = File.createTempFile(FILE_NAME, ".keys", directory);
+            this.offsetsFile = File.createTempFile(FILE_NAME, ".offsets", directory);
+            this.keysOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(keysFile)));
+            this.offsetsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(offsetsFile)));
+
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+        }
+
+        public void append(long revisionId, WikiRevisionWritable revision) throws IOException {
+            if (size > 0 && revisionId <= previousKey) {
+                throw new IOException(String.format("Revision %d is not greater than the previous one %d",
+                        revisionId, previousKey));
+            }
+
+            buffer.reset();
+            revision.write(buffer);
+            int rawLength = buffer.getLength();
+            int length = compress(buffer.getData(), rawLength);
+
+            keysOut.writeLong(revisionId);
+            offsetsOut.writeLong(counter.getBytesWritten());
+            out.writeInt(rawLength);
+            if (length < rawLength) {
+                out.write(compressed, 0, length);
+            } else {
+                out.write(buffer.getData(), 0, rawLength);
+                length = rawLength;
+            }
+
+            maxRecordLength = Math.max(maxRecordLength, 4 + length);
+            previousKey = revisionId;
+            size++;
+        }
+
+        /**
+         * @return compressed length or the raw length if compression does not save anything
+         */
+        private int compress(byte[] raw, int rawLength) {
+            if (deflater == null) {
+                return rawLength;
+            }
+            if (compressed.length < rawLength) {
+                compressed = new byte[Math.max(rawLength, compressed.length * 2)];
+            }
+
+            deflater.reset();
+            deflater.setInput(raw, 0, rawLength);
+            deflater.finish();
+            int length = 0;
+            while (!deflater.finished() && length < rawLength) {
+                length += deflater.deflate(compressed, length, rawLength - length);
+            }
+            return deflater.finished() ? length : rawLength;
+        }
+
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                offsetsOut.writeLong(counter.getBytesWritten());
+                keysOut.close();
+                offsetsOut.close();
+
+                long keysOffset = counter.getBytesWritten();
+                Files.copy(keysFile.toPath(), out);
+                Files.copy(offsetsFile.toPath(), out);
+                out.writeLong(size);
+                out.writeLong(keysOffset);
+                out.writeInt(maxRecordLength);
+            } finally {
+                out.close();
+                keysOut.close();
+                offsetsOut.close();
+                if (deflater != null) {
+                    deflater.end();
+                }
+                Files.deleteIfExists(keysFile.toPath());
+                Files.deleteIfExists(offsetsFile.toPath());
+            }
+        }
+    }
+}
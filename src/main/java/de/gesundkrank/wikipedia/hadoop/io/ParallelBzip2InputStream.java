@@ -0,0 +1,443 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decompresses bzip2 data, single and concatenated streams, on several threads.
+ * <p>
+ * The compression blocks of bzip2 are independent. A scanner thread searches the compressed input for the
+ * 48 bit block and end of stream markers, cuts out the bits of every block and wraps them into a stream of
+ * their own. A pool of workers decompresses these streams and the blocks are handed out in their original
+ * order. The number of blocks in flight is bounded, so memory stays limited if the consumer is slower than
+ * the decompression.
+ * <p>
+ * A block or end of stream marker may occur by chance inside compressed data. The block in front of it fails
+ * to decompress then and is decompressed again together with the following bits. For this the bits behind an
+ * end of stream marker up to the next marker are kept as a segment of their own, which yields no data.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class ParallelBzip2InputStream extends InputStream {
+    private static final long BLOCK_MAGIC = 0x314159265359L;
+    private static final long END_OF_STREAM_MAGIC = 0x177245385090L;
+    private static final long MAGIC_MASK = 0xffffffffffffL;
+    private static final int MAGIC_BITS = 48;
+    private static final int CRC_BITS = 32;
+    private static final byte[] STREAM_HEADER = {'B', 'Z', 'h', '9'};
+    private static final int MAX_MERGED_BLOCKS = 4;
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte[] NO_DATA = new byte[0];
+    private static final Block END = new Block(null, 0, 0, true);
+
+    private final InputStream in;
+    private final ExecutorService workers;
+    private final BlockingQueue<Block> blocks;
+    private final Thread scanner;
+    private volatile IOException scanFailure;
+
+    private Block pending;
+    private byte[] current = new byte[0];
+    private int position;
+    private boolean eof;
+    private boolean closed;
+
+    /**
+     * @param in      compressed input, it is closed with this stream
+     * @param threads number of threads that decompress blocks
+     */
+    public ParallelBzip2InputStream(InputStream in, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads has to be positive");
+        }
+        this.in = in;
+        this.workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "bzip2-worker");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.blocks = new ArrayBlockingQueue<>(threads * 2);
+        this.scanner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                scan();
+            }
+        }, "bzip2-scanner");
+        scanner.setDaemon(true);
+        scanner.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return current[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        scanner.interrupt();
+        workers.shutdownNow();
+        in.close();
+    }
+
+    /**
+     * Moves to the next decompressed block if the current one is consumed.
+     *
+     * @return false at the end of the input
+     */
+    private boolean ensureData() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        while (position == current.length) {
+            if (eof) {
+                return false;
+            }
+            Block block = nextBlock();
+            if (block == END) {
+                eof = true;
+                if (scanFailure != null) {
+                    throw scanFailure;
+                }
+                return false;
+            }
+            current = decoded(block);
+            position = 0;
+        }
+        return true;
+    }
+
+    private Block nextBlock() throws IOException {
+        if (pending != null) {
+            Block block = pending;
+            pending = null;
+            return block;
+        }
+        try {
+            return blocks.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the next block");
+        }
+    }
+
+    /**
+     * Returns the decompressed data of a block. If it can't be decompressed, it is merged with its successors
+     * until the merged bits make up a valid block.
+     */
+    private byte[] decoded(Block block) throws IOException {
+        if (block.streamEnd) {
+            return NO_DATA;
+        }
+        try {
+            return block.decoded.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decompressing");
+        } catch (ExecutionException e) {
+            IOException failure = e.getCause() instanceof IOException ?
+                    (IOException) e.getCause() : new IOException(e.getCause());
+
+            Block merged = block;
+            for (int i = 1; i < MAX_MERGED_BLOCKS; i++) {
+                Block next = nextBlock();
+                if (next == END) {
+                    pending = END;
+                    break;
+                }
+                merged = merged.append(next);
+                try {
+                    return merged.decode();
+                } catch (IOException mergeFailure) {
+                    failure = mergeFailure;
+                }
+            }
+            throw failure;
+        }
+    }
+
+    /**
+     * Splits the compressed input into blocks and submits them to the workers.
+     */
+    private void scan() {
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            // bytes since the start of the current block, data[0] is the byte at dataOffset of the input
+            byte[] data = new byte[BUFFER_SIZE];
+            int dataLength = 0;
+            long dataOffset = 0;
+
+            long window = 0;
+            long bitPosition = 0;
+            // start of the current segment and whether it starts with an end of stream marker
+            long segmentStart = -1;
+            boolean streamEnd = false;
+
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                for (int i = 0; i < n; i++) {
+                    if (dataLength == data.length) {
+                        if (segmentStart < 0) {
+                            // only the bytes of a marker that may start in them have to be kept
+                            int keep = MAGIC_BITS / 8 + 1;
+                            System.arraycopy(data, dataLength - keep, data, 0, keep);
+                            dataOffset += dataLength - keep;
+                            dataLength = keep;
+                        } else {
+                            data = Arrays.copyOf(data, data.length * 2);
+                        }
+                    }
+                    int b = buffer[i];
+                    data[dataLength++] = (byte) b;
+
+                    for (int bit = 7; bit >= 0; bit--) {
+                        window = (window << 1) | ((b >>> bit) & 1);
+                        bitPosition++;
+                        long magic = window & MAGIC_MASK;
+                        if (magic != BLOCK_MAGIC && magic != END_OF_STREAM_MAGIC) {
+                            continue;
+                        }
+
+                        long magicStart = bitPosition - MAGIC_BITS;
+                        if (segmentStart >= 0) {
+                            submit(data, dataOffset, segmentStart, magicStart, streamEnd);
+                        }
+                        segmentStart = magicStart;
+                        streamEnd = magic == END_OF_STREAM_MAGIC;
+
+                        // drop everything in front of the byte the next segment starts in
+                        int drop = (int) (magicStart / 8 - dataOffset);
+                        System.arraycopy(data, drop, data, 0, dataLength - drop);
+                        dataLength -= drop;
+                        dataOffset += drop;
+                    }
+                }
+            }
+
+            if (segmentStart >= 0 && !streamEnd) {
+                throw new IOException("bzip2 stream is truncated");
+            }
+            if (segmentStart >= 0) {
+                submit(data, dataOffset, segmentStart, (dataOffset + dataLength) * 8, true);
+            }
+        } catch (IOException e) {
+            scanFailure = e;
+        } catch (InterruptedException e) {
+            // the stream was closed, keep the flag so that putting END below doesn't block
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            // anything else, e.g. running out of memory on a corrupt segment, has to reach the reader as well
+            scanFailure = new IOException("Scanning the bzip2 stream failed", t);
+        } finally {
+            try {
+                blocks.put(END);
+            } catch (InterruptedException e) {
+                // the stream was closed
+            }
+        }
+    }
+
+    private void submit(byte[] data, long dataOffset, long start, long end, boolean streamEnd)
+            throws InterruptedException {
+        int from = (int) (start / 8 - dataOffset);
+        int to = (int) ((end + 7) / 8 - dataOffset);
+        final Block block = new Block(Arrays.copyOfRange(data, from, to), (int) (start % 8), end - start,
+                streamEnd);
+        if (!streamEnd) {
+            block.decoded = workers.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    return block.decode();
+                }
+            });
+        }
+        blocks.put(block);
+    }
+
+    /**
+     * Compressed bits of a block starting with its block marker, or the bits behind an end of stream marker
+     * starting with that marker.
+     */
+    private static class Block {
+        private final byte[] data;
+        private final int offset;
+        private final long bits;
+        private final boolean streamEnd;
+        private Future<byte[]> decoded;
+
+        Block(byte[] data, int offset, long bits, boolean streamEnd) {
+            this.data = data;
+            this.offset = offset;
+            this.bits = bits;
+            this.streamEnd = streamEnd;
+        }
+
+        /**
+         * Returns a block with the bits of this block followed by the bits of next.
+         */
+        Block append(Block next) {
+            BitWriter writer = new BitWriter((int) ((bits + next.bits) / 8 + 1));
+            writer.copy(data, offset, bits);
+            writer.copy(next.data, next.offset, next.bits);
+            return new Block(writer.toByteArray(), 0, bits + next.bits, streamEnd);
+        }
+
+        /**
+         * Decompresses the block as a stream of its own. The CRC of a stream with a single block is the CRC of
+         * that block.
+         */
+        byte[] decode() throws IOException {
+            BitWriter writer = new BitWriter((int) (bits / 8) + STREAM_HEADER.length + 11);
+            for (byte b : STREAM_HEADER) {
+                writer.write(b & 0xff, 8);
+            }
+            writer.copy(data, offset, bits);
+            writer.write(END_OF_STREAM_MAGIC, MAGIC_BITS);
+            writer.write(readBits(MAGIC_BITS, CRC_BITS), CRC_BITS);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(1 << 20);
+            try (InputStream stream = new BZip2CompressorInputStream(
+                    new ByteArrayInputStream(writer.toByteArray()))) {
+                byte[] buffer = new byte[1 << 16];
+                int n;
+                while ((n = stream.read(buffer)) != -1) {
+                    out.write(buffer, 0, n);
+                }
+            } catch (RuntimeException e) {
+                // corrupt data may surface as exceptions other than IOException
+                throw new IOException(e);
+            }
+            return out.toByteArray();
+        }
+
+        private long readBits(long from, int count) {
+            long value = 0;
+            for (long i = offset + from; i < offset + from + count; i++) {
+                value = (value << 1) | ((data[(int) (i / 8)] >>> (7 - i % 8)) & 1);
+            }
+            return value;
+        }
+    }
+
+    private static class BitWriter {
+        private byte[] buffer;
+        private int length;
+        private long bitBuffer;
+        private int bitCount;
+
+        BitWriter(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        /**
+         * Writes the lowest count bits of value, count is at most 56.
+         */
+        void write(long value, int count) {
+            if (count > 32) {
+                write(value >>> 32, count - 32);
+                count = 32;
+            }
+            bitBuffer = (bitBuffer << count) | (value & ((1L << count) - 1));
+            bitCount += count;
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2 + 1);
+                }
+                buffer[length++] = (byte) (bitBuffer >>> bitCount);
+            }
+        }
+
+        /**
+         * Writes bits of src starting at bit offset.
+         */
+        void copy(byte[] src, int offset, long bits) {
+            long end = offset + bits;
+            long i = offset;
+            if (i % 8 != 0) {
+                int head = (int) Math.min(8 - i % 8, bits);
+                write((src[(int) (i / 8)] & 0xff) >>> (8 - i % 8 - head), head);
+                i += head;
+            }
+            for (; i + 8 <= end; i += 8) {
+                write(src[(int) (i / 8)] & 0xff, 8);
+            }
+            if (i < end) {
+                int tail = (int) (end - i);
+                write((src[(int) (i / 8)] & 0xff) >>> (8 - tail), tail);
+            }
+        }
+
+        /**
+         * Returns the written bytes, the last one padded with zeros.
+         */
+        byte[] toByteArray() {
+            if (bitCount > 0) {
+                write(0, 8 - bitCount);
+            }
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+}
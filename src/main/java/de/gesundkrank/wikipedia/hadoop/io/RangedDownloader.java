@@ -0,0 +1,348 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads a file with several parallel HTTP range requests into a local file.
+ * <p>
+ * The file is divided into chunks of a fixed size. Every finished chunk is recorded in a progress file next to
+ * the target, so a download that failed is resumed with the missing chunks. The progress is discarded if the
+ * remote file changed in the meantime. Servers that don't support range requests are read with a single
+ * request.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class RangedDownloader {
+    private static final Logger LOGGER = Logger.getLogger(RangedDownloader.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int threads;
+    private final long chunkSize;
+    private final int retries;
+
+    /**
+     * @param threads   number of parallel requests
+     * @param chunkSize size of the ranges that are requested and recorded as progress
+     * @param retries   number of times a failed chunk is requested again before the download fails
+     */
+    public RangedDownloader(int threads, long chunkSize, int retries) {
+        if (threads < 1 || chunkSize < 1 || retries < 0) {
+            throw new IllegalArgumentException("threads and chunkSize have to be positive, retries not negative");
+        }
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.retries = retries;
+    }
+
+    /**
+     * Requests the headers of a remote file.
+     *
+     * @param url remote file
+     * @return length, modification time and range support of the file
+     * @throws IOException if the request fails or the server doesn't send a Last-Modified header
+     */
+    public static RemoteFile probe(URL url) throws IOException {
+        URLConnection connection = url.openConnection();
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).setRequestMethod("HEAD");
+        }
+        try {
+            long lastModified = connection.getLastModified();
+            if (lastModified == 0) {
+                throw new IOException("No Last-Modified header for " + url);
+            }
+            boolean acceptsRanges = "bytes".equals(connection.getHeaderField("Accept-Ranges"));
+            return new RemoteFile(url, connection.getContentLengthLong(), lastModified, acceptsRanges);
+        } finally {
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).disconnect();
+            }
+        }
+    }
+
+    /**
+     * Downloads a remote file. A download into the same target that was interrupted is resumed.
+     *
+     * @param url    remote file
+     * @param target local file
+     * @return the probed remote file
+     * @throws IOException if a chunk could not be downloaded, the finished chunks are kept
+     */
+    public RemoteFile download(URL url, File target) throws IOException {
+        RemoteFile remote = probe(url);
+        download(remote, target);
+        return remote;
+    }
+
+    /**
+     * Downloads a probed remote file. A download into the same target that was interrupted is resumed.
+     *
+     * @param remote remote file
+     * @param target local file
+     * @throws IOException if a chunk could not be downloaded, the finished chunks are kept
+     */
+    public void download(RemoteFile remote, File target) throws IOException {
+        File progressFile = getProgressFile(target);
+        if (!remote.acceptsRanges() || remote.getLength() < 0) {
+            LOGGER.info("Server doesn't support ranges, downloading " + remote.getUrl() + " at once.");
+            progressFile.delete();
+            try (InputStream in = remote.getUrl().openStream();
+                 FileOutputStream out = new FileOutputStream(target)) {
+                copy(in, out.getChannel(), 0, Long.MAX_VALUE);
+            }
+            return;
+        }
+
+        int chunks = (int) ((remote.getLength() + chunkSize - 1) / chunkSize);
+        BitSet finished = readProgress(remote, target, progressFile);
+        if (finished == null) {
+            finished = new BitSet(chunks);
+            try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+                file.setLength(remote.getLength());
+            }
+            writeHeader(remote, progressFile);
+        } else {
+            LOGGER.info("Resuming download of " + remote.getUrl() + ", " + finished.cardinality() + " of " +
+                    chunks + " chunks are finished.");
+        }
+
+        try (FileChannel channel = new RandomAccessFile(target, "rw").getChannel();
+             Writer progress = new OutputStreamWriter(new FileOutputStream(progressFile, true),
+                     StandardCharsets.US_ASCII)) {
+
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int chunk = finished.nextClearBit(0); chunk < chunks;
+                     chunk = finished.nextClearBit(chunk + 1)) {
+                    futures.add(executor.submit(new ChunkDownload(remote, chunk, channel, progress)));
+                }
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                // the remaining chunks have to stop before the channel is closed
+                executor.shutdownNow();
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Download of " + remote.getUrl() + " was interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw new IOException("Download of " + remote.getUrl() + " failed", cause);
+        }
+
+        progressFile.delete();
+    }
+
+    /**
+     * Returns the file the progress of a download into target is recorded in.
+     */
+    public static File getProgressFile(File target) {
+        return new File(target.getParentFile(), target.getName() + ".progress");
+    }
+
+    /**
+     * Reads the finished chunks of a previous download of the same remote file.
+     *
+     * @return the finished chunks or null if there is nothing to resume
+     */
+    private BitSet readProgress(RemoteFile remote, File target, File progressFile) throws IOException {
+        if (!progressFile.exists() || !target.exists() || target.length() != remote.getLength()) {
+            return null;
+        }
+
+        String progress = new String(Files.readAllBytes(progressFile.toPath()), StandardCharsets.US_ASCII);
+        // the last line may be incomplete if the process died while writing it, a torn "12" of "123" would still
+        // parse, so only lines that were terminated are trusted
+        String[] lines = progress.substring(0, progress.lastIndexOf('\n') + 1).split("\n");
+        if (!getHeader(remote).equals(lines[0])) {
+            LOGGER.info("Remote file " + remote.getUrl() + " changed, restarting the download.");
+            return null;
+        }
+
+        BitSet finished = new BitSet();
+        for (int i = 1; i < lines.length; i++) {
+            try {
+                finished.set(Integer.parseInt(lines[i]));
+            } catch (NumberFormatException e) {
+                break;
+            }
+        }
+        return finished;
+    }
+
+    private void writeHeader(RemoteFile remote, File progressFile) throws IOException {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(progressFile), StandardCharsets.US_ASCII)) {
+            writer.write(getHeader(remote));
+            writer.write('\n');
+        }
+    }
+
+    private String getHeader(RemoteFile remote) {
+        return remote.getLength() + " " + remote.getLastModified() + " " + chunkSize;
+    }
+
+    /**
+     * Copies in into the channel starting at position.
+     *
+     * @return number of copied bytes
+     */
+    private static long copy(InputStream in, FileChannel channel, long position, long maxLength)
+            throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        long copied = 0;
+        int n;
+        while (copied < maxLength &&
+                (n = in.read(buffer, 0, (int) Math.min(buffer.length, maxLength - copied))) != -1) {
+            byteBuffer.clear().limit(n);
+            while (byteBuffer.hasRemaining()) {
+                copied += channel.write(byteBuffer, position + copied);
+            }
+        }
+        return copied;
+    }
+
+    private class ChunkDownload implements Runnable {
+        private final RemoteFile remote;
+        private final int chunk;
+        private final FileChannel channel;
+        private final Writer progress;
+
+        ChunkDownload(RemoteFile remote, int chunk, FileChannel channel, Writer progress) {
+            this.remote = remote;
+            this.chunk = chunk;
+            this.channel = channel;
+            this.progress = progress;
+        }
+
+        @Override
+        public void run() {
+            IOException failure = null;
+            for (int attempt = 0; attempt <= retries; attempt++) {
+                try {
+                    downloadChunk();
+                    return;
+                } catch (IOException e) {
+                    LOGGER.warn("Failed to download chunk " + chunk + " of " + remote.getUrl(), e);
+                    failure = e;
+                }
+            }
+            throw new UncheckedIOException(failure);
+        }
+
+        private void downloadChunk() throws IOException {
+            long start = chunk * chunkSize;
+            long length = Math.min(chunkSize, remote.getLength() - start);
+
+            HttpURLConnection connection = (HttpURLConnection) remote.getUrl().openConnection();
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + (start + length - 1));
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("Unexpected response " + connection.getResponseCode() + " for range " +
+                            start + "-" + (start + length - 1));
+                }
+                if (connection.getLastModified() != 0 && connection.getLastModified() != remote.getLastModified()) {
+                    throw new IOException("Remote file " + remote.getUrl() + " changed during the download");
+                }
+
+                long copied;
+                try (InputStream in = connection.getInputStream()) {
+                    copied = copy(in, channel, start, length);
+                }
+                if (copied != length) {
+                    throw new IOException("Chunk " + chunk + " is truncated: " + copied + " of " + length);
+                }
+            } finally {
+                connection.disconnect();
+            }
+
+            channel.force(false);
+            synchronized (progress) {
+                progress.write(chunk + "\n");
+                progress.flush();
+            }
+        }
+    }
+
+    /**
+     * Headers of a remote file.
+     */
+    public static class RemoteFile {
+        private final URL url;
+        private final long length;
+        private final long lastModified;
+        private final boolean acceptsRanges;
+
+        public RemoteFile(URL url, long length, long lastModified, boolean acceptsRanges) {
+            this.url = url;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.acceptsRanges = acceptsRanges;
+        }
+
+        public URL getUrl() {
+            return url;
+        }
+
+        /**
+         * Returns the length in bytes or -1 if it is unknown.
+         */
+        public long getLength() {
+            return length;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public boolean acceptsRanges() {
+            return acceptsRanges;
+        }
+    }
+}
@@ -0,0 +1,252 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Maps the redirect pages of a {@link TitleIndex} to the final target of their redirect chains. Pages are
+ * identified by their position in the title index, so a lookup with redirects resolved costs one title lookup,
+ * one binary search and one seek into the MapFile. The layout is
+ * <pre>
+ * header:  magic "WIKIRDR", version byte, number of redirects (int)
+ * sources: position of every redirect page (int), ascending
+ * targets: position of the final target of every redirect (int) or {@link #BROKEN}
+ * </pre>
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class RedirectTable {
+    /**
+     * Name of the table in the output path of {@link de.gesundkrank.wikipedia.hadoop.util.RepackToMapFile}.
+     */
+    public static final String FILE_NAME = "_redirects";
+
+    /**
+     * Returned by {@link #resolve} for titles that are no redirects.
+     */
+    public static final int NO_REDIRECT = -1;
+
+    /**
+     * Target of redirects that end in a cycle or a missing page.
+     */
+    public static final int BROKEN = -2;
+
+    private static final byte[] MAGIC = "WIKIRDR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+
+    private final int[] sources;
+    private final int[] targets;
+
+    RedirectTable(int[] sources, int[] targets) {
+        this.sources = sources;
+        this.targets = targets;
+    }
+
+    /**
+     * Reads a table into memory.
+     */
+    public static RedirectTable read(Path path, Configuration conf) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        try (FSDataInputStream in = fs.open(path)) {
+            return read(in);
+        }
+    }
+
+    public static RedirectTable read(DataInputStream in) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(magic);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException("Not a redirect table");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unknown version %d of redirect table", version));
+        }
+
+        int size = in.readInt();
+        int[] sources = new int[size];
+        for (int i = 0; i < size; i++) {
+            sources[i] = in.readInt();
+        }
+        int[] targets = new int[size];
+        for (int i = 0; i < size; i++) {
+            targets[i] = in.readInt();
+        }
+        return new RedirectTable(sources, targets);
+    }
+
+    /**
+     * Returns the table stored in the output path of a repack job or null if it has none.
+     */
+    public static RedirectTable readIfExists(Path outputPath, Configuration conf) throws IOException {
+        Path path = new Path(outputPath, FILE_NAME);
+        return path.getFileSystem(conf).exists(path) ? read(path, conf) : null;
+    }
+
+    /**
+     * Returns the number of redirects.
+     */
+    public int size() {
+        return sources.length;
+    }
+
+    /**
+     * Returns the number of redirects that end in a cycle or a missing page.
+     */
+    public int getBroken() {
+        int broken = 0;
+        for (int target : targets) {
+            if (target == BROKEN) {
+                broken++;
+            }
+        }
+        return broken;
+    }
+
+    /**
+     * @param ordinal position of a title in the title index
+     * @return position of the final target, {@link #NO_REDIRECT} or {@link #BROKEN}
+     */
+    public int resolve(int ordinal) {
+        int i = Arrays.binarySearch(sources, ordinal);
+        return i < 0 ? NO_REDIRECT : targets[i];
+    }
+
+    /**
+     * Collects the redirects of a title index and writes them with the chains collapsed.
+     */
+    public static class Builder {
+        private final List<String> targetTitles = new ArrayList<>();
+        private int[] sources = new int[1024];
+
+        /**
+         * Adds a redirect, the redirects have to be added in the order of their sources.
+         *
+         * @param source position of the redirect page in the title index
+         * @param target normalized title of the page the redirect points to
+         */
+        public void add(int source, String target) throws IOException {
+            int size = targetTitles.size();
+            if (size > 0 && sources[size - 1] >= source) {
+                throw new IOException(String.format("Redirect %d is not greater than the previous one", source));
+            }
+            if (size == sources.length) {
+                sources = Arrays.copyOf(sources, size * 2);
+            }
+            sources[size] = source;
+            targetTitles.add(target);
+        }
+
+        public int size() {
+            return targetTitles.size();
+        }
+
+        /**
+         * Follows every redirect to the first page that is no redirect. Chains that run into a cycle or a title
+         * missing in the index are {@link #BROKEN}.
+         */
+        public RedirectTable build(TitleIndex index) {
+            int size = targetTitles.size();
+            int[] sources = Arrays.copyOf(this.sources, size);
+
+            // redirect that is next in the chain, or the final target encoded as -(ordinal) - 3
+            int[] next = new int[size];
+            for (int i = 0; i < size; i++) {
+                int target = index.indexOf(targetTitles.get(i));
+                if (target < 0) {
+                    next[i] = BROKEN;
+                } else {
+                    int redirect = Arrays.binarySearch(sources, target);
+                    next[i] = redirect < 0 ? -target - 3 : redirect;
+                }
+            }
+
+            int[] targets = new int[size];
+            Arrays.fill(targets, Integer.MIN_VALUE);
+            boolean[] onPath = new boolean[size];
+            int[] path = new int[16];
+            for (int i = 0; i < size; i++) {
+                int length = 0;
+                int current = i;
+                int target;
+                while (true) {
+                    if (targets[current] != Integer.MIN_VALUE) {
+                        target = targets[current];
+                        break;
+                    }
+                    if (onPath[current]) {
+                        target = BROKEN;
+                        break;
+                    }
+                    onPath[current] = true;
+                    if (length == path.length) {
+                        path = Arrays.copyOf(path, length * 2);
+                    }
+                    path[length++] = current;
+
+                    if (next[current] == BROKEN) {
+                        target = BROKEN;
+                        break;
+                    }
+                    if (next[current] < 0) {
+                        target = -next[current] - 3;
+                        break;
+                    }
+                    current = next[current];
+                }
+
+                for (int j = 0; j < length; j++) {
+                    targets[path[j]] = target;
+                    onPath[path[j]] = false;
+                }
+            }
+            return new RedirectTable(sources, targets);
+        }
+    }
+
+    /**
+     * Writes the table, the stream is closed.
+     */
+    public void write(OutputStream stream) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(stream)) {
+            out.write(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(sources.length);
+            for (int source : sources) {
+                out.writeInt(source);
+            }
+            for (int target : targets) {
+                out.writeInt(target);
+            }
+        }
+    }
+}
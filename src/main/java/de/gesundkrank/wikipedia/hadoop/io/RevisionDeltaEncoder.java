@@ -0,0 +1,94 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+
+/**
+ * Replaces the texts of consecutive revisions of a page by deltas against their predecessor. Every
+ * snapshotInterval revisions the complete text is kept, so rebuilding a text never applies more than
+ * snapshotInterval - 1 deltas. The text is kept as well if the delta is not smaller.
+ * <p>
+ * The revisions of a page have to be passed in order, {@link #reset()} has to be called before the first
+ * revision of the next page.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class RevisionDeltaEncoder {
+    private final int snapshotInterval;
+
+    private long previousId = -1;
+    private byte[] previousText = new byte[0];
+    private int previousLength;
+    private byte[] currentText = new byte[0];
+    private int revisionsSinceSnapshot;
+
+    /**
+     * @param snapshotInterval number of revisions from one complete text to the next
+     */
+    public RevisionDeltaEncoder(int snapshotInterval) {
+        if (snapshotInterval < 1) {
+            throw new IllegalArgumentException("snapshotInterval has to be positive: " + snapshotInterval);
+        }
+        this.snapshotInterval = snapshotInterval;
+    }
+
+    /**
+     * Forgets the previous revision, the next revision is kept completely.
+     */
+    public void reset() {
+        previousId = -1;
+        revisionsSinceSnapshot = 0;
+    }
+
+    /**
+     * Replaces the text of the revision by a delta against the previous revision if that is worth it.
+     */
+    public void encode(WikiRevisionWritable revision) {
+        if (!revision.hasText()) {
+            return;
+        }
+
+        int length = revision.getTextLength();
+        if (currentText.length < length) {
+            currentText = new byte[Math.max(length, currentText.length * 2)];
+        }
+        System.arraycopy(revision.getTextBytes(), 0, currentText, 0, length);
+
+        boolean snapshot = previousId < 0 || revisionsSinceSnapshot + 1 >= snapshotInterval;
+        if (!snapshot) {
+            byte[] delta = TextDelta.encode(previousText, previousLength, currentText, length);
+            if (delta.length < length) {
+                revision.setTextDelta(previousId, delta, 0, delta.length);
+                revisionsSinceSnapshot++;
+            } else {
+                snapshot = true;
+            }
+        }
+        if (snapshot) {
+            revisionsSinceSnapshot = 0;
+        }
+
+        byte[] text = previousText;
+        previousText = currentText;
+        previousLength = length;
+        currentText = text;
+        previousId = revision.getId();
+    }
+}
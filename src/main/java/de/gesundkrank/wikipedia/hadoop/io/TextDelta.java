@@ -0,0 +1,264 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary delta between two revision texts.
+ * <p>
+ * A delta starts with the length of the target text followed by copy and insert operations. A copy
+ * references a range of the base text, an insert carries new bytes. Edits of a revision are usually local,
+ * so the common prefix and suffix of both texts are copied first. The rest of the target is matched against
+ * the base line by line, matches are extended byte wise in both directions beyond the line, so moved
+ * paragraphs become copies as well.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public final class TextDelta {
+    private static final int COPY = 0;
+    private static final int INSERT = 1;
+
+    // shorter matches cost more as copy than as insert
+    private static final int MIN_COPY_LENGTH = 16;
+    private static final int MAX_CANDIDATES = 16;
+
+    private TextDelta() {
+    }
+
+    /**
+     * Creates a delta that rebuilds target from base.
+     */
+    public static byte[] encode(byte[] base, int baseLength, byte[] target, int targetLength) {
+        try {
+            return new Encoder(base, baseLength, target, targetLength).encode();
+        } catch (IOException e) {
+            // writes into a DataOutputBuffer do not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Rebuilds the target text of a delta.
+     *
+     * @return the target text
+     * @throws IOException if the delta does not match the base
+     */
+    public static byte[] apply(byte[] base, int baseLength, byte[] delta, int deltaLength) throws IOException {
+        int position = 0;
+        int targetLength = WritableComparator.readVInt(delta, position);
+        position += WritableUtils.decodeVIntSize(delta[position]);
+
+        byte[] target = new byte[targetLength];
+        int targetPosition = 0;
+        while (position < deltaLength) {
+            long op = WritableComparator.readVLong(delta, position);
+            position += WritableUtils.decodeVIntSize(delta[position]);
+            int length = (int) (op >>> 1);
+            if (targetPosition + length > targetLength) {
+                throw new IOException("Delta exceeds the target length " + targetLength);
+            }
+
+            if ((op & 1) == COPY) {
+                int offset = WritableComparator.readVInt(delta, position);
+                position += WritableUtils.decodeVIntSize(delta[position]);
+                if (offset + length > baseLength) {
+                    throw new IOException("Delta copies beyond the base length " + baseLength);
+                }
+                System.arraycopy(base, offset, target, targetPosition, length);
+            } else {
+                System.arraycopy(delta, position, target, targetPosition, length);
+                position += length;
+            }
+            targetPosition += length;
+        }
+
+        if (targetPosition != targetLength) {
+            throw new IOException("Delta is incomplete");
+        }
+        return target;
+    }
+
+    private static final class Encoder {
+        private final byte[] base;
+        private final int baseLength;
+        private final byte[] target;
+        private final int targetLength;
+        private final DataOutputBuffer out = new DataOutputBuffer();
+
+        // copy that is written as soon as it can not be extended anymore
+        private int copyOffset;
+        private int copyLength;
+
+        Encoder(byte[] base, int baseLength, byte[] target, int targetLength) {
+            this.base = base;
+            this.baseLength = baseLength;
+            this.target = target;
+            this.targetLength = targetLength;
+        }
+
+        byte[] encode() throws IOException {
+            WritableUtils.writeVInt(out, targetLength);
+
+            int maxCommon = Math.min(baseLength, targetLength);
+            int prefix = 0;
+            while (prefix < maxCommon && base[prefix] == target[prefix]) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < maxCommon - prefix &&
+                    base[baseLength - suffix - 1] == target[targetLength - suffix - 1]) {
+                suffix++;
+            }
+
+            copy(0, prefix);
+            encodeMiddle(prefix, baseLength - suffix, targetLength - suffix);
+            copy(baseLength - suffix, suffix);
+            flushCopy();
+
+            byte[] delta = new byte[out.getLength()];
+            System.arraycopy(out.getData(), 0, delta, 0, delta.length);
+            return delta;
+        }
+
+        private void encodeMiddle(int start, int baseEnd, int targetEnd) throws IOException {
+            Map<Integer, List<Integer>> lines = indexLines(start, baseEnd);
+
+            int insertStart = start;
+            int position = start;
+            while (position < targetEnd) {
+                int lineEnd = lineEnd(target, position, targetEnd);
+                List<Integer> candidates = lines.get(hash(target, position, lineEnd));
+
+                int bestOffset = -1;
+                int bestLength = 0;
+                if (candidates != null) {
+                    for (int offset : candidates) {
+                        int length = matchLength(offset, baseEnd, position, targetEnd);
+                        if (length > bestLength) {
+                            bestLength = length;
+                            bestOffset = offset;
+                        }
+                    }
+                }
+
+                // the match may start in front of the line, e.g. behind a changed word
+                while (bestLength > 0 && position > insertStart && bestOffset > 0 &&
+                        base[bestOffset - 1] == target[position - 1]) {
+                    bestOffset--;
+                    position--;
+                    bestLength++;
+                }
+
+                if (bestLength >= MIN_COPY_LENGTH) {
+                    insert(insertStart, position);
+                    copy(bestOffset, bestLength);
+                    position += bestLength;
+                    insertStart = position;
+                } else {
+                    position = lineEnd;
+                }
+            }
+            insert(insertStart, targetEnd);
+        }
+
+        private Map<Integer, List<Integer>> indexLines(int start, int end) {
+            Map<Integer, List<Integer>> lines = new HashMap<>();
+            int position = start;
+            while (position < end) {
+                int lineEnd = lineEnd(base, position, end);
+                int hash = hash(base, position, lineEnd);
+                List<Integer> offsets = lines.get(hash);
+                if (offsets == null) {
+                    offsets = new ArrayList<>(1);
+                    lines.put(hash, offsets);
+                }
+                if (offsets.size() < MAX_CANDIDATES) {
+                    offsets.add(position);
+                }
+                position = lineEnd;
+            }
+            return lines;
+        }
+
+        private int matchLength(int baseOffset, int baseEnd, int targetOffset, int targetEnd) {
+            int length = 0;
+            int max = Math.min(baseEnd - baseOffset, targetEnd - targetOffset);
+            while (length < max && base[baseOffset + length] == target[targetOffset + length]) {
+                length++;
+            }
+            return length;
+        }
+
+        private void copy(int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            if (copyLength > 0 && copyOffset + copyLength == offset) {
+                copyLength += length;
+                return;
+            }
+            flushCopy();
+            copyOffset = offset;
+            copyLength = length;
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyLength > 0) {
+                WritableUtils.writeVLong(out, ((long) copyLength << 1) | COPY);
+                WritableUtils.writeVInt(out, copyOffset);
+                copyLength = 0;
+            }
+        }
+
+        private void insert(int start, int end) throws IOException {
+            if (end > start) {
+                flushCopy();
+                WritableUtils.writeVLong(out, ((long) (end - start) << 1) | INSERT);
+                out.write(target, start, end - start);
+            }
+        }
+
+        private static int lineEnd(byte[] text, int start, int end) {
+            int position = start;
+            while (position < end) {
+                if (text[position++] == '\n') {
+                    break;
+                }
+            }
+            return position;
+        }
+
+        private static int hash(byte[] text, int start, int end) {
+            int hash = 1;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + text[i];
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Sorted dictionary from normalized page titles to the page id and the id of the latest revision of the page.
+ * <p>
+ * The titles are front coded in buckets: the first title of a bucket is stored completely, the others as
+ * length of the prefix shared with the previous title and the remaining bytes. The whole index is held in
+ * memory, a lookup is a binary search over the first titles of the buckets and a scan of one bucket. The
+ * layout is
+ * <pre>
+ * header:  magic "WIKITTL", version byte, titles per bucket (int)
+ * buckets: per title shared prefix length (vint), suffix length (vint), suffix, page id (vlong),
+ *          revision id (vlong)
+ * index:   number of titles (int), length of the longest title (int), number of buckets (int), then the
+ *          offset (long) of every bucket
+ * trailer: offset of the index (long)
+ * </pre>
+ * Titles are compared by their utf-8 bytes, like {@link Text} does.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class TitleIndex {
+    /**
+     * Name of the index in the output path of {@link de.gesundkrank.wikipedia.hadoop.util.RepackToMapFile}.
+     */
+    public static final String FILE_NAME = "_titles";
+
+    private static final byte[] MAGIC = "WIKITTL".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + 4;
+    private static final int TRAILER_LENGTH = 8;
+    private static final int DEFAULT_BUCKET_SIZE = 16;
+
+    private final byte[] data;
+    private final int[] bucketOffsets;
+    private final int indexOffset;
+    private final int bucketSize;
+    private final int size;
+    private final int maxTitleLength;
+
+    /**
+     * Page and latest revision of a title.
+     */
+    public static final class Entry {
+        private final long pageId;
+        private final long revisionId;
+
+        public Entry(long pageId, long revisionId) {
+            this.pageId = pageId;
+            this.revisionId = revisionId;
+        }
+
+        public long getPageId() {
+            return pageId;
+        }
+
+        public long getRevisionId() {
+            return revisionId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return pageId == entry.pageId && revisionId == entry.revisionId;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(pageId) + Long.hashCode(revisionId);
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{pageId=" + pageId + ", revisionId=" + revisionId + "}";
+        }
+    }
+
+    /**
+     * @param data complete index file
+     */
+    public TitleIndex(byte[] data) throws IOException {
+        if (data.length < HEADER_LENGTH + TRAILER_LENGTH ||
+                !Arrays.equals(MAGIC, Arrays.copyOf(data, MAGIC.length))) {
+            throw new IOException("Not a title index");
+        }
+        if (data[MAGIC.length] != VERSION) {
+            throw new IOException(String.format("Unknown version %d of title index", data[MAGIC.length]));
+        }
+
+        this.data = data;
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        bucketSize = buffer.getInt(MAGIC.length + 1);
+        indexOffset = (int) buffer.getLong(data.length - TRAILER_LENGTH);
+        buffer.position(indexOffset);
+        size = buffer.getInt();
+        maxTitleLength = buffer.getInt();
+        bucketOffsets = new int[buffer.getInt()];
+        for (int i = 0; i < bucketOffsets.length; i++) {
+            bucketOffsets[i] = (int) buffer.getLong();
+        }
+    }
+
+    /**
+     * Reads an index into memory.
+     */
+    public static TitleIndex read(Path path, Configuration conf) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        long length = fs.getFileStatus(path).getLen();
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IOException(String.format("Title index %s is too large: %d bytes", path, length));
+        }
+
+        byte[] data = new byte[(int) length];
+        try (FSDataInputStream in = fs.open(path)) {
+            in.readFully(0, data);
+        }
+        return new TitleIndex(data);
+    }
+
+    /**
+     * Returns the index stored in the output path of a repack job or null if it has none.
+     */
+    public static TitleIndex readIfExists(Path outputPath, Configuration conf) throws IOException {
+        Path path = new Path(outputPath, FILE_NAME);
+        return path.getFileSystem(conf).exists(path) ? read(path, conf) : null;
+    }
+
+    /**
+     * Returns the number of titles.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Looks up a normalized title, see {@link de.gesundkrank.wikipedia.hadoop.WikiPageWritable#normalizeTitle}.
+     *
+     * @return page and revision of the title or null if it does not exist
+     */
+    public Entry get(String title) {
+        return get(title.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Entry get(Text title) {
+        return get(toBytes(title));
+    }
+
+    private Entry get(byte[] title) {
+        int ordinal = indexOf(title);
+        return ordinal < 0 ? null : get(ordinal);
+    }
+
+    /**
+     * Returns the position of a normalized title in the sorted titles or -1 if it does not exist.
+     */
+    public int indexOf(String title) {
+        return indexOf(title.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public int indexOf(Text title) {
+        return indexOf(toBytes(title));
+    }
+
+    /**
+     * Returns page and revision of the title at a position, see {@link #indexOf}.
+     */
+    public Entry get(int ordinal) {
+        if (ordinal < 0 || ordinal >= size) {
+            throw new IndexOutOfBoundsException(String.format("Title %d of %d", ordinal, size));
+        }
+
+        int position = bucketOffsets[ordinal / bucketSize];
+        for (int i = ordinal % bucketSize; i > 0; i--) {
+            position += WritableUtils.decodeVIntSize(data[position]);
+            int suffixLength = (int) readVLong(position);
+            position += WritableUtils.decodeVIntSize(data[position]) + suffixLength;
+            position += WritableUtils.decodeVIntSize(data[position]);
+            position += WritableUtils.decodeVIntSize(data[position]);
+        }
+
+        position += WritableUtils.decodeVIntSize(data[position]);
+        int suffixLength = (int) readVLong(position);
+        position += WritableUtils.decodeVIntSize(data[position]) + suffixLength;
+        long pageId = readVLong(position);
+        position += WritableUtils.decodeVIntSize(data[position]);
+        return new Entry(pageId, readVLong(position));
+    }
+
+    private static byte[] toBytes(Text title) {
+        return Arrays.copyOf(title.getBytes(), title.getLength());
+    }
+
+    private int indexOf(byte[] title) {
+        if (title.length > maxTitleLength || bucketOffsets.length == 0) {
+            return -1;
+        }
+
+        // last bucket whose first title is not greater than the title
+        int low = 0;
+        int high = bucketOffsets.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (compareFirstTitle(bucketOffsets[mid], title) <= 0) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        int end = low + 1 < bucketOffsets.length ? bucketOffsets[low + 1] : indexOffset;
+        byte[] current = new byte[maxTitleLength];
+        int position = bucketOffsets[low];
+        int ordinal = low * bucketSize;
+        while (position < end) {
+            int shared = (int) readVLong(position);
+            position += WritableUtils.decodeVIntSize(data[position]);
+            int suffixLength = (int) readVLong(position);
+            position += WritableUtils.decodeVIntSize(data[position]);
+            System.arraycopy(data, position, current, shared, suffixLength);
+            position += suffixLength;
+            int length = shared + suffixLength;
+
+            // page and revision id
+            position += WritableUtils.decodeVIntSize(data[position]);
+            position += WritableUtils.decodeVIntSize(data[position]);
+
+            int compare = WritableComparator.compareBytes(current, 0, length, title, 0, title.length);
+            if (compare == 0) {
+                return ordinal;
+            }
+            if (compare > 0) {
+                return -1;
+            }
+            ordinal++;
+        }
+        return -1;
+    }
+
+    private int compareFirstTitle(int bucketOffset, byte[] title) {
+        // the first title of a bucket shares no prefix
+        int position = bucketOffset + WritableUtils.decodeVIntSize(data[bucketOffset]);
+        int length = (int) readVLong(position);
+        position += WritableUtils.decodeVIntSize(data[position]);
+        return WritableComparator.compareBytes(data, position, length, title, 0, title.length);
+    }
+
+    /**
+     * Decodes a vlong written by {@link WritableUtils#writeVLong}.
+     */
+    private long readVLong(int position) {
+        byte first = data[position];
+        int length = WritableUtils.decodeVIntSize(first);
+        if (length == 1) {
+            return first;
+        }
+        long value = 0;
+        for (int i = 1; i < length; i++) {
+            value = (value << 8) | (data[position + i] & 0xff);
+        }
+        return WritableUtils.isNegativeVInt(first) ? ~value : value;
+    }
+
+    /**
+     * Writes an index, the titles have to be appended in ascending order.
+     */
+    public static class Writer implements Closeable {
+        private final CountingOutputStream counter;
+        private final DataOutputStream out;
+        private final int bucketSize;
+
+        private byte[] previous = new byte[0];
+        private int previousLength = -1;
+        private long[] bucketOffsets = new long[1024];
+        private int buckets;
+        private int size;
+        private int maxTitleLength;
+        private boolean closed;
+
+        public Writer(OutputStream out) throws IOException {
+            this(out, DEFAULT_BUCKET_SIZE);
+        }
+
+        /**
+         * @param out        output of the index, it is closed by the writer
+         * @param bucketSize titles per bucket, larger buckets are smaller but slower to scan
+         */
+        public Writer(OutputStream out, int bucketSize) throws IOException {
+            this.counter = new CountingOutputStream(out);
+            this.out = new DataOutputStream(counter);
+            this.bucketSize = bucketSize;
+
+            this.out.write(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeInt(bucketSize);
+        }
+
+        public void append(String title, long pageId, long revisionId) throws IOException {
+            byte[] bytes = title.getBytes(StandardCharsets.UTF_8);
+            append(bytes, bytes.length, pageId, revisionId);
+        }
+
+        public void append(Text title, long pageId, long revisionId) throws IOException {
+            append(title.getBytes(), title.getLength(), pageId, revisionId);
+        }
+
+        private void append(byte[] title, int length, long pageId, long revisionId) throws IOException {
+            if (previousLength >= 0 &&
+                    WritableComparator.compareBytes(previous, 0, previousLength, title, 0, length) >= 0) {
+                throw new IOException(String.format("Title %s is not greater than the previous one",
+                        new String(title, 0, length, StandardCharsets.UTF_8)));
+            }
+
+            int shared = 0;
+            if (size % bucketSize == 0) {
+                if (buckets == bucketOffsets.length) {
+                    bucketOffsets = Arrays.copyOf(bucketOffsets, buckets * 2);
+                }
+                bucketOffsets[buckets++] = counter.getBytesWritten();
+            } else {
+                int maxShared = Math.min(previousLength, length);
+                while (shared < maxShared && previous[shared] == title[shared]) {
+                    shared++;
+                }
+            }
+
+            WritableUtils.writeVInt(out, shared);
+            WritableUtils.writeVInt(out, length - shared);
+            out.write(title, shared, length - shared);
+            WritableUtils.writeVLong(out, pageId);
+            WritableUtils.writeVLong(out, revisionId);
+
+            if (previous.length < length) {
+                previous = new byte[Math.max(length, previous.length * 2)];
+            }
+            System.arraycopy(title, 0, previous, 0, length);
+            previousLength = length;
+            maxTitleLength = Math.max(maxTitleLength, length);
+            size++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                long indexOffset = counter.getBytesWritten();
+                out.writeInt(size);
+                out.writeInt(maxTitleLength);
+                out.writeInt(buckets);
+                for (int i = 0; i < buckets; i++) {
+                    out.writeLong(bucketOffsets[i]);
+                }
+                out.writeLong(indexOffset);
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
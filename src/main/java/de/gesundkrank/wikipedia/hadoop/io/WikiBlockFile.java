@@ -0,0 +1,391 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Container for the pages of a dump that are compressed in independent blocks.
+ * <p>
+ * The pages are cut into blocks of roughly the same uncompressed size at page boundaries. Every block is
+ * compressed on its own with a hadoop {@link CompressionCodec}, so a split of whole blocks is read without
+ * looking at the rest of the file. The layout is
+ * <pre>
+ * header:  magic "WIKIBLK", version byte, codec class name (writeUTF)
+ * blocks:  compressed length (int), uncompressed length (int), compressed pages
+ * index:   number of blocks (int), then offset (long) and number of pages (int) of every block
+ * trailer: offset of the index (long)
+ * </pre>
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public final class WikiBlockFile {
+    public static final String SUFFIX = ".xml.blocks";
+    /**
+     * Uncompressed size a block is filled up to, defaults to 4 MB.
+     */
+    public static final String BLOCK_SIZE = "wikipedia.blocks.size";
+    /**
+     * {@link CompressionCodec} of the blocks, defaults to {@link DefaultCodec}.
+     */
+    public static final String CODEC = "wikipedia.blocks.codec";
+
+    private static final byte[] MAGIC = "WIKIBLK".getBytes(StandardCharsets.US_ASCII);
+    private static final byte VERSION = 1;
+    private static final byte[] PAGE_START = "<page>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PAGE_END = "</page>".getBytes(StandardCharsets.US_ASCII);
+    private static final int TRAILER_LENGTH = 8;
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private WikiBlockFile() {
+    }
+
+    public static boolean isBlockFile(Path path) {
+        return path.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * Returns the offsets of the blocks of a block file followed by the offset behind the last block.
+     */
+    public static long[] readBlockOffsets(FileSystem fs, Path path) throws IOException {
+        long length = fs.getFileStatus(path).getLen();
+        try (FSDataInputStream in = fs.open(path)) {
+            readHeader(in, path);
+            in.seek(length - TRAILER_LENGTH);
+            long indexOffset = in.readLong();
+
+            in.seek(indexOffset);
+            int count = in.readInt();
+            long[] offsets = new long[count + 1];
+            for (int i = 0; i < count; i++) {
+                offsets[i] = in.readLong();
+                in.readInt();
+            }
+            offsets[count] = indexOffset;
+            return offsets;
+        }
+    }
+
+    private static String readHeader(FSDataInputStream in, Path path) throws IOException {
+        byte[] magic = new byte[MAGIC.length];
+        in.readFully(0, magic);
+        in.seek(MAGIC.length);
+        if (!Arrays.equals(MAGIC, magic)) {
+            throw new IOException(String.format("%s is not a block file", path));
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException(String.format("Unknown version %d of block file %s", version, path));
+        }
+        return in.readUTF();
+    }
+
+    /**
+     * Writes the pages of a dump into a block file. Everything outside of the pages, like the siteinfo, is
+     * dropped.
+     */
+    public static class Writer implements Closeable {
+        private final CountingOutputStream counter;
+        private final DataOutputStream out;
+        private final CompressionCodec codec;
+        private final Compressor compressor;
+        private final int blockSize;
+        private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+
+        private long[] offsets = new long[1024];
+        private int[] pageCounts = new int[1024];
+        private int blocks;
+
+        // pages that are not written yet, pending[0] is the start of a page once the first page was found
+        private byte[] pending = new byte[BUFFER_SIZE];
+        private int pendingLength;
+        private int scanned;
+        private int pagesEnd;
+        private int pages;
+        private boolean foundFirstPage;
+        private boolean closed;
+
+        /**
+         * Creates a writer with the codec and block size configured in conf.
+         */
+        public Writer(OutputStream out, Configuration conf) throws IOException {
+            this(out, ReflectionUtils.newInstance(conf.getClass(CODEC, DefaultCodec.class, CompressionCodec.class),
+                    conf), conf.getInt(BLOCK_SIZE, 4 * 1024 * 1024));
+        }
+
+        /**
+         * @param out       output of the block file, it is closed by the writer
+         * @param codec     codec the blocks are compressed with
+         * @param blockSize uncompressed size a block is filled up to
+         */
+        public Writer(OutputStream out, CompressionCodec codec, int blockSize) throws IOException {
+            this.counter = new CountingOutputStream(out);
+            this.out = new DataOutputStream(counter);
+            this.codec = codec;
+            this.compressor = CodecPool.getCompressor(codec);
+            this.blockSize = blockSize;
+
+            this.out.write(MAGIC);
+            this.out.writeByte(VERSION);
+            this.out.writeUTF(codec.getClass().getName());
+        }
+
+        /**
+         * Writes the pages read from a dump.
+         */
+        public void write(InputStream dump) throws IOException {
+            int n;
+            while (true) {
+                if (pendingLength == pending.length) {
+                    pending = Arrays.copyOf(pending, pending.length * 2);
+                }
+                n = dump.read(pending, pendingLength, pending.length - pendingLength);
+                if (n == -1) {
+                    return;
+                }
+                pendingLength += n;
+                scan();
+            }
+        }
+
+        /**
+         * Searches the new pending bytes for page boundaries and writes a block once enough pages are
+         * complete.
+         */
+        private void scan() throws IOException {
+            if (!foundFirstPage) {
+                int start = indexOf(PAGE_START, 0);
+                if (start == -1) {
+                    // keep the bytes a page start tag may begin in
+                    int keep = Math.min(pendingLength, PAGE_START.length - 1);
+                    System.arraycopy(pending, pendingLength - keep, pending, 0, keep);
+                    pendingLength = keep;
+                    return;
+                }
+                System.arraycopy(pending, start, pending, 0, pendingLength - start);
+                pendingLength -= start;
+                scanned = 0;
+                foundFirstPage = true;
+            }
+
+            int end;
+            while ((end = indexOf(PAGE_END, scanned)) != -1) {
+                scanned = end + PAGE_END.length;
+                pagesEnd = scanned;
+                pages++;
+                if (pagesEnd >= blockSize) {
+                    writeBlock();
+                }
+            }
+            scanned = Math.max(scanned, pendingLength - PAGE_END.length + 1);
+        }
+
+        private int indexOf(byte[] tag, int from) {
+            outer:
+            for (int i = from; i <= pendingLength - tag.length; i++) {
+                for (int j = 0; j < tag.length; j++) {
+                    if (pending[i + j] != tag[j]) {
+                        continue outer;
+                    }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        private void writeBlock() throws IOException {
+            if (blocks == offsets.length) {
+                offsets = Arrays.copyOf(offsets, blocks * 2);
+                pageCounts = Arrays.copyOf(pageCounts, blocks * 2);
+            }
+            offsets[blocks] = counter.getBytesWritten();
+            pageCounts[blocks] = pages;
+            blocks++;
+
+            compressed.reset();
+            compressor.reset();
+            CompressionOutputStream compressionStream = codec.createOutputStream(compressed, compressor);
+            compressionStream.write(pending, 0, pagesEnd);
+            compressionStream.finish();
+
+            out.writeInt(compressed.size());
+            out.writeInt(pagesEnd);
+            compressed.writeTo(out);
+
+            // the bytes between the pages are dropped, the next block starts with a page
+            int next = indexOf(PAGE_START, pagesEnd);
+            int start = next == -1 ? pagesEnd : next;
+            System.arraycopy(pending, start, pending, 0, pendingLength - start);
+            pendingLength -= start;
+            scanned = Math.max(0, scanned - start);
+            pagesEnd = 0;
+            pages = 0;
+        }
+
+        /**
+         * Writes the remaining pages, the index and closes the output. Anything behind the last page is dropped.
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (pages > 0) {
+                    writeBlock();
+                }
+                long indexOffset = counter.getBytesWritten();
+                out.writeInt(blocks);
+                for (int i = 0; i < blocks; i++) {
+                    out.writeLong(offsets[i]);
+                    out.writeInt(pageCounts[i]);
+                }
+                out.writeLong(indexOffset);
+            } finally {
+                CodecPool.returnCompressor(compressor);
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Decompressed pages of the blocks that start in [start, end) of a block file.
+     */
+    public static class BlockInputStream extends InputStream {
+        private final FSDataInputStream in;
+        private final CompressionCodec codec;
+        private final Decompressor decompressor;
+        private final long end;
+
+        private final byte[] singleByte = new byte[1];
+        private byte[] compressed = new byte[0];
+        private InputStream block;
+        private boolean closed;
+
+        /**
+         * @param in    opened block file, it is closed with this stream
+         * @param path  path of the block file
+         * @param start blocks starting in front of start are skipped
+         * @param end   blocks starting at end or later are skipped
+         * @param conf  hadoop configuration
+         */
+        public BlockInputStream(FSDataInputStream in, Path path, long start, long end, Configuration conf)
+                throws IOException {
+            this.in = in;
+            String codecClass = readHeader(in, path);
+            long dataStart = in.getPos();
+            try {
+                this.codec = ReflectionUtils.newInstance(conf.getClassByName(codecClass)
+                        .asSubclass(CompressionCodec.class), conf);
+            } catch (ClassNotFoundException e) {
+                throw new IOException(e);
+            }
+            this.decompressor = CodecPool.getDecompressor(codec);
+
+            long length = path.getFileSystem(conf).getFileStatus(path).getLen();
+            in.seek(length - TRAILER_LENGTH);
+            this.end = Math.min(end, in.readLong());
+            in.seek(Math.max(start, dataStart));
+        }
+
+        /**
+         * Returns the position in the block file.
+         */
+        public long getPosition() throws IOException {
+            return in.getPos();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (block != null) {
+                    int n = block.read(b, off, len);
+                    if (n != -1) {
+                        return n;
+                    }
+                    block = null;
+                }
+                if (!nextBlock()) {
+                    return -1;
+                }
+            }
+        }
+
+        private boolean nextBlock() throws IOException {
+            if (in.getPos() >= end) {
+                return false;
+            }
+            int compressedLength = in.readInt();
+            in.readInt();
+            if (compressed.length < compressedLength) {
+                compressed = new byte[compressedLength];
+            }
+            in.readFully(compressed, 0, compressedLength);
+
+            decompressor.reset();
+            block = codec.createInputStream(new ByteArrayInputStream(compressed, 0, compressedLength), decompressor);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                in.close();
+            } finally {
+                // returning it twice would hand the same instance to two readers
+                CodecPool.returnDecompressor(decompressor);
+            }
+        }
+    }
+}
@@ -18,8 +18,9 @@
 
 package de.gesundkrank.wikipedia.hadoop.io;
 
+import de.gesundkrank.wikipedia.hadoop.inputformat.MultistreamWikiInputFormat;
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
-import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -27,18 +28,69 @@ import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.log4j.Logger;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.URL;
-import java.net.URLConnection;
-import java.text.ParseException;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.TimeZone;
 
 public class WikiDumpLoader {
+    /**
+     * Number of parallel range requests of a download.
+     */
+    public static final String DOWNLOAD_THREADS = "wikipedia.download.threads";
+    /**
+     * Size of the ranges that are requested, a failed download is resumed at chunk granularity.
+     */
+    public static final String DOWNLOAD_CHUNK_SIZE = "wikipedia.download.chunk.size";
+    /**
+     * Local directory the dump is downloaded into before it is copied into the file system.
+     */
+    public static final String DOWNLOAD_DIR = "wikipedia.download.dir";
+    /**
+     * Number of times a failed chunk is requested again.
+     */
+    public static final String DOWNLOAD_RETRIES = "wikipedia.download.retries";
+    /**
+     * Number of threads that decompress the downloaded dump, defaults to the number of cores.
+     */
+    public static final String DECOMPRESSION_THREADS = "wikipedia.decompression.threads";
+    /**
+     * Stores the dump as {@link WikiBlockFile} instead of raw xml. Codec and block size are configured with
+     * {@link WikiBlockFile#CODEC} and {@link WikiBlockFile#BLOCK_SIZE}.
+     */
+    public static final String BLOCK_FILES = "wikipedia.ingest.blocks";
+
     private static final String DUMP_URL =
             "http://dumps.wikimedia.org/%swiki/latest/%swiki-latest-pages-articles.xml.bz2";
+    private static final String MULTISTREAM_DUMP_URL =
+            "http://dumps.wikimedia.org/%swiki/latest/%swiki-latest-pages-articles-multistream.xml.bz2";
+    private static final String MULTISTREAM_INDEX_URL =
+            "http://dumps.wikimedia.org/%swiki/latest/%swiki-latest-pages-articles-multistream-index.txt.bz2";
+
+    private static final String INCREMENTAL_DUMP_URL =
+            "http://dumps.wikimedia.org/other/incr/%swiki/%s/%swiki-%s-pages-meta-hist-incr.xml.bz2";
+    private static final String INCREMENTAL_STATUS_URL = "http://dumps.wikimedia.org/other/incr/%swiki/%s/status.txt";
+    private static final String INCREMENTAL_DIR = "incr";
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int INGEST_BUFFER_SIZE = 1024 * 1024;
 
     private final boolean checkNew;
+    private final boolean multistream;
     private final Logger logger;
 
     /**
@@ -56,7 +108,20 @@ public class WikiDumpLoader {
      *                 no new dump is downloaded
      */
     public WikiDumpLoader(boolean checkNew) {
+        this(checkNew, false);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param checkNew    if false its not checked if a new version exists and
+     *                    no new dump is downloaded
+     * @param multistream if true the multistream dump and its index are stored compressed, they have to be
+     *                    read with {@link MultistreamWikiInputFormat}
+     */
+    public WikiDumpLoader(boolean checkNew, boolean multistream) {
         this.checkNew = checkNew;
+        this.multistream = multistream;
         this.logger = Logger.getLogger(getClass());
     }
 
@@ -92,9 +157,10 @@ public class WikiDumpLoader {
 
 
         if (checkNew || latestDump == null) {
-            long latestDumpTime = checkNewDump(locale);
+            RangedDownloader.RemoteFile remoteDump = checkNewDump(locale);
+            long latestDumpTime = remoteDump.getLastModified();
             if (latestLocalDumpStatus == null || latestDumpTime > latestLocalDumpStatus.getModificationTime()) {
-                latestDump = loadNewDump(fs, basePath, latestDumpTime, locale);
+                latestDump = loadNewDump(fs, job.getConfiguration(), basePath, remoteDump, locale);
             } else {
                 throw new IOException("failed to get latest dump");
             }
@@ -104,21 +170,88 @@ public class WikiDumpLoader {
     }
 
     /**
-     * Return last change of the latest online dump of the given language
+     * Loads the daily adds-changes dumps published after since into basePath/language/incr. Dumps that were
+     * loaded before are reused, days whose dump is missing or not finished yet are skipped. The dumps contain
+     * the revisions created that day, they are merged into a repacked MapFile with
+     * {@link de.gesundkrank.wikipedia.hadoop.util.MergeIncrementalDumps}.
+     *
+     * @param conf        hadoop configuration
+     * @param basePathStr
+     * @param locale      Language of the wikidumps
+     * @param since       time in milliseconds, dumps of the day of since and earlier are not loaded
+     * @return paths of the loaded dumps ordered by day
+     * @throws IOException
+     */
+    public List<Path> loadIncrementalDumps(Configuration conf, String basePathStr, Locale locale, long since)
+            throws IOException {
+        Path basePath = new Path(new Path(basePathStr, locale.getLanguage()), INCREMENTAL_DIR);
+        FileSystem fs = basePath.getFileSystem(conf);
+        String language = locale.getLanguage();
+        SimpleDateFormat dayFormat = new SimpleDateFormat("yyyyMMdd", Locale.ENGLISH);
+        dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        List<Path> dumps = new ArrayList<>();
+        for (long time = since + DAY; time <= System.currentTimeMillis(); time += DAY) {
+            String day = dayFormat.format(new Date(time));
+            String fileName = String.format("%swiki-%s-pages-meta-hist-incr.xml.bz2", language, day);
+            Path path = new Path(basePath, fileName);
+
+            if (!fs.exists(path)) {
+                if (!isIncrementalDumpDone(String.format(INCREMENTAL_STATUS_URL, language, day))) {
+                    logger.info("No finished adds-changes dump for " + day);
+                    continue;
+                }
+                File localDump = new File(getDownloadDir(conf), fileName);
+                newDownloader(conf).download(new URL(String.format(INCREMENTAL_DUMP_URL, language, day, language,
+                        day)), localDump);
+                copy(localDump, fs.create(path, true, INGEST_BUFFER_SIZE));
+            }
+            dumps.add(path);
+        }
+        return dumps;
+    }
+
+    /**
+     * Loads the adds-changes dumps published after since and adds them as input paths.
+     *
+     * @see #loadIncrementalDumps(Configuration, String, Locale, long)
+     */
+    public List<Path> addIncrementalDumps(Job job, String basePathStr, Locale locale, long since)
+            throws IOException {
+        List<Path> dumps = loadIncrementalDumps(job.getConfiguration(), basePathStr, locale, since);
+        for (Path dump : dumps) {
+            FileInputFormat.addInputPath(job, dump);
+        }
+        return dumps;
+    }
+
+    private static boolean isIncrementalDumpDone(String statusUrl) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new URL(statusUrl).openStream(),
+                StandardCharsets.UTF_8))) {
+            String status = reader.readLine();
+            return status != null && status.trim().startsWith("done");
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static RangedDownloader newDownloader(Configuration conf) {
+        return new RangedDownloader(conf.getInt(DOWNLOAD_THREADS, 4),
+                conf.getLong(DOWNLOAD_CHUNK_SIZE, 64 * 1024 * 1024), conf.getInt(DOWNLOAD_RETRIES, 3));
+    }
+
+    private static File getDownloadDir(Configuration conf) {
+        return new File(conf.get(DOWNLOAD_DIR, System.getProperty("java.io.tmpdir")));
+    }
+
+    /**
+     * Return last change, length and range support of the latest online dump of the given language
      *
      * @param locale Language of wikidump
      * @return
      */
-    private long checkNewDump(Locale locale) throws IOException {
-        try {
-            String localeDumpUrl = String.format(DUMP_URL, locale.getLanguage(), locale.getLanguage());
-            URLConnection connection = new URL(localeDumpUrl).openConnection();
-            String lastModified = connection.getHeaderField("Last-Modified");
-            return new SimpleDateFormat("E, d MMM yyyy HH:mm:ss Z", Locale.ENGLISH)
-                    .parse(lastModified).getTime();
-        } catch (ParseException e) {
-            throw new IOException(e);
-        }
+    private RangedDownloader.RemoteFile checkNewDump(Locale locale) throws IOException {
+        return RangedDownloader.probe(new URL(getDumpUrl(locale)));
     }
 
     /**
@@ -142,7 +275,8 @@ public class WikiDumpLoader {
 
             for (FileStatus status : stati) {
                 long fileChange = status.getModificationTime();
-                if (fileChange > lastLocalChange) {
+                if (isDump(status.getPath()) && fileChange > lastLocalChange) {
+                    lastLocalChange = fileChange;
                     lastLocalDump = status;
                 }
             }
@@ -154,32 +288,100 @@ public class WikiDumpLoader {
     }
 
     /**
-     * Loads new dump and unpack it into hdfs
+     * Checks if the file is a dump of the configured type. Multistream indices are no dumps.
+     */
+    private boolean isDump(Path path) {
+        String name = path.getName();
+        if (multistream) {
+            return name.contains("-multistream.") && name.endsWith(".xml.bz2");
+        }
+        return name.endsWith(".xml") || WikiBlockFile.isBlockFile(path);
+    }
+
+    private String getDumpUrl(Locale locale) {
+        String url = multistream ? MULTISTREAM_DUMP_URL : DUMP_URL;
+        return String.format(url, locale.getLanguage(), locale.getLanguage());
+    }
+
+    /**
+     * Loads new dump and unpack it into hdfs. Multistream dumps are stored compressed next to their index.
+     * <p>
+     * The compressed dump is downloaded in parallel into a local directory first. If the download fails, the
+     * next call resumes it as long as the online dump didn't change.
      *
-     * @param fs  HDFS
+     * @param fs         HDFS
+     * @param conf       configuration of the download
      * @param basePath
-     * @param time
+     * @param remoteDump probed online dump
      * @return
      * @throws java.io.IOException
      */
-    private Path loadNewDump(FileSystem fs, Path basePath, long time, Locale locale) throws IOException {
-        System.out.println("loading new dump");
-        String localeDumpUrl = String.format(DUMP_URL, locale.getLanguage(), locale.getLanguage());
-        URLConnection connection = new URL(localeDumpUrl).openConnection();
+    private Path loadNewDump(FileSystem fs, Configuration conf, Path basePath, RangedDownloader.RemoteFile remoteDump,
+                             Locale locale) throws IOException {
+        logger.info("loading new dump");
+        long time = remoteDump.getLastModified();
+        RangedDownloader downloader = newDownloader(conf);
+        File downloadDir = getDownloadDir(conf);
 
-        try (BZip2CompressorInputStream bzIn = new BZip2CompressorInputStream(connection.getInputStream())) {
-            String fileName = String.format("%swiki-latest-pages-articles.%d.xml", locale.getLanguage(), time);
+        if (multistream) {
+            String fileName = String.format("%swiki-latest-pages-articles-multistream.%d.xml.bz2",
+                    locale.getLanguage(), time);
             Path path = new Path(basePath, fileName);
-            FSDataOutputStream outputStream = fs.create(path);
+            File localDump = new File(downloadDir, fileName);
+            downloader.download(remoteDump, localDump);
+            copy(localDump, fs.create(path));
 
-            final byte[] buffer = new byte[1024];
-            int n;
-            while (-1 != (n = bzIn.read(buffer))) {
-                outputStream.write(buffer, 0, n);
-            }
+            String indexUrl = String.format(MULTISTREAM_INDEX_URL, locale.getLanguage(), locale.getLanguage());
+            Path indexPath = MultistreamWikiInputFormat.getIndexPath(path);
+            File localIndex = new File(downloadDir, indexPath.getName());
+            downloader.download(new URL(indexUrl), localIndex);
+            copy(localIndex, fs.create(indexPath));
 
             return path;
         }
+
+        String fileName = String.format("%swiki-latest-pages-articles.%d.xml", locale.getLanguage(), time);
+        File localDump = new File(downloadDir, fileName + ".bz2");
+        downloader.download(remoteDump, localDump);
+        int threads = conf.getInt(DECOMPRESSION_THREADS, Runtime.getRuntime().availableProcessors());
+        InputStream in = new BufferedInputStream(new FileInputStream(localDump), INGEST_BUFFER_SIZE);
+        InputStream decompressed = threads > 1 ?
+                new ParallelBzip2InputStream(in, threads) : new BZip2CompressorInputStream(in);
+
+        Path path;
+        if (conf.getBoolean(BLOCK_FILES, false)) {
+            path = new Path(basePath, fileName.substring(0, fileName.length() - ".xml".length()) +
+                    WikiBlockFile.SUFFIX);
+            try (InputStream dump = decompressed;
+                 WikiBlockFile.Writer writer = new WikiBlockFile.Writer(fs.create(path, true, INGEST_BUFFER_SIZE),
+                         conf)) {
+                writer.write(dump);
+            }
+        } else {
+            path = new Path(basePath, fileName);
+            copy(decompressed, fs.create(path, true, INGEST_BUFFER_SIZE));
+        }
+        localDump.delete();
+
+        return path;
+    }
+
+    /**
+     * Copies a downloaded file into the file system and deletes it.
+     */
+    private static void copy(File file, OutputStream out) throws IOException {
+        copy(new FileInputStream(file), out);
+        file.delete();
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        try (InputStream input = in; OutputStream output = out) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int n;
+            while (-1 != (n = input.read(buffer))) {
+                output.write(buffer, 0, n);
+            }
+        }
     }
 
 }
@@ -0,0 +1,641 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.parser;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionContributor;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * Single pass parser working directly on the UTF-8 bytes of a wikipedia xml dump.
+ * <p>
+ * Unlike {@link Parser} it does not depend on the line layout of the dump. Tags are recognized by
+ * a small state machine, xml entities are decoded while element content is copied and timestamps
+ * are parsed without going through {@link java.util.Calendar}.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class ByteParser implements WikiParser {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] PAGE = ascii("page"),
+            TITLE = ascii("title"),
+            ID = ascii("id"),
+            NS = ascii("ns"),
+            REDIRECT = ascii("redirect"),
+            REVISION = ascii("revision"),
+            TIMESTAMP = ascii("timestamp"),
+            CONTRIBUTOR = ascii("contributor"),
+            USERNAME = ascii("username"),
+            COMMENT = ascii("comment"),
+            MINOR = ascii("minor"),
+            TEXT = ascii("text");
+
+    private InputStream in;
+    private final byte[] buffer;
+    private int position;
+    private int limit;
+
+    private final byte[] name = new byte[32];
+    private int nameLength;
+    private boolean closingTag;
+    private boolean selfClosingTag;
+
+    private byte[] content = new byte[1024];
+    private int contentLength;
+
+    private final byte[] entity = new byte[10];
+
+    private WikiPageWritable currentPage;
+    private final WikiRevisionContributor reusableContributor = new WikiRevisionContributor();
+
+    // projection, skipped elements are passed over by readTag without decoding their content
+    private boolean readText = true;
+    private boolean readComment = true;
+    private boolean readContributor = true;
+    private RevisionFilter filter;
+
+    public ByteParser() {
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    public ByteParser(InputStream in) {
+        this();
+        this.in = in;
+    }
+
+    @Override
+    public void initialize(InputStream in, Configuration conf) {
+        this.in = in;
+        position = 0;
+        limit = 0;
+        currentPage = null;
+
+        EnumSet<RevisionField> fields = RevisionField.getFields(conf);
+        readText = fields.contains(RevisionField.TEXT);
+        readComment = fields.contains(RevisionField.COMMENT);
+        readContributor = fields.contains(RevisionField.CONTRIBUTOR);
+        filter = new RevisionFilter(conf);
+    }
+
+    @Override
+    public WikiRevisionWritable readNextRevision() throws IOException {
+        return readNextRevision(null);
+    }
+
+    @Override
+    public WikiRevisionWritable readNextRevision(WikiRevisionWritable reuse) throws IOException {
+        WikiRevisionWritable revision = null;
+        WikiRevisionContributor contributor = null;
+
+        while (readTag()) {
+            if (closingTag) {
+                if (isTag(REVISION) && revision != null) {
+                    return revision;
+                } else if (isTag(CONTRIBUTOR)) {
+                    contributor = null;
+                } else if (isTag(PAGE)) {
+                    currentPage = null;
+                    revision = null;
+                }
+                continue;
+            }
+
+            if (isTag(PAGE)) {
+                currentPage = newPage(reuse);
+                revision = null;
+            } else if (currentPage == null) {
+                continue;
+            } else if (revision == null) {
+                readPageElement();
+                if (isTag(REVISION) && !selfClosingTag) {
+                    // the page header is complete as soon as the first revision starts
+                    if (filter != null && !filter.acceptsPage(currentPage)) {
+                        skipElement(PAGE);
+                        currentPage = null;
+                        continue;
+                    }
+                    revision = newRevision(reuse);
+                }
+            } else if (contributor != null) {
+                readContributorElement(contributor);
+            } else if (isTag(CONTRIBUTOR)) {
+                if (selfClosingTag) {
+                    continue;
+                }
+                if (readContributor) {
+                    contributor = newContributor(reuse);
+                    revision.setContributor(contributor);
+                } else {
+                    skipElement(CONTRIBUTOR);
+                }
+            } else if (!readRevisionElement(revision)) {
+                skipElement(REVISION);
+                revision = null;
+            }
+        }
+
+        return null;
+    }
+
+    private WikiPageWritable newPage(WikiRevisionWritable reuse) {
+        if (reuse == null || reuse.getPage() == null) {
+            return new WikiPageWritable();
+        }
+        WikiPageWritable page = reuse.getPage();
+        page.clear();
+        return page;
+    }
+
+    private WikiRevisionWritable newRevision(WikiRevisionWritable reuse) {
+        if (reuse == null) {
+            return new WikiRevisionWritable(currentPage);
+        }
+        reuse.clear();
+        reuse.setPage(currentPage);
+        return reuse;
+    }
+
+    private WikiRevisionContributor newContributor(WikiRevisionWritable reuse) {
+        if (reuse == null) {
+            return new WikiRevisionContributor();
+        }
+        reusableContributor.clear();
+        return reusableContributor;
+    }
+
+    private void readPageElement() throws IOException {
+        if (isTag(REDIRECT)) {
+            currentPage.setRedirect(true);
+            // readTag stored the title attribute
+            if (!closingTag && contentLength > 0) {
+                currentPage.setRedirectTarget(new String(content, 0, contentLength, StandardCharsets.UTF_8));
+            }
+        } else if (selfClosingTag) {
+            return;
+        } else if (isTag(TITLE)) {
+            currentPage.setTitle(readString());
+        } else if (isTag(ID)) {
+            currentPage.setId(readLong());
+        } else if (isTag(NS)) {
+            currentPage.setNamespace((int) readLong());
+        }
+    }
+
+    /**
+     * Reads an element of a revision.
+     *
+     * @return false if the revision is filtered
+     */
+    private boolean readRevisionElement(WikiRevisionWritable revision) throws IOException {
+        if (isTag(MINOR)) {
+            revision.setMinor(true);
+        } else if (selfClosingTag) {
+            return true;
+        } else if (isTag(ID)) {
+            revision.setId(readLong());
+        } else if (isTag(TIMESTAMP)) {
+            readContent();
+            revision.setTimestamp(parseTimestamp(content, 0, contentLength));
+            return filter == null || filter.acceptsTimestamp(revision.getTimestamp());
+        } else if (isTag(COMMENT) && readComment) {
+            revision.setComment(readString());
+        } else if (isTag(TEXT) && readText) {
+            readContent();
+            revision.setText(content, 0, contentLength);
+        }
+        return true;
+    }
+
+    private void readContributorElement(WikiRevisionContributor contributor) throws IOException {
+        if (selfClosingTag) {
+            return;
+        } else if (isTag(USERNAME)) {
+            contributor.setUsername(readString());
+        } else if (isTag(ID)) {
+            contributor.setId(readLong());
+        }
+    }
+
+    /**
+     * Moves behind the next element tag and stores its name and kind. The value of the first attribute of a
+     * redirect tag, its target, is stored in the content buffer.
+     *
+     * @return false if the end of the stream is reached
+     */
+    private boolean readTag() throws IOException {
+        while (skipTo('<')) {
+            int b = read();
+            if (b == '?' || b == '!') {
+                // processing instructions and comments don't carry any data
+                if (!skipTo('>')) {
+                    return false;
+                }
+                continue;
+            }
+
+            closingTag = b == '/';
+            if (closingTag) {
+                b = read();
+            }
+
+            nameLength = 0;
+            while (b != -1 && b != '>' && b != '/' && !isWhitespace(b)) {
+                if (nameLength < name.length) {
+                    name[nameLength] = (byte) b;
+                }
+                nameLength++;
+                b = read();
+            }
+
+            boolean readAttribute = !closingTag && isTag(REDIRECT);
+            if (readAttribute) {
+                contentLength = 0;
+            }
+
+            selfClosingTag = false;
+            while (b != '>') {
+                if (b == -1) {
+                    return false;
+                }
+                if (b == '"' || b == '\'') {
+                    if (readAttribute) {
+                        if (!readAttributeValue(b)) {
+                            return false;
+                        }
+                        readAttribute = false;
+                    } else if (!skipTo(b)) {
+                        return false;
+                    }
+                    selfClosingTag = false;
+                } else if (!isWhitespace(b)) {
+                    selfClosingTag = b == '/';
+                }
+                b = read();
+            }
+
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Copies a quoted attribute value into the content buffer and decodes xml entities on the way.
+     *
+     * @return false if the end of the stream is reached
+     */
+    private boolean readAttributeValue(int quote) throws IOException {
+        int b = read();
+        while (b != quote) {
+            if (b == -1) {
+                return false;
+            }
+            if (b == '&') {
+                readEntity();
+            } else {
+                appendByte(b);
+            }
+            b = read();
+        }
+        return true;
+    }
+
+    /**
+     * Moves behind the closing tag of the current element.
+     */
+    private void skipElement(byte[] tag) throws IOException {
+        while (readTag()) {
+            if (closingTag && isTag(tag)) {
+                return;
+            }
+        }
+    }
+
+    private boolean isTag(byte[] tag) {
+        if (nameLength != tag.length) {
+            return false;
+        }
+        for (int i = 0; i < nameLength; i++) {
+            if (name[i] != tag[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String readString() throws IOException {
+        readContent();
+        return new String(content, 0, contentLength, StandardCharsets.UTF_8);
+    }
+
+    private long readLong() throws IOException {
+        readContent();
+        long value = 0;
+        boolean foundDigit = false;
+        for (int i = 0; i < contentLength; i++) {
+            int b = content[i];
+            if (b >= '0' && b <= '9') {
+                value = value * 10 + (b - '0');
+                foundDigit = true;
+            }
+        }
+        return foundDigit ? value : -1;
+    }
+
+    /**
+     * Copies the character data up to the next tag into the content buffer and decodes xml
+     * entities on the way.
+     */
+    private void readContent() throws IOException {
+        contentLength = 0;
+
+        while (position < limit || fill()) {
+            int start = position;
+            while (position < limit) {
+                byte b = buffer[position];
+                if (b == '<' || b == '&') {
+                    break;
+                }
+                position++;
+            }
+            appendContent(buffer, start, position - start);
+
+            if (position == limit) {
+                continue;
+            }
+            if (buffer[position] == '<') {
+                return;
+            }
+
+            position++;
+            readEntity();
+        }
+    }
+
+    private void readEntity() throws IOException {
+        int entityLength = 0;
+        int b = read();
+        // entities are short, anything longer is passed through unchanged
+        while (b != -1 && b != ';' && b != '<' && entityLength < entity.length) {
+            entity[entityLength++] = (byte) b;
+            b = read();
+        }
+
+        int codePoint = decodeEntity(entity, entityLength, b == ';');
+        if (codePoint >= 0) {
+            appendCodePoint(codePoint);
+            return;
+        }
+
+        appendByte('&');
+        appendContent(entity, 0, entityLength);
+        if (b == ';') {
+            appendByte(';');
+        } else if (b != -1) {
+            // not part of the entity, hand it back to the caller
+            position--;
+        }
+    }
+
+    private static int decodeEntity(byte[] entity, int length, boolean terminated) {
+        if (!terminated || length == 0) {
+            return -1;
+        }
+
+        if (entity[0] == '#') {
+            int radix = 10;
+            int i = 1;
+            if (length > 1 && (entity[1] == 'x' || entity[1] == 'X')) {
+                radix = 16;
+                i = 2;
+            }
+            if (i == length) {
+                return -1;
+            }
+            int codePoint = 0;
+            for (; i < length; i++) {
+                int digit = Character.digit(entity[i], radix);
+                if (digit < 0) {
+                    return -1;
+                }
+                codePoint = codePoint * radix + digit;
+                if (codePoint > Character.MAX_CODE_POINT) {
+                    return -1;
+                }
+            }
+            return codePoint;
+        }
+
+        if (equals(entity, length, "lt")) {
+            return '<';
+        } else if (equals(entity, length, "gt")) {
+            return '>';
+        } else if (equals(entity, length, "amp")) {
+            return '&';
+        } else if (equals(entity, length, "quot")) {
+            return '"';
+        } else if (equals(entity, length, "apos")) {
+            return '\'';
+        }
+        return -1;
+    }
+
+    private static boolean equals(byte[] bytes, int length, String ascii) {
+        if (length != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (bytes[i] != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendCodePoint(int codePoint) {
+        if (codePoint < 0x80) {
+            appendByte(codePoint);
+        } else if (codePoint < 0x800) {
+            appendByte(0xc0 | (codePoint >> 6));
+            appendByte(0x80 | (codePoint & 0x3f));
+        } else if (codePoint < 0x10000) {
+            appendByte(0xe0 | (codePoint >> 12));
+            appendByte(0x80 | ((codePoint >> 6) & 0x3f));
+            appendByte(0x80 | (codePoint & 0x3f));
+        } else {
+            appendByte(0xf0 | (codePoint >> 18));
+            appendByte(0x80 | ((codePoint >> 12) & 0x3f));
+            appendByte(0x80 | ((codePoint >> 6) & 0x3f));
+            appendByte(0x80 | (codePoint & 0x3f));
+        }
+    }
+
+    private void appendByte(int b) {
+        ensureContentCapacity(contentLength + 1);
+        content[contentLength++] = (byte) b;
+    }
+
+    private void appendContent(byte[] bytes, int offset, int length) {
+        ensureContentCapacity(contentLength + length);
+        System.arraycopy(bytes, offset, content, contentLength, length);
+        contentLength += length;
+    }
+
+    private void ensureContentCapacity(int capacity) {
+        if (capacity > content.length) {
+            content = Arrays.copyOf(content, Math.max(capacity, content.length * 2));
+        }
+    }
+
+    /**
+     * Moves behind the next occurrence of the given byte.
+     *
+     * @return false if the end of the stream is reached
+     */
+    private boolean skipTo(int b) throws IOException {
+        while (position < limit || fill()) {
+            while (position < limit) {
+                if (buffer[position++] == b) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(buffer, 0, buffer.length);
+        } while (n == 0);
+
+        position = 0;
+        limit = Math.max(n, 0);
+        return n > 0;
+    }
+
+    private static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parses an ISO 8601 timestamp as it is used in the dumps (e.g. 2014-10-26T04:50:23Z).
+     * Fractional seconds and numeric zone offsets are accepted as well.
+     *
+     * @return milliseconds since epoch or -1 if the timestamp is malformed
+     */
+    static long parseTimestamp(byte[] bytes, int offset, int length) {
+        int end = offset + length;
+        while (offset < end && isWhitespace(bytes[offset])) {
+            offset++;
+        }
+        while (end > offset && isWhitespace(bytes[end - 1])) {
+            end--;
+        }
+
+        if (end - offset < 19 || bytes[offset + 4] != '-' || bytes[offset + 7] != '-' ||
+                bytes[offset + 10] != 'T' || bytes[offset + 13] != ':' || bytes[offset + 16] != ':') {
+            return -1;
+        }
+
+        int year = digits(bytes, offset, 4);
+        int month = digits(bytes, offset + 5, 2);
+        int day = digits(bytes, offset + 8, 2);
+        int hour = digits(bytes, offset + 11, 2);
+        int minute = digits(bytes, offset + 14, 2);
+        int second = digits(bytes, offset + 17, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || minute < 0 || second < 0) {
+            return -1;
+        }
+
+        int i = offset + 19;
+        int millis = 0;
+        if (i < end && bytes[i] == '.') {
+            int scale = 100;
+            for (i++; i < end && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                millis += (bytes[i] - '0') * scale;
+                scale /= 10;
+            }
+        }
+
+        int offsetMinutes = 0;
+        if (i < end && (bytes[i] == '+' || bytes[i] == '-')) {
+            if (end - i < 6 || bytes[i + 3] != ':') {
+                return -1;
+            }
+            int offsetHours = digits(bytes, i + 1, 2);
+            int offsetMins = digits(bytes, i + 4, 2);
+            if (offsetHours < 0 || offsetMins < 0) {
+                return -1;
+            }
+            offsetMinutes = (offsetHours * 60 + offsetMins) * (bytes[i] == '-' ? -1 : 1);
+            i += 6;
+        } else if (i < end && bytes[i] == 'Z') {
+            i++;
+        }
+        if (i != end) {
+            return -1;
+        }
+
+        long seconds = daysFromCivil(year, month, day) * 86400L + hour * 3600 + (minute - offsetMinutes) * 60 + second;
+        return seconds * 1000 + millis;
+    }
+
+    private static int digits(byte[] bytes, int offset, int count) {
+        int value = 0;
+        for (int i = offset; i < offset + count; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Days since 1970-01-01 of the given date of the proleptic gregorian calendar.
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = (year >= 0 ? year : year - 399) / 400;
+        long yearOfEra = year - era * 400;
+        long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+}
@@ -23,23 +23,33 @@ import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
 import de.gesundkrank.wikipedia.hadoop.WikiRevisionContributor;
 import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
 import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.hadoop.conf.Configuration;
 
 import javax.xml.bind.DatatypeConverter;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
+ * Line based parser. It expects every element on its own line as written by mwdumper.
+ *
  * @author Jan Graßegger<jan.grassegger@uni-weimar.de>
  */
-public class Parser {
+public class Parser implements WikiParser {
     public static final String PAGE_START = "<page>";
     private static final char NEWLINE = '\n';
+    private static final String TEXT_END = "</text>";
+    private static final String CONTRIBUTOR_END = "</contributor>";
 
     private static final Pattern TITLE_PATTERN = Pattern.compile(".*<title>(.+)</title>.*"),
             ID_PATTERN = Pattern.compile(".*<id>([0-9]+)</id>.*"),
-            REDIRECT_PATTERN = Pattern.compile(".*<redirect.*/>.*"),
+            NS_PATTERN = Pattern.compile(".*<ns>(-?[0-9]+)</ns>.*"),
+            REDIRECT_PATTERN = Pattern.compile(".*<redirect(?:.*title=\"([^\"]*)\")?.*/>.*"),
             REVISION_PATTERN = Pattern.compile(".*<revision>.*"),
             REVISION_END_PATTERN = Pattern.compile(".*</revision>.*"),
             TIMESTAMP_PATTERN = Pattern.compile(".*<timestamp>(.+)</timestamp>"),
@@ -53,6 +63,8 @@ public class Parser {
             CONTRIBUTOR_END_PATTERN = Pattern.compile(".*</contributor>.*");
 
 
+    private BufferedReader in;
+    private EnumSet<RevisionField> fields = EnumSet.allOf(RevisionField.class);
     private WikiRevisionWritable revision;
     private WikiPageWritable currentPage;
     private boolean foundRevisionId,
@@ -63,6 +75,7 @@ public class Parser {
             foundMinor,
             foundPageId,
             foundPageTitle,
+            foundPageNamespace,
             foundPageRedirect;
 
     public Parser() {
@@ -81,17 +94,35 @@ public class Parser {
     private void resetPageMarkers() {
         foundPageId = false;
         foundPageTitle = false;
+        foundPageNamespace = false;
         foundPageRedirect = false;
     }
 
+    @Override
+    public void initialize(InputStream in, Configuration conf) {
+        this.in = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        currentPage = null;
+        fields = RevisionField.getFields(conf);
+    }
+
+    @Override
+    public WikiRevisionWritable readNextRevision() throws IOException {
+        return readNextRevision(in);
+    }
+
+    /**
+     * Reads the next revision from the given reader.
+     *
+     * @return the next revision or null if the end of the reader is reached
+     * @throws IOException
+     */
     public WikiRevisionWritable readNextRevision(BufferedReader in) throws IOException {
         resetMarkers();
 
         revision = new WikiRevisionWritable(currentPage);
 
-        while (in.ready()) {
-            String line = in.readLine();
-
+        String line;
+        while ((line = in.readLine()) != null) {
             boolean isPageStart = line.trim().startsWith(PAGE_START);
 
             if (currentPage == null && !isPageStart) {
@@ -110,11 +141,11 @@ public class Parser {
 
             Matcher revisionEndMatcher = REVISION_END_PATTERN.matcher(line);
             if (revisionEndMatcher.matches()) {
-                break;
+                return revision;
             }
         }
 
-        return revision;
+        return null;
     }
 
     private boolean readRevisionId(String line) {
@@ -146,14 +177,17 @@ public class Parser {
         if (!foundContributor && matchContributor(line)) {
             foundContributor = true;
 
+            if (!fields.contains(RevisionField.CONTRIBUTOR)) {
+                skipTo(CONTRIBUTOR_END, line, in);
+                return true;
+            }
+
             WikiRevisionContributor contributor = new WikiRevisionContributor();
 
             boolean foundUsername = false;
             boolean foundContributorId = false;
 
-            while (in.ready()) {
-                line = in.readLine();
-
+            while ((line = in.readLine()) != null) {
                 if (!foundUsername) {
                     String username = matchUsername(line);
                     if (username != null) {
@@ -186,7 +220,9 @@ public class Parser {
         if (!foundComment) {
             String comment = matchComment(line);
             if (comment != null) {
-                revision.setComment(comment);
+                if (fields.contains(RevisionField.COMMENT)) {
+                    revision.setComment(comment);
+                }
                 foundComment = true;
                 return true;
             }
@@ -205,6 +241,11 @@ public class Parser {
     private boolean readText(String line, BufferedReader in) throws IOException {
         if (!foundText) {
             line = matchTextBegin(line);
+            if (line != null && !fields.contains(RevisionField.TEXT)) {
+                skipTo(TEXT_END, line, in);
+                foundText = true;
+                return true;
+            }
             if (line != null) {
                 StringBuilder text = new StringBuilder();
                 do {
@@ -228,16 +269,23 @@ public class Parser {
         return false;
     }
 
+    /**
+     * Reads lines up to the one containing the given end tag.
+     */
+    private static void skipTo(String endTag, String line, BufferedReader in) throws IOException {
+        while (line != null && !line.contains(endTag)) {
+            line = in.readLine();
+        }
+    }
+
     private void readNextPage(BufferedReader in) throws IOException {
         resetPageMarkers();
 
         currentPage = new WikiPageWritable();
 
-        while (in.ready()) {
-
-            String line = in.readLine();
-
-            if (readPageTitle(line) || readPageId(line) || readPageRedirect(line)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (readPageTitle(line) || readPageNamespace(line) || readPageId(line) || readPageRedirect(line)) {
                 continue;
             }
 
@@ -266,6 +314,18 @@ public class Parser {
         return false;
     }
 
+    private boolean readPageNamespace(String line) {
+        if (!foundPageNamespace) {
+            Matcher matcher = NS_PATTERN.matcher(line);
+            if (matcher.matches()) {
+                currentPage.setNamespace(Integer.parseInt(matcher.group(1)));
+                foundPageNamespace = true;
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean readPageId(String line) {
         if (!foundPageId) {
             long id = matchId(line);
@@ -279,8 +339,16 @@ public class Parser {
     }
 
     private boolean readPageRedirect(String line) {
-        if (!foundPageRedirect && matchRedirect(line)) {
+        if (foundPageRedirect) {
+            return false;
+        }
+
+        Matcher redirectMatcher = REDIRECT_PATTERN.matcher(line);
+        if (redirectMatcher.matches()) {
             currentPage.setRedirect(true);
+            if (redirectMatcher.group(1) != null) {
+                currentPage.setRedirectTarget(StringEscapeUtils.unescapeXml(redirectMatcher.group(1)));
+            }
             foundPageRedirect = true;
             return true;
         }
@@ -304,11 +372,6 @@ public class Parser {
         return -1;
     }
 
-    private static boolean matchRedirect(String line) {
-        Matcher redirectMatcher = REDIRECT_PATTERN.matcher(line);
-        return redirectMatcher.matches();
-    }
-
     public static boolean matchRevision(String line) {
         Matcher revisionMatcher = REVISION_PATTERN.matcher(line);
         return revisionMatcher.matches();
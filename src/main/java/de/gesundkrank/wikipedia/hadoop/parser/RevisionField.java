@@ -0,0 +1,56 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.parser;
+
+import org.apache.hadoop.conf.Configuration;
+
+import java.util.EnumSet;
+
+/**
+ * Optional fields of a revision. Ids, timestamps and the page are always read, the parsers skip the
+ * optional fields that are not requested without decoding them.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public enum RevisionField {
+    TEXT,
+    COMMENT,
+    CONTRIBUTOR;
+
+    /**
+     * Configuration key of the comma separated fields the parsers read, all if it is not set.
+     */
+    public static final String FIELDS = "wikipedia.fields";
+
+    /**
+     * Returns the fields configured to be read.
+     */
+    public static EnumSet<RevisionField> getFields(Configuration conf) {
+        String[] names = conf.getTrimmedStrings(FIELDS);
+        if (conf.get(FIELDS) == null) {
+            return EnumSet.allOf(RevisionField.class);
+        }
+
+        EnumSet<RevisionField> fields = EnumSet.noneOf(RevisionField.class);
+        for (String name : names) {
+            fields.add(valueOf(name));
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.parser;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Filter on pages and revisions configured for a job. The parsers check the page as soon as its header was
+ * read and skip pages that don't match together with all their revisions. Revisions outside the timestamp
+ * window are skipped right behind their timestamp.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class RevisionFilter {
+    public static final String NAMESPACES = "wikipedia.filter.namespaces";
+    public static final String SKIP_REDIRECTS = "wikipedia.filter.redirects.skip";
+    public static final String MIN_PAGE_ID = "wikipedia.filter.page.id.min";
+    public static final String MAX_PAGE_ID = "wikipedia.filter.page.id.max";
+    public static final String TITLE_PREFIX = "wikipedia.filter.title.prefix";
+    public static final String MIN_TIMESTAMP = "wikipedia.filter.timestamp.min";
+    public static final String MAX_TIMESTAMP = "wikipedia.filter.timestamp.max";
+
+    // null if all namespaces are accepted
+    private final int[] namespaces;
+    private final boolean skipRedirects;
+    private final long minPageId;
+    private final long maxPageId;
+    private final String titlePrefix;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+
+    /**
+     * Creates the filter configured in conf, everything is accepted if nothing is configured.
+     */
+    public RevisionFilter(Configuration conf) {
+        String[] namespaceNames = conf.getTrimmedStrings(NAMESPACES);
+        if (conf.get(NAMESPACES) == null) {
+            namespaces = null;
+        } else {
+            namespaces = new int[namespaceNames.length];
+            for (int i = 0; i < namespaceNames.length; i++) {
+                namespaces[i] = Integer.parseInt(namespaceNames[i]);
+            }
+        }
+
+        skipRedirects = conf.getBoolean(SKIP_REDIRECTS, false);
+        minPageId = conf.getLong(MIN_PAGE_ID, Long.MIN_VALUE);
+        maxPageId = conf.getLong(MAX_PAGE_ID, Long.MAX_VALUE);
+        titlePrefix = conf.get(TITLE_PREFIX);
+        minTimestamp = conf.getLong(MIN_TIMESTAMP, Long.MIN_VALUE);
+        maxTimestamp = conf.getLong(MAX_TIMESTAMP, Long.MAX_VALUE);
+    }
+
+    /**
+     * Checks namespace, redirect flag, page id and title of a page whose header was read completely.
+     */
+    public boolean acceptsPage(WikiPageWritable page) {
+        if (skipRedirects && page.isRedirect()) {
+            return false;
+        }
+        if (page.getId() < minPageId || page.getId() > maxPageId) {
+            return false;
+        }
+        if (titlePrefix != null && (page.getTitle() == null || !page.getTitle().startsWith(titlePrefix))) {
+            return false;
+        }
+        return namespaces == null || contains(namespaces, page.getNamespace());
+    }
+
+    /**
+     * Checks if a revision timestamp lies in [minTimestamp, maxTimestamp).
+     */
+    public boolean acceptsTimestamp(long timestamp) {
+        return timestamp >= minTimestamp && timestamp < maxTimestamp;
+    }
+
+    public boolean accepts(WikiRevisionWritable revision) {
+        return acceptsPage(revision.getPage()) && acceptsTimestamp(revision.getTimestamp());
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.parser;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionContributor;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.conf.Configuration;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+
+/**
+ * Streaming parser based on StAX. It doesn't care about the whitespace layout of the dump. The
+ * {@link XMLInputFactory} implementation is looked up the usual way, so a faster implementation like Aalto
+ * or Woodstox is used as soon as it is on the classpath.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class StaxParser implements WikiParser {
+    // splits contain a sequence of pages without a common root, so the stream gets wrapped into one
+    private static final byte[] ROOT_START = "<wikipedia-hadoop>".getBytes(StandardCharsets.US_ASCII),
+            ROOT_END = "</wikipedia-hadoop>".getBytes(StandardCharsets.US_ASCII);
+
+    private static final XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        // getElementText() joins the text events of read fields, skipped fields are never joined into a string
+        FACTORY.setProperty(XMLInputFactory.IS_COALESCING, false);
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+    }
+
+    private XMLStreamReader reader;
+    private WikiPageWritable currentPage;
+    private boolean finished;
+    private EnumSet<RevisionField> fields;
+    private RevisionFilter filter;
+
+    @Override
+    public void initialize(InputStream in, Configuration conf) throws IOException {
+        InputStream wrapped = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream(ROOT_START), in, new ByteArrayInputStream(ROOT_END))));
+        try {
+            reader = FACTORY.createXMLStreamReader(wrapped, StandardCharsets.UTF_8.name());
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        currentPage = null;
+        finished = false;
+        fields = RevisionField.getFields(conf);
+        filter = new RevisionFilter(conf);
+    }
+
+    @Override
+    public WikiRevisionWritable readNextRevision() throws IOException {
+        if (finished) {
+            return null;
+        }
+
+        WikiRevisionWritable revision = null;
+        WikiRevisionContributor contributor = null;
+
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    String name = reader.getLocalName();
+                    if (revision != null && "revision".equals(name)) {
+                        return revision;
+                    } else if ("contributor".equals(name)) {
+                        contributor = null;
+                    } else if ("page".equals(name)) {
+                        currentPage = null;
+                        revision = null;
+                    }
+                    continue;
+                }
+
+                if (event != XMLStreamConstants.START_ELEMENT) {
+                    continue;
+                }
+
+                String name = reader.getLocalName();
+                if ("page".equals(name)) {
+                    currentPage = new WikiPageWritable();
+                    revision = null;
+                } else if (currentPage == null) {
+                    continue;
+                } else if (revision == null) {
+                    if ("revision".equals(name)) {
+                        if (!filter.acceptsPage(currentPage)) {
+                            // leave the revision and the page
+                            skipElement(2);
+                            currentPage = null;
+                            continue;
+                        }
+                        revision = new WikiRevisionWritable(currentPage);
+                    } else {
+                        readPageElement(name);
+                    }
+                } else if (contributor != null) {
+                    readContributorElement(name, contributor);
+                } else if ("contributor".equals(name)) {
+                    if (!fields.contains(RevisionField.CONTRIBUTOR)) {
+                        skipElement(1);
+                    } else if (reader.getAttributeValue(null, "deleted") == null) {
+                        // deleted contributors are written as empty element
+                        contributor = new WikiRevisionContributor();
+                        revision.setContributor(contributor);
+                    }
+                } else if (!readRevisionElement(name, revision)) {
+                    skipElement(1);
+                    revision = null;
+                }
+            }
+        } catch (XMLStreamException e) {
+            finished = true;
+            // the end of a split may leave enclosing elements like <mediawiki> open
+            if (currentPage == null) {
+                return null;
+            }
+            throw new IOException(e);
+        }
+
+        finished = true;
+        return null;
+    }
+
+    private void readPageElement(String name) throws XMLStreamException {
+        switch (name) {
+            case "title":
+                currentPage.setTitle(reader.getElementText());
+                break;
+            case "id":
+                currentPage.setId(parseLong(reader.getElementText()));
+                break;
+            case "ns":
+                currentPage.setNamespace((int) parseLong(reader.getElementText()));
+                break;
+            case "redirect":
+                currentPage.setRedirect(true);
+                currentPage.setRedirectTarget(reader.getAttributeValue(null, "title"));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Reads an element of a revision.
+     *
+     * @return false if the revision is filtered
+     */
+    private boolean readRevisionElement(String name, WikiRevisionWritable revision) throws XMLStreamException {
+        switch (name) {
+            case "id":
+                revision.setId(parseLong(reader.getElementText()));
+                break;
+            case "timestamp":
+                byte[] timestamp = reader.getElementText().getBytes(StandardCharsets.US_ASCII);
+                revision.setTimestamp(ByteParser.parseTimestamp(timestamp, 0, timestamp.length));
+                return filter.acceptsTimestamp(revision.getTimestamp());
+            case "comment":
+                if (fields.contains(RevisionField.COMMENT)) {
+                    revision.setComment(reader.getElementText());
+                } else {
+                    skipElement(1);
+                }
+                break;
+            case "minor":
+                revision.setMinor(true);
+                break;
+            case "text":
+                if (fields.contains(RevisionField.TEXT)) {
+                    revision.setText(reader.getElementText());
+                } else {
+                    skipElement(1);
+                }
+                break;
+            default:
+                break;
+        }
+        return true;
+    }
+
+    private void readContributorElement(String name, WikiRevisionContributor contributor)
+            throws XMLStreamException {
+        switch (name) {
+            case "username":
+                contributor.setUsername(reader.getElementText());
+                break;
+            case "id":
+                contributor.setId(parseLong(reader.getElementText()));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Moves to the end of the current element or, with a depth greater one, of its enclosing elements.
+     */
+    private void skipElement(int depth) throws XMLStreamException {
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
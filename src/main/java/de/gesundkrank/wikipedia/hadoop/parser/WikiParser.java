@@ -0,0 +1,68 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.parser;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.conf.Configuration;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parser engine used by {@link de.gesundkrank.wikipedia.hadoop.inputformat.WikiInputRecordReader}.
+ * <p>
+ * The engine of a job is chosen with
+ * {@link de.gesundkrank.wikipedia.hadoop.inputformat.WikiInputFormat#setParserClass}. Implementations need a
+ * public no argument constructor.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public interface WikiParser {
+
+    /**
+     * Binds the parser to a stream. The stream may start anywhere in front of a page element and does not
+     * need to contain a complete xml document.
+     *
+     * @param in   UTF-8 encoded dump
+     * @param conf job configuration
+     * @throws IOException
+     */
+    void initialize(InputStream in, Configuration conf) throws IOException;
+
+    /**
+     * Reads the next complete revision.
+     *
+     * @return the next revision or null if the end of the stream is reached
+     * @throws IOException
+     */
+    WikiRevisionWritable readNextRevision() throws IOException;
+
+    /**
+     * Reads the next complete revision into the given instance. The revision, its page and its contributor
+     * are refilled and only stay valid until the next call. The page object is shared by all revisions of a
+     * page and refilled when the next page starts. Engines that don't support reuse return a new instance.
+     *
+     * @param reuse revision to refill
+     * @return the refilled revision or null if the end of the stream is reached
+     * @throws IOException
+     */
+    default WikiRevisionWritable readNextRevision(WikiRevisionWritable reuse) throws IOException {
+        return readNextRevision();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.io.RevisionDeltaEncoder;
+import de.gesundkrank.wikipedia.hadoop.io.TextDelta;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads revisions from a MapFile written with {@link RevisionDeltaEncoder} and rebuilds their texts.
+ * <p>
+ * The texts of recently read revisions are cached, so consecutive revisions of a page only apply a single
+ * delta. Missing bases are read from the MapFile.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class DeltaRevisionReader implements AutoCloseable {
+    private final PartitionedMapFile reader;
+    private final Map<Long, byte[]> textCache;
+    private final LongWritable key = new LongWritable();
+
+    /**
+     * @param path      MapFile of revisions keyed by revision id, it may be partitioned by several reducers
+     * @param conf      hadoop configuration
+     * @param cacheSize number of texts that are cached
+     */
+    public DeltaRevisionReader(Path path, Configuration conf, int cacheSize) throws IOException {
+        this(new PartitionedMapFile(path, conf), cacheSize);
+    }
+
+    /**
+     * @param reader    reader of a MapFile of revisions keyed by revision id, it is closed by this reader
+     * @param cacheSize number of texts that are cached
+     */
+    public DeltaRevisionReader(MapFile.Reader reader, int cacheSize) {
+        this(new PartitionedMapFile(reader), cacheSize);
+    }
+
+    private DeltaRevisionReader(PartitionedMapFile reader, final int cacheSize) {
+        this.reader = reader;
+        this.textCache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the revision with its complete text or null if it does not exist.
+     */
+    public WikiRevisionWritable read(long revisionId) throws IOException {
+        WikiRevisionWritable revision = new WikiRevisionWritable();
+        key.set(revisionId);
+        if (reader.get(key, revision) == null) {
+            return null;
+        }
+        resolve(revision);
+        return revision;
+    }
+
+    /**
+     * Replaces the text delta of a revision by its text. Revisions that were read elsewhere, e.g. while
+     * scanning the data file of the MapFile, can be resolved as well.
+     */
+    public void resolve(WikiRevisionWritable revision) throws IOException {
+        if (!revision.hasText()) {
+            return;
+        }
+
+        byte[] text;
+        if (revision.isTextDelta()) {
+            byte[] base = getText(revision.getTextBaseId());
+            text = TextDelta.apply(base, base.length, revision.getTextBytes(), revision.getTextLength());
+            revision.setText(text, 0, text.length);
+        } else {
+            text = new byte[revision.getTextLength()];
+            System.arraycopy(revision.getTextBytes(), 0, text, 0, text.length);
+        }
+        textCache.put(revision.getId(), text);
+    }
+
+    private byte[] getText(long revisionId) throws IOException {
+        byte[] text = textCache.get(revisionId);
+        if (text == null) {
+            WikiRevisionWritable base = read(revisionId);
+            if (base == null || !base.hasText()) {
+                throw new IOException("Missing text of base revision " + revisionId);
+            }
+            text = Arrays.copyOf(base.getTextBytes(), base.getTextLength());
+        }
+        return text;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.io.PageStore;
+import de.gesundkrank.wikipedia.hadoop.io.RedirectTable;
+import de.gesundkrank.wikipedia.hadoop.io.TitleIndex;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+/**
+ * Exports a MapFile written by {@link RepackToMapFile} into a local {@link PageStore} for serving. The
+ * partitions are read one after another, texts stored as deltas are resolved. The title index and the redirect
+ * table of the MapFile are copied into the store.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class ExportPageStore extends Configured implements Tool {
+    private static final Logger LOGGER = Logger.getLogger(ExportPageStore.class);
+
+    @Override
+    public int run(String[] args) throws Exception {
+        CommandLineParser parser = new GnuParser();
+        Options options = getOptions();
+
+        try {
+            CommandLine commandLine = parser.parse(options, args);
+
+            if (commandLine.hasOption('h')) {
+                printHelp(options);
+                return 0;
+            }
+
+            Path store = new Path(commandLine.getOptionValue('s'));
+            File outputPath = new File(commandLine.getOptionValue('o'));
+            int level = Integer.parseInt(commandLine.getOptionValue('l',
+                    String.valueOf(Deflater.DEFAULT_COMPRESSION)));
+
+            export(store, outputPath, level);
+            return 0;
+        } catch (ParseException e) {
+            System.err.printf("Parsing failed.  Reason: %s%n", e.getMessage());
+            printHelp(options);
+            return 1;
+        }
+    }
+
+    /**
+     * @param store            output path of {@link RepackToMapFile}
+     * @param outputPath       local directory of the page store
+     * @param compressionLevel deflate level of the records, 0 stores them uncompressed
+     * @return number of exported revisions
+     */
+    public long export(Path store, File outputPath, int compressionLevel) throws IOException {
+        LongWritable key = new LongWritable();
+        WikiRevisionWritable revision = new WikiRevisionWritable();
+        try (PageStore.Writer writer = new PageStore.Writer(outputPath, compressionLevel);
+             DeltaRevisionReader deltaReader = new DeltaRevisionReader(store, getConf(), 1024)) {
+            for (Path mapFile : PartitionedMapFile.getMapFiles(store, getConf())) {
+                LOGGER.info("Exporting " + mapFile);
+                try (MapFile.Reader reader = new MapFile.Reader(mapFile, getConf())) {
+                    while (reader.next(key, revision)) {
+                        // caches the texts as well, the bases of the following deltas are mostly found there
+                        deltaReader.resolve(revision);
+                        writer.append(key.get(), revision);
+                    }
+                }
+            }
+
+            FileSystem fs = store.getFileSystem(getConf());
+            for (String name : new String[]{TitleIndex.FILE_NAME, RedirectTable.FILE_NAME}) {
+                Path path = new Path(store, name);
+                if (fs.exists(path)) {
+                    fs.copyToLocalFile(false, path, new Path(new File(outputPath, name).toURI()), true);
+                }
+            }
+
+            LOGGER.info(String.format("Exported %d revisions into %s", writer.size(), outputPath));
+            return writer.size();
+        }
+    }
+
+    private static Options getOptions() {
+        Options options = new Options();
+
+        options.addOption("h", "help", false, "Show this message.");
+
+        Option store = new Option("s", "store", true, "MapFile written by RepackToMapFile.");
+        store.setRequired(true);
+        options.addOption(store);
+
+        Option outputPath = new Option("o", "outputPath", true, "Local directory where the page store is stored.");
+        outputPath.setRequired(true);
+        options.addOption(outputPath);
+
+        options.addOption("l", "level", true, "Deflate level of the records from 1 to 9, 0 stores them " +
+                "uncompressed. Default: 6");
+
+        return options;
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("hadoop jar <jar>", options);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolRunner.run(new ExportPageStore(), args);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Writable;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of looked up values that is bounded by the serialized size of its entries.
+ * <p>
+ * Keys that don't exist are cached as well, so repeated lookups of missing keys are answered from memory. The
+ * cached values are shared between the lookups and must not be modified. Values are loaded outside of the lock
+ * of the cache, concurrent misses of the same key may load it twice.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class LookupCache<K extends Writable, V extends Writable> {
+    // estimated heap size of an entry besides the serialized key and value
+    private static final int ENTRY_OVERHEAD = 96;
+
+    private final long maxBytes;
+    private final Map<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+
+    private long bytes;
+    private long hits;
+    private long negativeHits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Loads the value of a key that is not cached.
+     */
+    public interface Loader<K, V> {
+        /**
+         * @return value or null if the key does not exist
+         */
+        V load(K key) throws IOException;
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final int weight;
+
+        private Entry(V value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * @param maxBytes maximal size of the cached keys and values
+     */
+    public LookupCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the cached value of the key or loads and caches it.
+     *
+     * @param key    key, it must not be modified after the call
+     * @param loader loads the value if it isn't cached
+     * @return value or null if the key does not exist
+     */
+    public V get(K key, Loader<K, V> loader) throws IOException {
+        synchronized (this) {
+            Entry<V> entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                if (entry.value == null) {
+                    negativeHits++;
+                }
+                return entry.value;
+            }
+            misses++;
+        }
+
+        V value = loader.load(key);
+        put(key, value);
+        return value;
+    }
+
+    private synchronized void put(K key, V value) throws IOException {
+        int weight = ENTRY_OVERHEAD + serializedSize(key) + (value != null ? serializedSize(value) : 0);
+        if (weight > maxBytes) {
+            return;
+        }
+
+        Entry<V> previous = entries.put(key, new Entry<>(value, weight));
+        if (previous != null) {
+            bytes -= previous.weight;
+        }
+        bytes += weight;
+
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= iterator.next().weight;
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    private int serializedSize(Writable writable) throws IOException {
+        buffer.reset();
+        writable.write(buffer);
+        return buffer.getLength();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the size of the cached entries in bytes.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of lookups answered from the cache, including the cached missing keys.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of lookups of missing keys answered from the cache.
+     */
+    public synchronized long getNegativeHits() {
+        return negativeHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized double getHitRate() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("LookupCache{entries=%d, bytes=%d, hits=%d, negativeHits=%d, misses=%d, evictions=%d}",
+                entries.size(), bytes, hits, negativeHits, misses, evictions);
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BloomMapFile;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.bloom.DynamicBloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The Bloom filters that {@link MapFileOutputFormat} writes with {@link MapFileOutputFormat#BLOOM_FILTER} into
+ * the MapFiles of a job, held in memory to answer lookups of missing keys without reading the MapFile. Keys are
+ * hashed like {@link BloomMapFile} does, so filters of BloomMapFiles are read as well.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class MapFileBloomFilter {
+    private final DynamicBloomFilter[] filters;
+    private final WritableComparable<?>[] boundaries;
+    private final WritableComparator comparator;
+    private final ThreadLocal<DataOutputBuffer> buffers = new ThreadLocal<DataOutputBuffer>() {
+        @Override
+        protected DataOutputBuffer initialValue() {
+            return new DataOutputBuffer();
+        }
+    };
+
+    private MapFileBloomFilter(DynamicBloomFilter[] filters, WritableComparable<?>[] boundaries,
+                               WritableComparator comparator) {
+        this.filters = filters;
+        this.boundaries = boundaries;
+        this.comparator = comparator;
+    }
+
+    /**
+     * Reads the filters of the MapFiles in the output path of a job.
+     *
+     * @return filters or null if any of the MapFiles has none
+     */
+    public static MapFileBloomFilter readIfExists(Path path, Configuration conf) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        Path[] mapFiles = PartitionedMapFile.getMapFiles(path, conf);
+        for (Path mapFile : mapFiles) {
+            if (!fs.exists(new Path(mapFile, BloomMapFile.BLOOM_FILE_NAME))) {
+                return null;
+            }
+        }
+
+        DynamicBloomFilter[] filters = new DynamicBloomFilter[mapFiles.length];
+        for (int i = 0; i < mapFiles.length; i++) {
+            filters[i] = new DynamicBloomFilter();
+            try (FSDataInputStream in = fs.open(new Path(mapFiles[i], BloomMapFile.BLOOM_FILE_NAME))) {
+                filters[i].readFields(in);
+            }
+        }
+
+        WritableComparable<?>[] boundaries = new WritableComparable<?>[0];
+        WritableComparator comparator = null;
+        if (mapFiles.length > 1) {
+            boundaries = PartitionedMapFile.readBoundaries(new Path(path, PartitionedMapFile.PARTITION_FILE), conf);
+            comparator = WritableComparator.get(boundaries[0].getClass().asSubclass(WritableComparable.class));
+        }
+        return new MapFileBloomFilter(filters, boundaries, comparator);
+    }
+
+    /**
+     * Returns false if the key is definitely not in the MapFile.
+     */
+    public boolean mightContain(WritableComparable<?> key) throws IOException {
+        int partition = PartitionedMapFile.getPartition(boundaries, comparator, key);
+
+        DataOutputBuffer buffer = buffers.get();
+        buffer.reset();
+        key.write(buffer);
+        return filters[partition].membershipTest(new Key(Arrays.copyOf(buffer.getData(), buffer.getLength())));
+    }
+}
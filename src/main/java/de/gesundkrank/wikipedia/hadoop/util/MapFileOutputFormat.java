@@ -19,6 +19,8 @@
 package de.gesundkrank.wikipedia.hadoop.util;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BloomMapFile;
 import org.apache.hadoop.io.MapFile;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.Writable;
@@ -32,6 +34,11 @@ import java.io.IOException;
 import java.text.NumberFormat;
 
 public class MapFileOutputFormat extends FileOutputFormat<WritableComparable, Writable> {
+    /**
+     * Also writes a Bloom filter of the keys into each MapFile, like {@link BloomMapFile}. Its size is configured
+     * with io.mapfile.bloom.size (keys per filter vector) and io.mapfile.bloom.error.rate.
+     */
+    public static final String BLOOM_FILTER = "wikipedia.mapfile.bloom";
 
 	private static final NumberFormat NUMBER_FORMAT = NumberFormat.getInstance();
 	  static {
@@ -47,14 +54,19 @@ public class MapFileOutputFormat extends FileOutputFormat<WritableComparable, Wr
 		FileOutputCommitter committer =
 		      (FileOutputCommitter) getOutputCommitter(context);
 
-        SequenceFile.Writer.Option keyClass = SequenceFile.Writer.keyClass(WritableComparable.class);
-        SequenceFile.Writer.Option valueClass = SequenceFile.Writer.valueClass(Writable.class);
+        // the output classes of the job, the interfaces can not be instantiated when the file is read
+        SequenceFile.Writer.Option keyClass =
+                MapFile.Writer.keyClass(context.getOutputKeyClass().asSubclass(WritableComparable.class));
+        SequenceFile.Writer.Option valueClass = SequenceFile.Writer.valueClass(context.getOutputValueClass());
         SequenceFile.Writer.Option compressionType =
                 SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK);
 
 
-        final MapFile.Writer out =
-                new MapFile.Writer(conf, committer.getWorkPath(), keyClass, valueClass, compressionType);
+        // a single reducer writes the MapFile into the output path, several ones a part-r-xxxxx MapFile each
+        Path path = context.getNumReduceTasks() > 1 ? getDefaultWorkFile(context, "") : committer.getWorkPath();
+        final MapFile.Writer out = conf.getBoolean(BLOOM_FILTER, false) ?
+                new BloomMapFile.Writer(conf, path, keyClass, valueClass, compressionType) :
+                new MapFile.Writer(conf, path, keyClass, valueClass, compressionType);
 
 		return new RecordWriter<WritableComparable, Writable>() {
 			@Override
@@ -19,27 +19,93 @@
 package de.gesundkrank.wikipedia.hadoop.util;
 
 import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.io.RedirectTable;
+import de.gesundkrank.wikipedia.hadoop.io.TextDelta;
+import de.gesundkrank.wikipedia.hadoop.io.TitleIndex;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.log4j.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * Looks up values of a MapFile, which may be partitioned into several MapFiles by key range, see
+ * {@link PartitionedMapFile}. With {@link #setCacheSize(long)} the looked up values and missing keys are
+ * cached, cached values are shared between lookups and must not be modified.
+ * <p>
+ * The reader is thread safe. A MapFile reader has a position, so each lookup borrows one of up to
+ * {@link #POOL_SIZE} readers that are opened on demand and each hold the MapFile index. Besides the shared
+ * {@link #getInstance()} independent readers can be created for several MapFiles or configurations.
+ * <p>
+ * Titles are looked up in the {@link TitleIndex} of MapFiles written by {@link RepackToMapFile}, which is held
+ * in memory, and the latest revision of the page is read with a single MapFile lookup. MapFiles without title
+ * index are expected to be keyed by title. With {@link #setFollowRedirects(boolean)} redirects are resolved in
+ * memory by the {@link RedirectTable} of the title index, so their final target costs a single lookup as well.
+ * <p>
+ * Lookups of missing keys are answered from memory if the MapFile has a Bloom filter, see
+ * {@link MapFileOutputFormat#BLOOM_FILTER}.
+ * <p>
+ * Batches of revisions or titles are read with {@link #readAll(Collection)} and {@link #readAllByTitle}, which
+ * sort the keys and decompress each block of the MapFile once, see {@link MapFileScanner}.
+ * <p>
+ * Texts stored as deltas, see {@link RepackToMapFile#SNAPSHOT_INTERVAL}, are rebuilt from their base revisions.
+ * The last {@link #TEXT_CACHE_SIZE} rebuilt texts are kept like {@link DeltaRevisionReader} does, so consecutive
+ * revisions of a page apply a single delta. Batches take the bases from the revisions read before in the batch.
+ *
  * @author Jan Graßegger<jan.grassegger@uni-weimar.de>
  */
 public final class MapFileReader implements AutoCloseable {
+    /**
+     * Maximal number of concurrently used MapFile readers, default: number of cores.
+     */
+    public static final String POOL_SIZE = "wikipedia.reader.pool.size";
+
+    /**
+     * Number of rebuilt texts of delta encoded revisions that are cached, default: 64.
+     */
+    public static final String TEXT_CACHE_SIZE = "wikipedia.reader.text.cache.size";
+
     private static MapFileReader INSTANCE;
 
     private final Logger logger;
+    private final int poolSize;
     private Configuration conf;
-    private MapFile.Reader reader;
+    private volatile ReaderPool pool;
+    private volatile LookupCache<WritableComparable<?>, Writable> cache;
+    private volatile TitleIndex titleIndex;
+    private volatile RedirectTable redirectTable;
+    private volatile boolean titleIndexLoaded;
+    private volatile boolean followRedirects;
+    private volatile MapFileBloomFilter bloomFilter;
+    private volatile boolean bloomFilterLoaded;
+    private final Map<Long, byte[]> textCache;
+    private volatile boolean textDeltas;
+    private final AtomicLong savedLookups = new AtomicLong();
     private String nameNode;
     private Path path = new Path("wikipedia-mapfile");
 
-    public static MapFileReader getInstance() {
+    public static synchronized MapFileReader getInstance() {
         if (INSTANCE == null) {
             INSTANCE = new MapFileReader();
         }
@@ -48,52 +114,214 @@ public final class MapFileReader implements AutoCloseable {
     }
 
     private MapFileReader() {
-        logger = Logger.getLogger(getClass());
+        this(new Configuration());
         logger.debug("init MapFileRecordReader");
+    }
 
-        conf = new Configuration();
-
-        if (nameNode != null) {
-            conf.set("fs.default.name", nameNode);
-        }
+    private MapFileReader(Configuration conf) {
+        this(null, conf, conf.getInt(POOL_SIZE, Runtime.getRuntime().availableProcessors()));
+    }
 
-        try {
-            reader = new MapFile.Reader(path, conf);
-        } catch (IOException e) {
-            logger.error(e);
-        }
+    /**
+     * Creates a reader with {@link #POOL_SIZE} MapFile readers.
+     *
+     * @param path output path of the job that wrote the MapFile
+     * @param conf hadoop configuration
+     */
+    public MapFileReader(Path path, Configuration conf) {
+        this(path, conf, conf.getInt(POOL_SIZE, Runtime.getRuntime().availableProcessors()));
     }
 
-    private void initMapFileReader() throws IOException {
-        reader = new MapFile.Reader(path, conf);
+    /**
+     * @param path     output path of the job that wrote the MapFile
+     * @param conf     hadoop configuration
+     * @param poolSize maximal number of concurrently used MapFile readers
+     */
+    public MapFileReader(Path path, Configuration conf, int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("poolSize must be positive: " + poolSize);
+        }
+        this.logger = Logger.getLogger(getClass());
+        this.conf = conf;
+        this.poolSize = poolSize;
+        if (path != null) {
+            this.path = path;
+        }
+        final int textCacheSize = conf.getInt(TEXT_CACHE_SIZE, 64);
+        this.textCache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > textCacheSize;
+            }
+        };
     }
 
     public String getNameNode() {
         return nameNode;
     }
 
-    public void setNameNode(String nameNode) throws IOException {
+    public synchronized void setNameNode(String nameNode) throws IOException {
         this.nameNode = nameNode;
         conf.set("fs.default.name", nameNode);
-        reader = null;
+        reset();
     }
 
     public Path getPath() {
         return path;
     }
 
-    public void setPath(String path) throws IOException {
+    public synchronized void setPath(String path) throws IOException {
         this.path = new Path(path);
-        reader = null;
+        reset();
+    }
+
+    private void reset() {
+        closePool();
+        titleIndex = null;
+        redirectTable = null;
+        titleIndexLoaded = false;
+        bloomFilter = null;
+        bloomFilterLoaded = false;
+        if (cache != null) {
+            cache.clear();
+        }
+        synchronized (textCache) {
+            textCache.clear();
+        }
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * Enables the cache of looked up values.
+     *
+     * @param maxBytes maximal serialized size of the cached keys and values, 0 disables the cache
+     */
+    public void setCacheSize(long maxBytes) {
+        cache = maxBytes > 0 ? new LookupCache<WritableComparable<?>, Writable>(maxBytes) : null;
+    }
+
+    /**
+     * Returns the cache with its hit, miss and eviction counters or null if it is disabled.
+     */
+    public LookupCache<WritableComparable<?>, Writable> getCache() {
+        return cache;
+    }
+
+    private synchronized ReaderPool getPool() {
+        if (pool == null) {
+            pool = new ReaderPool(path, conf, poolSize);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the Bloom filter of the MapFile or null if it has none, see
+     * {@link MapFileOutputFormat#BLOOM_FILTER}.
+     */
+    public MapFileBloomFilter getBloomFilter() throws IOException {
+        if (!bloomFilterLoaded) {
+            synchronized (this) {
+                if (!bloomFilterLoaded) {
+                    bloomFilter = MapFileBloomFilter.readIfExists(path, conf);
+                    bloomFilterLoaded = true;
+                }
+            }
+        }
+        return bloomFilter;
+    }
+
+    /**
+     * Returns the number of lookups of missing keys that the Bloom filter answered without reading the MapFile.
+     */
+    public long getSavedLookups() {
+        return savedLookups.get();
     }
 
+    private Writable get(WritableComparable<?> key, final Writable value) throws IOException {
+        MapFileBloomFilter filter = getBloomFilter();
+        if (filter != null && !filter.mightContain(key)) {
+            savedLookups.incrementAndGet();
+            return null;
+        }
+
+        LookupCache<WritableComparable<?>, Writable> currentCache = cache;
+        if (currentCache == null) {
+            return load(key, value);
+        }
+
+        return currentCache.get(key, new LookupCache.Loader<WritableComparable<?>, Writable>() {
+            @Override
+            public Writable load(WritableComparable<?> key) throws IOException {
+                return MapFileReader.this.load(key, value);
+            }
+        });
+    }
+
+    private Writable load(WritableComparable<?> key, Writable value) throws IOException {
+        ReaderPool currentPool = pool;
+        if (currentPool == null) {
+            currentPool = getPool();
+        }
+        PartitionedMapFile reader = currentPool.take();
+        try {
+            return reader.get(key, value);
+        } finally {
+            currentPool.release(reader);
+        }
+    }
+
+    /**
+     * Returns the title index of the MapFile or null if it has none.
+     */
+    public TitleIndex getTitleIndex() throws IOException {
+        loadTitleIndex();
+        return titleIndex;
+    }
+
+    /**
+     * Returns the redirect table of the MapFile or null if it has none.
+     */
+    public RedirectTable getRedirectTable() throws IOException {
+        loadTitleIndex();
+        return redirectTable;
+    }
+
+    private void loadTitleIndex() throws IOException {
+        if (!titleIndexLoaded) {
+            synchronized (this) {
+                if (!titleIndexLoaded) {
+                    titleIndex = TitleIndex.readIfExists(path, conf);
+                    redirectTable = titleIndex != null ? RedirectTable.readIfExists(path, conf) : null;
+                    titleIndexLoaded = true;
+                }
+            }
+        }
+    }
+
+    public boolean isFollowRedirects() {
+        return followRedirects;
+    }
+
+    /**
+     * Makes {@link #readByTitle(String)} return the final target of redirects, default: false.
+     */
+    public void setFollowRedirects(boolean followRedirects) {
+        this.followRedirects = followRedirects;
+    }
+
+    /**
+     * Reads the page of a title, from the latest revision of the page if the MapFile has a title index.
+     */
     public WikiPageWritable read(Text title) throws IOException, ArticleNotFoundException {
-        if (reader == null) {
-            initMapFileReader();
+        if (getTitleIndex() != null) {
+            return readByTitle(title.toString()).getPage();
         }
 
-        WikiPageWritable page = new WikiPageWritable();
-        page = (WikiPageWritable) reader.get(title, page);
+        // cached keys must not change
+        WikiPageWritable page = (WikiPageWritable) get(new Text(title), new WikiPageWritable());
         if (page == null) {
             throw new ArticleNotFoundException(title.toString());
         }
@@ -104,14 +332,227 @@ public final class MapFileReader implements AutoCloseable {
         return read(new Text(title));
     }
 
+    /**
+     * Reads the latest revision of the page with the title from a MapFile written by {@link RepackToMapFile}
+     * with title index.
+     *
+     * @param title title, spaces and underscores are equivalent
+     */
+    public WikiRevisionWritable readByTitle(String title) throws IOException, ArticleNotFoundException {
+        return readByTitle(title, followRedirects);
+    }
+
+    /**
+     * @param title           title, spaces and underscores are equivalent
+     * @param followRedirects read the final target of a redirect, redirects that end in a cycle or a missing
+     *                        page are read themselves
+     */
+    public WikiRevisionWritable readByTitle(String title, boolean followRedirects) throws IOException,
+            ArticleNotFoundException {
+        TitleIndex index = getTitleIndex();
+        if (index == null) {
+            throw new IOException(path + " has no title index");
+        }
+
+        int ordinal = index.indexOf(WikiPageWritable.normalizeTitle(title));
+        if (ordinal < 0) {
+            throw new ArticleNotFoundException(title);
+        }
+        RedirectTable redirects = redirectTable;
+        if (followRedirects && redirects != null) {
+            int target = redirects.resolve(ordinal);
+            if (target >= 0) {
+                ordinal = target;
+            }
+        }
+        return read(index.get(ordinal).getRevisionId());
+    }
+
+    /**
+     * Reads a revision from a MapFile written by {@link RepackToMapFile}.
+     */
+    public WikiRevisionWritable read(long revisionId) throws IOException, ArticleNotFoundException {
+        WikiRevisionWritable revision =
+                (WikiRevisionWritable) get(new LongWritable(revisionId), new WikiRevisionWritable());
+        if (revision == null) {
+            throw new ArticleNotFoundException(revisionId);
+        }
+        if (revision.isTextDelta()) {
+            // cached revisions are shared, the text is rebuilt on a copy
+            revision = WritableUtils.clone(revision, conf);
+            resolve(revision, null);
+        }
+        return revision;
+    }
+
+    /**
+     * Replaces the text delta of a revision by its text and caches the text.
+     *
+     * @param reader reader the missing bases are looked up with, or null to look them up like other revisions
+     * @return the rebuilt text
+     */
+    private byte[] resolve(WikiRevisionWritable revision, PartitionedMapFile reader) throws IOException {
+        textDeltas = true;
+        byte[] base = getText(revision.getTextBaseId(), reader);
+        byte[] text = TextDelta.apply(base, base.length, revision.getTextBytes(), revision.getTextLength());
+        revision.setText(text, 0, text.length);
+        cacheText(revision.getId(), text);
+        return text;
+    }
+
+    private byte[] getText(long revisionId, PartitionedMapFile reader) throws IOException {
+        byte[] text;
+        synchronized (textCache) {
+            text = textCache.get(revisionId);
+        }
+        if (text != null) {
+            return text;
+        }
+
+        LongWritable key = new LongWritable(revisionId);
+        WikiRevisionWritable base = (WikiRevisionWritable) (reader != null ?
+                reader.get(key, new WikiRevisionWritable()) : get(key, new WikiRevisionWritable()));
+        if (base == null || !base.hasText()) {
+            throw new IOException("Missing text of base revision " + revisionId);
+        }
+        if (base.isTextDelta()) {
+            return resolve(WritableUtils.clone(base, conf), reader);
+        }
+        text = Arrays.copyOf(base.getTextBytes(), base.getTextLength());
+        cacheText(revisionId, text);
+        return text;
+    }
+
+    private void cacheText(long revisionId, byte[] text) {
+        synchronized (textCache) {
+            textCache.put(revisionId, text);
+        }
+    }
+
+    /**
+     * Reads several revisions at once. The ids are sorted and looked up with one forward pass over the MapFile,
+     * so revisions in the same compressed block cost a single seek and decompression. Batch lookups bypass the
+     * cache of looked up values, deltas are resolved during the pass.
+     *
+     * @param visitor receives the revisions that exist in ascending order of their ids
+     */
+    public void readAll(Collection<Long> revisionIds,
+                        final MapFileScanner.Visitor<LongWritable, WikiRevisionWritable> visitor) throws IOException {
+        MapFileBloomFilter filter = getBloomFilter();
+        List<LongWritable> keys = new ArrayList<>(revisionIds.size());
+        for (long revisionId : revisionIds) {
+            LongWritable key = new LongWritable(revisionId);
+            if (filter != null && !filter.mightContain(key)) {
+                savedLookups.incrementAndGet();
+            } else {
+                keys.add(key);
+            }
+        }
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        ReaderPool currentPool = pool;
+        if (currentPool == null) {
+            currentPool = getPool();
+        }
+        final PartitionedMapFile reader = currentPool.take();
+        try {
+            reader.getAll(keys, new MapFileScanner.Visitor<LongWritable, WikiRevisionWritable>() {
+                @Override
+                public void visit(LongWritable key, WikiRevisionWritable value) throws IOException {
+                    // the pass reads the data files with its own readers, missing bases are looked up with the
+                    // MapFile readers of the borrowed reader
+                    if (value.isTextDelta()) {
+                        resolve(value, reader);
+                    } else if (textDeltas && value.hasText()) {
+                        // the base of the next revisions of the page
+                        cacheText(value.getId(), Arrays.copyOf(value.getTextBytes(), value.getTextLength()));
+                    }
+                    visitor.visit(key, value);
+                }
+            });
+        } finally {
+            currentPool.release(reader);
+        }
+    }
+
+    /**
+     * Reads several revisions at once, see {@link #readAll(Collection, MapFileScanner.Visitor)}.
+     *
+     * @return the revisions that exist by their ids in ascending order
+     */
+    public SortedMap<Long, WikiRevisionWritable> readAll(Collection<Long> revisionIds) throws IOException {
+        final SortedMap<Long, WikiRevisionWritable> revisions = new TreeMap<>();
+        readAll(revisionIds, new MapFileScanner.Visitor<LongWritable, WikiRevisionWritable>() {
+            @Override
+            public void visit(LongWritable key, WikiRevisionWritable value) {
+                revisions.put(key.get(), value);
+            }
+        });
+        return revisions;
+    }
+
+    /**
+     * Reads the latest revisions of several titles at once from a MapFile with title index, redirects are
+     * followed if {@link #setFollowRedirects(boolean)} is enabled.
+     *
+     * @return the revisions of the titles that exist by the requested titles
+     */
+    public Map<String, WikiRevisionWritable> readAllByTitle(Collection<String> titles) throws IOException {
+        TitleIndex index = getTitleIndex();
+        if (index == null) {
+            throw new IOException(path + " has no title index");
+        }
+        RedirectTable redirects = followRedirects ? redirectTable : null;
+
+        // several titles may share a revision
+        Map<Long, List<String>> titlesByRevision = new HashMap<>();
+        for (String title : titles) {
+            int ordinal = index.indexOf(WikiPageWritable.normalizeTitle(title));
+            if (ordinal < 0) {
+                continue;
+            }
+            if (redirects != null && redirects.resolve(ordinal) >= 0) {
+                ordinal = redirects.resolve(ordinal);
+            }
+
+            long revisionId = index.get(ordinal).getRevisionId();
+            List<String> revisionTitles = titlesByRevision.get(revisionId);
+            if (revisionTitles == null) {
+                revisionTitles = new ArrayList<>(1);
+                titlesByRevision.put(revisionId, revisionTitles);
+            }
+            revisionTitles.add(title);
+        }
+
+        Map<String, WikiRevisionWritable> revisions = new HashMap<>();
+        for (Map.Entry<Long, WikiRevisionWritable> entry : readAll(titlesByRevision.keySet()).entrySet()) {
+            for (String title : titlesByRevision.get(entry.getKey())) {
+                revisions.put(title, entry.getValue());
+            }
+        }
+        return revisions;
+    }
+
+    /**
+     * Closes the MapFile readers, they are reopened by the next lookup.
+     */
     public void close() {
         logger.debug("closing MapFileRecordReader");
+        closePool();
+    }
+
+    private synchronized void closePool() {
+        if (pool == null) {
+            return;
+        }
         try {
-            if (reader != null) {
-                reader.close();
-            }
+            pool.close();
         } catch (IOException e) {
             logger.warn(e, e);
+        } finally {
+            pool = null;
         }
     }
 
@@ -119,7 +560,96 @@ public final class MapFileReader implements AutoCloseable {
         public ArticleNotFoundException(String title) {
             super(String.format("Article with title %s does not exist", title));
         }
+
+        public ArticleNotFoundException(long revisionId) {
+            super(String.format("Revision with id %d does not exist", revisionId));
+        }
     }
 
+    /**
+     * MapFile readers of a path that are opened on demand. Readers that are in use while the pool is closed
+     * are closed when they are released.
+     */
+    private static final class ReaderPool implements Closeable {
+        private final Path path;
+        private final Configuration conf;
+        private final int size;
+        private final BlockingQueue<PartitionedMapFile> idle = new LinkedBlockingQueue<>();
+        private int opened;
+        private boolean closed;
+
+        private ReaderPool(Path path, Configuration conf, int size) {
+            this.path = path;
+            this.conf = conf;
+            this.size = size;
+        }
+
+        private PartitionedMapFile take() throws IOException {
+            PartitionedMapFile reader = idle.poll();
+            while (reader == null) {
+                boolean open;
+                synchronized (this) {
+                    if (closed) {
+                        throw new IOException("Reader of " + path + " is closed");
+                    }
+                    open = opened < size;
+                    if (open) {
+                        opened++;
+                    }
+                }
+
+                if (open) {
+                    return open();
+                }
+                try {
+                    reader = idle.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for a reader of " + path);
+                }
+            }
+            return reader;
+        }
+
+        private PartitionedMapFile open() throws IOException {
+            try {
+                return new PartitionedMapFile(path, conf);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    opened--;
+                }
+                throw e;
+            }
+        }
 
+        private void release(PartitionedMapFile reader) throws IOException {
+            synchronized (this) {
+                if (!closed) {
+                    idle.add(reader);
+                    return;
+                }
+                opened--;
+            }
+            reader.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (this) {
+                closed = true;
+            }
+            IOException exception = null;
+            PartitionedMapFile reader;
+            while ((reader = idle.poll()) != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    exception = e;
+                }
+            }
+            if (exception != null) {
+                throw exception;
+            }
+        }
+    }
 }
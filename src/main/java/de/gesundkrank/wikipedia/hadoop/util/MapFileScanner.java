@@ -0,0 +1,176 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Looks up sorted keys of a MapFile in one forward pass.
+ * <p>
+ * {@link MapFile.Reader#get} seeks to the index entry in front of every key, in a block compressed MapFile
+ * that means decompressing the block again for each key. The MapFile writer puts at most one index entry into
+ * every compressed block, so the scanner groups the keys by their index entry, seeks once per group and scans
+ * forward to the following keys. Values of keys that are not requested are not deserialized.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class MapFileScanner implements Closeable {
+    private final SequenceFile.Reader data;
+    private final WritableComparator comparator;
+    private final Configuration conf;
+    private final WritableComparable<?>[] indexKeys;
+    private final long[] positions;
+    private final WritableComparable<?> current;
+
+    private boolean hasCurrent;
+    private long seeks;
+
+    /**
+     * Receives the values of the keys that exist.
+     */
+    public interface Visitor<K extends WritableComparable<?>, V extends Writable> {
+        /**
+         * @param key   requested key
+         * @param value new instance, it may be kept
+         */
+        void visit(K key, V value) throws IOException;
+    }
+
+    /**
+     * @param mapFile directory of the MapFile
+     * @param conf    hadoop configuration
+     */
+    public MapFileScanner(Path mapFile, Configuration conf) throws IOException {
+        this.conf = conf;
+        List<WritableComparable<?>> keys = new ArrayList<>();
+        long[] positions = new long[1024];
+        try (SequenceFile.Reader index = new SequenceFile.Reader(conf,
+                SequenceFile.Reader.file(new Path(mapFile, MapFile.INDEX_FILE_NAME)))) {
+            Class<?> keyClass = index.getKeyClass();
+            WritableComparable<?> key = newKey(keyClass);
+            LongWritable position = new LongWritable();
+            while (index.next(key, position)) {
+                if (keys.size() == positions.length) {
+                    positions = Arrays.copyOf(positions, positions.length * 2);
+                }
+                positions[keys.size()] = position.get();
+                keys.add(key);
+                key = newKey(keyClass);
+            }
+        }
+        this.indexKeys = keys.toArray(new WritableComparable<?>[keys.size()]);
+        this.positions = Arrays.copyOf(positions, keys.size());
+
+        this.data = new SequenceFile.Reader(conf, SequenceFile.Reader.file(new Path(mapFile, MapFile.DATA_FILE_NAME)));
+        this.comparator = WritableComparator.get(data.getKeyClass().asSubclass(WritableComparable.class));
+        this.current = newKey(data.getKeyClass());
+    }
+
+    private WritableComparable<?> newKey(Class<?> keyClass) {
+        return ReflectionUtils.newInstance(keyClass.asSubclass(WritableComparable.class), conf);
+    }
+
+    public WritableComparator getComparator() {
+        return comparator;
+    }
+
+    /**
+     * Returns the number of seeks into the data file so far, at most one per compressed block and lookup.
+     */
+    public long getSeeks() {
+        return seeks;
+    }
+
+    /**
+     * Looks up keys in ascending order of the comparator of the MapFile.
+     *
+     * @param keys    ascending keys without duplicates
+     * @param visitor receives the keys that exist in ascending order
+     */
+    public <K extends WritableComparable<?>, V extends Writable> void getAll(List<K> keys, Visitor<K, V> visitor)
+            throws IOException {
+        // the reader position is not kept between lookups, the file may have been scanned by another lookup
+        hasCurrent = false;
+        int block = -1;
+        for (K key : keys) {
+            int entry = floorEntry(key);
+            if (entry < 0) {
+                // smaller than the first key
+                continue;
+            }
+
+            if (entry != block && (!hasCurrent || comparator.compare(current, indexKeys[entry]) < 0)) {
+                // the key is in a later block, skip the blocks in between
+                data.seek(positions[entry]);
+                seeks++;
+                hasCurrent = data.next(current);
+            }
+            block = entry;
+
+            while (hasCurrent && comparator.compare(current, key) < 0) {
+                hasCurrent = data.next(current);
+            }
+            if (hasCurrent && comparator.compare(current, key) == 0) {
+                @SuppressWarnings("unchecked")
+                V value = (V) ReflectionUtils.newInstance(data.getValueClass(), conf);
+                data.getCurrentValue(value);
+                visitor.visit(key, value);
+            }
+        }
+    }
+
+    /**
+     * Returns the last index entry that is not greater than the key or -1.
+     */
+    private int floorEntry(WritableComparable<?> key) {
+        int low = 0;
+        int high = indexKeys.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = comparator.compare(indexKeys[mid], key);
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return low - 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        data.close();
+    }
+}
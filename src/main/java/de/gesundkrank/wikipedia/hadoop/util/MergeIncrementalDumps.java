@@ -0,0 +1,461 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.inputformat.WikiInputFormat;
+import de.gesundkrank.wikipedia.hadoop.inputformat.WikiPageInputFormat;
+import de.gesundkrank.wikipedia.hadoop.inputformat.WikiPageRevisions;
+import de.gesundkrank.wikipedia.hadoop.io.RedirectTable;
+import de.gesundkrank.wikipedia.hadoop.io.TitleIndex;
+import de.gesundkrank.wikipedia.hadoop.io.WikiDumpLoader;
+import de.gesundkrank.wikipedia.hadoop.parser.ByteParser;
+import de.gesundkrank.wikipedia.hadoop.parser.RevisionField;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Merges adds-changes dumps into a MapFile written by {@link RepackToMapFile}.
+ * <p>
+ * The ids of the pages in the dumps are collected first. The revisions of the MapFile and the revisions of the
+ * dumps are then merged by revision id in the shuffle: revisions of changed pages are replaced by the latest
+ * revision of the dumps, new pages are added and deleted pages are dropped. With keepHistory the revisions of
+ * the dumps are added to the revisions of changed pages instead. The adds-changes dumps don't list deleted
+ * pages, their ids can be passed as text file.
+ * <p>
+ * A store that was written by several reducers is merged by one reducer per partition, the merged MapFile keeps
+ * the partition boundaries of the store. If the store has a {@link TitleIndex}, it is rebuilt for the merged
+ * MapFile. The {@link RedirectTable} is not, the MapFile doesn't store the redirect targets.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class MergeIncrementalDumps extends Configured implements Tool {
+    private static final Logger LOGGER = Logger.getLogger(MergeIncrementalDumps.class);
+
+    private static final String PAGES_PATH = "wikipedia.merge.pages";
+    private static final String KEEP_HISTORY = "wikipedia.merge.history";
+
+    @Override
+    public int run(String[] args) throws Exception {
+        CommandLineParser parser = new GnuParser();
+        Options options = getOptions();
+
+        try {
+            CommandLine commandLine = parser.parse(options, args);
+
+            if (commandLine.hasOption('h')) {
+                printHelp(options);
+                return 0;
+            }
+
+            Path store = new Path(commandLine.getOptionValue('s'));
+            Path outputPath = new Path(commandLine.getOptionValue('o'));
+            Path deletedPages = commandLine.hasOption('x') ? new Path(commandLine.getOptionValue('x')) : null;
+            boolean keepHistory = commandLine.hasOption('k');
+            boolean skipRedirect = commandLine.hasOption('r');
+
+            List<Path> updates = new ArrayList<>();
+            if (commandLine.hasOption('i')) {
+                for (String update : commandLine.getOptionValues('i')) {
+                    updates.add(new Path(update));
+                }
+            }
+            if (commandLine.hasOption('b')) {
+                if (!commandLine.hasOption('t')) {
+                    throw new ParseException("Option -b requires the day of the last merged dump with -t");
+                }
+                SimpleDateFormat dayFormat = new SimpleDateFormat("yyyyMMdd", Locale.ENGLISH);
+                dayFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+                long since = dayFormat.parse(commandLine.getOptionValue('t')).getTime();
+                updates.addAll(new WikiDumpLoader(false).loadIncrementalDumps(getConf(),
+                        commandLine.getOptionValue('b'), Locale.ENGLISH, since));
+            }
+
+            return run(store, updates, deletedPages, outputPath, keepHistory, skipRedirect);
+
+        } catch (ParseException | java.text.ParseException e) {
+            System.err.printf("Parsing failed.  Reason: %s%n", e.getMessage());
+            printHelp(options);
+            return 1;
+        }
+    }
+
+    /**
+     * Merges adds-changes dumps into a MapFile of revisions keyed by revision id.
+     *
+     * @param store        MapFile written by {@link RepackToMapFile}
+     * @param updates      adds-changes dumps
+     * @param deletedPages optional text file with the ids of deleted pages, one per line
+     * @param outputPath   path of the merged MapFile
+     * @param keepHistory  if true the revisions of changed pages are kept and the new revisions are added
+     * @param skipRedirect if true pages that became redirects are dropped
+     */
+    public int run(Path store, List<Path> updates, Path deletedPages, Path outputPath, boolean keepHistory,
+                   boolean skipRedirect) throws Exception {
+        Configuration configuration = getConf();
+        configuration.setBoolean(KEEP_HISTORY, keepHistory);
+
+        LOGGER.info("Tool name: " + getClass().getSimpleName());
+
+        Job job = Job.getInstance(configuration, getClass().getSimpleName());
+        job.setJarByClass(getClass());
+
+        FileSystem fs = outputPath.getFileSystem(configuration);
+        Path pagesPath = new Path(outputPath.getParent(), "_" + outputPath.getName() + ".pages");
+        Map<Long, Boolean> changedPages = readPageIds(updates, configuration);
+        long[] dropped = readDeletedPageIds(deletedPages, configuration);
+        if (skipRedirect) {
+            dropped = addRedirects(dropped, changedPages);
+        }
+        writePageIds(fs, pagesPath, toArray(changedPages.keySet()), dropped);
+        job.getConfiguration().set(PAGES_PATH, pagesPath.toString());
+
+        WikiInputFormat.setSkipRedirects(job, skipRedirect);
+        Path[] mapFiles = PartitionedMapFile.getMapFiles(store, configuration);
+        for (Path mapFile : mapFiles) {
+            MultipleInputs.addInputPath(job, new Path(mapFile, MapFile.DATA_FILE_NAME), SequenceFileInputFormat.class,
+                    StoreMapper.class);
+        }
+        for (Path update : updates) {
+            MultipleInputs.addInputPath(job, update, WikiPageInputFormat.class, UpdateMapper.class);
+        }
+
+        job.setReducerClass(MergeReducer.class);
+        job.setOutputFormatClass(MapFileOutputFormat.class);
+        job.setOutputKeyClass(LongWritable.class);
+        job.setOutputValueClass(WikiRevisionWritable.class);
+        MapFileOutputFormat.setOutputPath(job, outputPath);
+
+        // every partition of the store is merged by its own reducer, revisions of new pages go to the last one
+        job.setNumReduceTasks(mapFiles.length);
+        Path partitionFile = new Path(store, PartitionedMapFile.PARTITION_FILE);
+        if (mapFiles.length > 1) {
+            TotalOrderPartitioner.setPartitionFile(job.getConfiguration(), partitionFile);
+            job.setPartitionerClass(TotalOrderPartitioner.class);
+        }
+
+        try {
+            if (!job.waitForCompletion(true)) {
+                return 1;
+            }
+            if (mapFiles.length > 1) {
+                FileUtil.copy(store.getFileSystem(configuration), partitionFile, fs,
+                        new Path(outputPath, PartitionedMapFile.PARTITION_FILE), false, configuration);
+            }
+            if (store.getFileSystem(configuration).exists(new Path(store, TitleIndex.FILE_NAME))) {
+                return buildTitleIndex(outputPath) ? 0 : 1;
+            }
+            return 0;
+        } finally {
+            fs.delete(pagesPath, false);
+        }
+    }
+
+    /**
+     * Writes the {@link TitleIndex} of the merged MapFile like {@link RepackToMapFile} does, the titles are read
+     * from the merged revisions. Their redirect targets are not serialized, so no {@link RedirectTable} is written.
+     */
+    private boolean buildTitleIndex(Path outputPath) throws Exception {
+        Job job = Job.getInstance(getConf(), getClass().getSimpleName() + " titles");
+        job.setJarByClass(getClass());
+
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        for (Path mapFile : PartitionedMapFile.getMapFiles(outputPath, getConf())) {
+            FileInputFormat.addInputPath(job, new Path(mapFile, MapFile.DATA_FILE_NAME));
+        }
+        return RepackToMapFile.writeTitleIndex(job, outputPath);
+    }
+
+    /**
+     * Returns the ids of all pages in the dumps mapped to whether the page is a redirect in the last dump it
+     * occurs in. Only the metadata is parsed.
+     */
+    static Map<Long, Boolean> readPageIds(List<Path> dumps, Configuration conf) throws IOException {
+        Configuration parserConf = new Configuration(conf);
+        parserConf.set(RevisionField.FIELDS, "");
+        CompressionCodecFactory codecs = new CompressionCodecFactory(conf);
+
+        Map<Long, Boolean> pages = new TreeMap<>();
+        for (Path dump : dumps) {
+            InputStream in = dump.getFileSystem(conf).open(dump);
+            CompressionCodec codec = codecs.getCodec(dump);
+            if (codec != null) {
+                in = codec.createInputStream(in);
+            }
+
+            try (InputStream dumpStream = in) {
+                ByteParser parser = new ByteParser();
+                parser.initialize(dumpStream, parserConf);
+                WikiRevisionWritable revision;
+                while ((revision = parser.readNextRevision()) != null) {
+                    pages.put(revision.getPage().getId(), revision.getPage().isRedirect());
+                }
+            }
+        }
+        return pages;
+    }
+
+    private static long[] addRedirects(long[] pageIds, Map<Long, Boolean> pages) {
+        List<Long> result = new ArrayList<>();
+        for (long pageId : pageIds) {
+            result.add(pageId);
+        }
+        for (Map.Entry<Long, Boolean> page : pages.entrySet()) {
+            if (page.getValue()) {
+                result.add(page.getKey());
+            }
+        }
+        long[] array = toArray(result);
+        Arrays.sort(array);
+        return array;
+    }
+
+    private static long[] toArray(Collection<Long> values) {
+        long[] array = new long[values.size()];
+        int i = 0;
+        for (long value : values) {
+            array[i++] = value;
+        }
+        return array;
+    }
+
+    private static long[] readDeletedPageIds(Path deletedPages, Configuration conf) throws IOException {
+        if (deletedPages == null) {
+            return new long[0];
+        }
+
+        List<Long> pageIds = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                deletedPages.getFileSystem(conf).open(deletedPages), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    pageIds.add(Long.parseLong(line));
+                }
+            }
+        }
+
+        long[] result = toArray(pageIds);
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static void writePageIds(FileSystem fs, Path path, long[] changed, long[] deleted) throws IOException {
+        try (FSDataOutputStream out = fs.create(path, true)) {
+            for (long[] pageIds : new long[][]{changed, deleted}) {
+                out.writeInt(pageIds.length);
+                for (long pageId : pageIds) {
+                    out.writeLong(pageId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the changed and the deleted page ids written by the driver.
+     */
+    private static long[][] readPageIds(Configuration conf) throws IOException {
+        Path path = new Path(conf.get(PAGES_PATH));
+        try (FSDataInputStream in = path.getFileSystem(conf).open(path)) {
+            long[][] pageIds = new long[2][];
+            for (int i = 0; i < pageIds.length; i++) {
+                pageIds[i] = new long[in.readInt()];
+                for (int j = 0; j < pageIds[i].length; j++) {
+                    pageIds[i][j] = in.readLong();
+                }
+            }
+            return pageIds;
+        }
+    }
+
+    private static Options getOptions() {
+        Options options = new Options();
+
+        options.addOption("h", "help", false, "Show this message.");
+
+        Option store = new Option("s", "store", true, "MapFile written by RepackToMapFile.");
+        store.setRequired(true);
+        options.addOption(store);
+
+        Option outputPath = new Option("o", "outputPath", true, "Path where the merged MapFile is stored.");
+        outputPath.setRequired(true);
+        options.addOption(outputPath);
+
+        Option input = new Option("i", "input", true, "Adds-changes dump to merge.");
+        input.setArgs(Option.UNLIMITED_VALUES);
+        options.addOption(input);
+        options.addOption("b", "basePath", true, "Loads the english adds-changes dumps published after the day " +
+                "given with -t into this path.");
+        options.addOption("t", "since", true, "Day of the last merged dump as yyyyMMdd.");
+        options.addOption("x", "deletedPages", true, "Text file with the ids of deleted pages, one per line.");
+        options.addOption("k", "keepHistory", false, "Keep the revisions of changed pages.");
+        options.addOption("r", "skipRedirect", false, "Drop pages that became redirects.");
+
+        return options;
+    }
+
+    private static void printHelp(Options options) {
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.printHelp("hadoop jar <jar>", options);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ToolRunner.run(new MergeIncrementalDumps(), args);
+    }
+
+    /**
+     * Passes the revisions of the MapFile that are not replaced.
+     */
+    public static class StoreMapper
+            extends Mapper<LongWritable, WikiRevisionWritable, LongWritable, WikiRevisionWritable> {
+
+        private long[] changedPages;
+        private long[] deletedPages;
+        private boolean keepHistory;
+        private Counter droppedCounter;
+
+        @Override
+        protected void map(LongWritable key, WikiRevisionWritable value, Context context) throws IOException,
+                InterruptedException {
+            long pageId = value.getPage().getId();
+            if (Arrays.binarySearch(deletedPages, pageId) >= 0 ||
+                    !keepHistory && Arrays.binarySearch(changedPages, pageId) >= 0) {
+                droppedCounter.increment(1);
+                return;
+            }
+            context.write(key, value);
+        }
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            long[][] pageIds = readPageIds(context.getConfiguration());
+            changedPages = pageIds[0];
+            deletedPages = pageIds[1];
+            keepHistory = context.getConfiguration().getBoolean(KEEP_HISTORY, false);
+            droppedCounter = context.getCounter("Merge", "droppedRevisions");
+        }
+    }
+
+    /**
+     * Emits the latest revision of every page of the dumps, or all of them with keepHistory.
+     */
+    public static class UpdateMapper
+            extends Mapper<LongWritable, WikiPageRevisions, LongWritable, WikiRevisionWritable> {
+
+        private final LongWritable revisionId = new LongWritable();
+        private long[] deletedPages;
+        private boolean keepHistory;
+        private boolean reuseObjects;
+        private Counter addedCounter;
+
+        @Override
+        protected void map(LongWritable key, WikiPageRevisions value, Context context) throws IOException,
+                InterruptedException {
+            if (Arrays.binarySearch(deletedPages, key.get()) >= 0) {
+                return;
+            }
+
+            WikiRevisionWritable latest = null;
+            for (WikiRevisionWritable revision : value) {
+                if (keepHistory) {
+                    write(revision, context);
+                } else if (latest == null || revision.getTimestamp() >= latest.getTimestamp()) {
+                    // a reused revision is refilled by the iterator, even by the next page when it ends
+                    latest = reuseObjects ? WritableUtils.clone(revision, context.getConfiguration()) : revision;
+                }
+            }
+            if (latest != null) {
+                write(latest, context);
+            }
+        }
+
+        private void write(WikiRevisionWritable revision, Context context) throws IOException,
+                InterruptedException {
+            revisionId.set(revision.getId());
+            context.write(revisionId, revision);
+            addedCounter.increment(1);
+        }
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            deletedPages = readPageIds(context.getConfiguration())[1];
+            keepHistory = context.getConfiguration().getBoolean(KEEP_HISTORY, false);
+            reuseObjects = context.getConfiguration().getBoolean(WikiInputFormat.REUSE_OBJECTS, false);
+            addedCounter = context.getCounter("Merge", "addedRevisions");
+        }
+    }
+
+    /**
+     * Writes one revision per revision id, a revision may be part of the MapFile and a dump.
+     */
+    public static class MergeReducer
+            extends Reducer<LongWritable, WikiRevisionWritable, LongWritable, WikiRevisionWritable> {
+
+        @Override
+        protected void reduce(LongWritable key, Iterable<WikiRevisionWritable> values, Context context)
+                throws IOException, InterruptedException {
+            context.write(key, values.iterator().next());
+        }
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Reads a MapFile that was written by one or several reducers.
+ * <p>
+ * A single reducer writes the MapFile directly into the output path. Several reducers of a total order
+ * partitioned job write one MapFile per partition into part-r-xxxxx directories, the partition boundaries are
+ * stored in the {@link #PARTITION_FILE} of the output path. Lookups are routed to the partition whose key range
+ * contains the key, like {@link org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner} does.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class PartitionedMapFile implements Closeable {
+    /**
+     * Name of the sequence file with the n - 1 sorted lower boundaries of the partitions 1 to n - 1.
+     */
+    public static final String PARTITION_FILE = "_partitions";
+
+    private static final String PARTITION_PREFIX = "part-";
+
+    private final MapFile.Reader[] readers;
+    private final WritableComparable<?>[] boundaries;
+    private final WritableComparator comparator;
+    private final Path[] mapFiles;
+    private final Configuration conf;
+    private MapFileScanner[] scanners;
+
+    /**
+     * @param path output path of the job that wrote the MapFile
+     * @param conf hadoop configuration
+     */
+    public PartitionedMapFile(Path path, Configuration conf) throws IOException {
+        this.conf = conf;
+        this.mapFiles = getMapFiles(path, conf);
+        readers = new MapFile.Reader[mapFiles.length];
+        try {
+            for (int i = 0; i < mapFiles.length; i++) {
+                readers[i] = new MapFile.Reader(mapFiles[i], conf);
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        comparator = WritableComparator.get(readers[0].getKeyClass().asSubclass(WritableComparable.class));
+        Path partitionFile = new Path(path, PARTITION_FILE);
+        boundaries = readers.length > 1 ? readBoundaries(partitionFile, conf) : new WritableComparable<?>[0];
+        if (boundaries.length != readers.length - 1) {
+            close();
+            throw new IOException(String.format("%s has %d boundaries for %d partitions", partitionFile,
+                    boundaries.length, readers.length));
+        }
+    }
+
+    /**
+     * Wraps the reader of an unpartitioned MapFile.
+     */
+    public PartitionedMapFile(MapFile.Reader reader) {
+        this.readers = new MapFile.Reader[]{reader};
+        this.boundaries = new WritableComparable<?>[0];
+        this.mapFiles = null;
+        this.conf = null;
+        this.comparator = WritableComparator.get(reader.getKeyClass().asSubclass(WritableComparable.class));
+    }
+
+    /**
+     * Returns the directories of the MapFiles of the partitions ordered by their key ranges or the path itself
+     * if it holds a single MapFile.
+     */
+    public static Path[] getMapFiles(Path path, Configuration conf) throws IOException {
+        FileSystem fs = path.getFileSystem(conf);
+        if (fs.exists(new Path(path, MapFile.DATA_FILE_NAME))) {
+            return new Path[]{path};
+        }
+
+        List<Path> mapFiles = new ArrayList<>();
+        for (FileStatus status : fs.listStatus(path)) {
+            if (status.isDirectory() && status.getPath().getName().startsWith(PARTITION_PREFIX)) {
+                mapFiles.add(status.getPath());
+            }
+        }
+        if (mapFiles.isEmpty()) {
+            throw new IOException("No MapFile found in " + path);
+        }
+        // the part numbers are zero padded
+        Path[] sorted = mapFiles.toArray(new Path[mapFiles.size()]);
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    static WritableComparable<?>[] readBoundaries(Path partitionFile, Configuration conf) throws IOException {
+        List<WritableComparable<?>> keys = new ArrayList<>();
+        try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(partitionFile))) {
+            Class<?> keyClass = reader.getKeyClass().asSubclass(WritableComparable.class);
+            WritableComparable<?> key = (WritableComparable<?>) ReflectionUtils.newInstance(keyClass, conf);
+            while (reader.next(key, NullWritable.get())) {
+                keys.add(key);
+                key = (WritableComparable<?>) ReflectionUtils.newInstance(keyClass, conf);
+            }
+        }
+        return keys.toArray(new WritableComparable<?>[keys.size()]);
+    }
+
+    /**
+     * Returns the partition whose key range contains the key, keys equal to a boundary belong to the upper
+     * partition.
+     */
+    public int getPartition(WritableComparable<?> key) {
+        return getPartition(boundaries, comparator, key);
+    }
+
+    /**
+     * Returns the partition of the key for the lower boundaries of a {@link #PARTITION_FILE}, shared with
+     * {@link MapFileBloomFilter} so that both route a key to the same MapFile.
+     */
+    static int getPartition(WritableComparable<?>[] boundaries, WritableComparator comparator,
+                            WritableComparable<?> key) {
+        if (boundaries.length == 0) {
+            return 0;
+        }
+        // WritableComparator is a raw Comparator
+        @SuppressWarnings("unchecked")
+        Comparator<Object> keyComparator = comparator;
+        int position = Arrays.binarySearch(boundaries, key, keyComparator);
+        return position < 0 ? -position - 1 : position + 1;
+    }
+
+    public int getNumPartitions() {
+        return readers.length;
+    }
+
+    public MapFile.Reader getReader(int partition) {
+        return readers[partition];
+    }
+
+    /**
+     * Reads the value of a key from the partition containing it.
+     *
+     * @return value or null if the key does not exist
+     */
+    public Writable get(WritableComparable<?> key, Writable value) throws IOException {
+        return readers[getPartition(key)].get(key, value);
+    }
+
+    /**
+     * Reads the values of several keys with one forward pass over each partition, see {@link MapFileScanner}.
+     * Lookups of keys that are close together cost a single seek and block decompression.
+     *
+     * @param keys    keys in any order, duplicates are looked up once
+     * @param visitor receives the keys that exist in ascending order with new value instances
+     */
+    public <K extends WritableComparable<?>, V extends Writable> void getAll(Collection<K> keys,
+                                                                             MapFileScanner.Visitor<K, V> visitor)
+            throws IOException {
+        List<K> sorted = new ArrayList<>(keys);
+        // WritableComparator is a raw Comparator
+        @SuppressWarnings("unchecked")
+        Comparator<? super K> keyComparator = comparator;
+        Collections.sort(sorted, keyComparator);
+
+        int start = 0;
+        while (start < sorted.size()) {
+            int partition = getPartition(sorted.get(start));
+            List<K> partitionKeys = new ArrayList<>();
+            int end = start;
+            while (end < sorted.size() && (partition == readers.length - 1 ||
+                    comparator.compare(sorted.get(end), boundaries[partition]) < 0)) {
+                if (end == start || comparator.compare(sorted.get(end - 1), sorted.get(end)) != 0) {
+                    partitionKeys.add(sorted.get(end));
+                }
+                end++;
+            }
+            getAll(partition, partitionKeys, visitor);
+            start = end;
+        }
+    }
+
+    private <K extends WritableComparable<?>, V extends Writable> void getAll(int partition, List<K> keys,
+                                                                              MapFileScanner.Visitor<K, V> visitor)
+            throws IOException {
+        if (mapFiles == null) {
+            // wrapped reader without path, the sorted keys are still looked up near each other
+            MapFile.Reader reader = readers[partition];
+            for (K key : keys) {
+                @SuppressWarnings("unchecked")
+                V value = (V) ReflectionUtils.newInstance(reader.getValueClass(), null);
+                if (reader.get(key, value) != null) {
+                    visitor.visit(key, value);
+                }
+            }
+            return;
+        }
+
+        if (scanners == null) {
+            scanners = new MapFileScanner[readers.length];
+        }
+        if (scanners[partition] == null) {
+            scanners[partition] = new MapFileScanner(mapFiles[partition], conf);
+        }
+        scanners[partition].getAll(keys, visitor);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException exception = null;
+        for (MapFile.Reader reader : readers) {
+            if (reader == null) {
+                continue;
+            }
+            try {
+                reader.close();
+            } catch (IOException e) {
+                exception = e;
+            }
+        }
+        if (scanners != null) {
+            for (MapFileScanner scanner : scanners) {
+                if (scanner == null) {
+                    continue;
+                }
+                try {
+                    scanner.close();
+                } catch (IOException e) {
+                    exception = e;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+}
@@ -19,7 +19,13 @@
 package de.gesundkrank.wikipedia.hadoop.util;
 
 import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.inputformat.MultistreamWikiInputFormat;
 import de.gesundkrank.wikipedia.hadoop.inputformat.WikiInputFormat;
+import de.gesundkrank.wikipedia.hadoop.inputformat.WikiPageInputFormat;
+import de.gesundkrank.wikipedia.hadoop.inputformat.WikiPageRevisions;
+import de.gesundkrank.wikipedia.hadoop.io.RedirectTable;
+import de.gesundkrank.wikipedia.hadoop.io.RevisionDeltaEncoder;
+import de.gesundkrank.wikipedia.hadoop.io.TitleIndex;
 import de.gesundkrank.wikipedia.hadoop.io.WikiDumpLoader;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -30,11 +36,17 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.InputSampler;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
@@ -45,6 +57,26 @@ import java.io.IOException;
  * @author Jan Graßegger<jan.grassegger@uni-weimar.de>
  */
 public class RepackToMapFile extends Configured implements Tool {
+    /**
+     * Also writes a {@link TitleIndex} of the latest revisions and the {@link RedirectTable} of its redirects
+     * into the output path.
+     */
+    public static final String TITLE_INDEX = "wikipedia.repack.titles";
+    /**
+     * Reads multistream dumps with their index files.
+     */
+    public static final String MULTISTREAM = "wikipedia.repack.multistream";
+    /**
+     * If positive the texts of a page are stored as deltas against the previous revision with a complete text
+     * every that many revisions, they are read with {@link DeltaRevisionReader}.
+     */
+    public static final String SNAPSHOT_INTERVAL = "wikipedia.repack.snapshot.interval";
+    /**
+     * Number of reducers, with more than one the revision ids are sampled and the job writes one MapFile per id
+     * range that are read with {@link PartitionedMapFile}.
+     */
+    public static final String REDUCERS = "wikipedia.repack.reducers";
+
     private static final Logger LOGGER = Logger.getLogger(RepackToMapFile.class);
 
     @Override
@@ -65,6 +97,24 @@ public class RepackToMapFile extends Configured implements Tool {
             String outputPath = commandLine.getOptionValue('o');
             boolean checkNew = commandLine.hasOption('c');
             boolean skipRedirect = commandLine.hasOption('r');
+            if (commandLine.hasOption('m')) {
+                getConf().setBoolean(MULTISTREAM, true);
+            }
+            if (commandLine.hasOption('d')) {
+                getConf().setInt(SNAPSHOT_INTERVAL, Integer.parseInt(commandLine.getOptionValue('d')));
+            }
+            if (commandLine.hasOption('n')) {
+                getConf().setInt(REDUCERS, Integer.parseInt(commandLine.getOptionValue('n')));
+            }
+            if (commandLine.hasOption('z')) {
+                getConf().setBoolean(WikiDumpLoader.BLOCK_FILES, true);
+            }
+            if (commandLine.hasOption('t')) {
+                getConf().setBoolean(TITLE_INDEX, true);
+            }
+            if (commandLine.hasOption('f')) {
+                getConf().setBoolean(MapFileOutputFormat.BLOOM_FILTER, true);
+            }
 
             return run(basePath, outputPath, checkNew, skipRedirect);
 
@@ -75,9 +125,20 @@ public class RepackToMapFile extends Configured implements Tool {
         }
     }
 
+    /**
+     * Repacks the dump into a MapFile of revisions keyed by revision id. Multistream dumps, delta encoding,
+     * the number of reducers, the title index and the Bloom filter are configured with the keys of this class and
+     * {@link MapFileOutputFormat}.
+     */
     public int run(String basePath, String outputPath, boolean checkNew, boolean skipRedirect) throws Exception {
         Configuration configuration = getConf();
-        configuration.setBoolean("skipRedirect", skipRedirect);
+        boolean multistream = configuration.getBoolean(MULTISTREAM, false);
+        int snapshotInterval = configuration.getInt(SNAPSHOT_INTERVAL, 0);
+        int reducers = configuration.getInt(REDUCERS, 1);
+        if (multistream && snapshotInterval > 0) {
+            throw new IllegalArgumentException("Deltas are stored for full history dumps, multistream dumps " +
+                    "only contain the latest revisions");
+        }
 
 
         LOGGER.info("Tool name: " + getClass().getSimpleName());
@@ -85,21 +146,108 @@ public class RepackToMapFile extends Configured implements Tool {
         Job job = Job.getInstance(configuration, getClass().getSimpleName());
         job.setJarByClass(getClass());
 
-        job.setMapperClass(WikiMapper.class);
-        job.setInputFormatClass(WikiInputFormat.class);
+        if (snapshotInterval > 0) {
+            job.setMapperClass(DeltaMapper.class);
+            job.setInputFormatClass(WikiPageInputFormat.class);
+        } else {
+            job.setMapperClass(WikiMapper.class);
+            job.setInputFormatClass(multistream ? MultistreamWikiInputFormat.class : WikiInputFormat.class);
+        }
+        // redirects are skipped by the parser, the mappers count the stored ones
+        WikiInputFormat.setSkipRedirects(job, skipRedirect);
         job.setOutputFormatClass(MapFileOutputFormat.class);
         job.setOutputKeyClass(LongWritable.class);
         job.setOutputValueClass(WikiRevisionWritable.class);
 
 
-        WikiDumpLoader wikiDumpLoader = new WikiDumpLoader(checkNew);
+        WikiDumpLoader wikiDumpLoader = new WikiDumpLoader(checkNew, multistream);
         wikiDumpLoader.addWikiDump(job, basePath);
 
-        MapFileOutputFormat.setOutputPath(job, new Path(outputPath));
+        Path output = new Path(outputPath);
+        MapFileOutputFormat.setOutputPath(job, output);
+
+        job.setNumReduceTasks(reducers);
+        boolean success = reducers == 1 ? job.waitForCompletion(true) : runPartitioned(job, output);
+        if (success && configuration.getBoolean(TITLE_INDEX, false)) {
+            success = buildTitleIndex(FileInputFormat.getInputPaths(job), output, skipRedirect, multistream);
+        }
+        return success ? 0 : 1;
+    }
 
+    private boolean runPartitioned(Job job, Path output) throws Exception {
+        // the output path must not exist before the job, the boundaries are moved into it afterwards
+        FileSystem fs = output.getFileSystem(job.getConfiguration());
+        Path partitionFile = new Path(output.getParent(), "_" + output.getName() + PartitionedMapFile.PARTITION_FILE);
+        try {
+            Configuration jobConf = job.getConfiguration();
+            TotalOrderPartitioner.setPartitionFile(jobConf, partitionFile);
+            job.setPartitionerClass(TotalOrderPartitioner.class);
+            RevisionIdSampler sampler = new RevisionIdSampler(jobConf.getInt(RevisionIdSampler.SAMPLES, 10000),
+                    jobConf.getInt(RevisionIdSampler.SAMPLED_SPLITS, 10));
+            InputSampler.writePartitionFile(job, sampler);
+
+            if (!job.waitForCompletion(true)) {
+                return false;
+            }
+            if (!fs.rename(partitionFile, new Path(output, PartitionedMapFile.PARTITION_FILE))) {
+                throw new IOException("Could not move " + partitionFile + " into " + output);
+            }
+            return true;
+        } finally {
+            fs.delete(partitionFile, false);
+        }
+    }
+
+    /**
+     * Writes the {@link TitleIndex} of the latest revision of every page and the {@link RedirectTable} of the
+     * redirect pages into the output path. The dump is read a second time without texts, comments and
+     * contributors, its titles are sorted by a single reducer.
+     */
+    private boolean buildTitleIndex(Path[] dumps, Path output, boolean skipRedirect, boolean multistream)
+            throws Exception {
+        Job job = Job.getInstance(getConf(), getClass().getSimpleName() + " titles");
+        job.setJarByClass(getClass());
+
+        job.setInputFormatClass(multistream ? MultistreamWikiInputFormat.class : WikiInputFormat.class);
+        FileInputFormat.setInputPaths(job, dumps);
+        WikiInputFormat.setSkipRedirects(job, skipRedirect);
+        WikiInputFormat.setFields(job);
+        return writeTitleIndex(job, output);
+    }
+
+    /**
+     * Runs the title job on input that yields revisions keyed by id and moves the {@link TitleIndex} and the
+     * {@link RedirectTable} into the output path.
+     */
+    static boolean writeTitleIndex(Job job, Path output) throws Exception {
+        job.setMapperClass(TitleMapper.class);
+        job.setCombinerClass(LatestRevisionReducer.class);
+        job.setReducerClass(LatestRevisionReducer.class);
+        job.setOutputFormatClass(TitleIndexOutputFormat.class);
+        job.setOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(TitleRevisionWritable.class);
+        job.setOutputValueClass(TitleRevisionWritable.class);
         job.setNumReduceTasks(1);
 
-        return job.waitForCompletion(true) ? 0 : 1;
+        FileSystem fs = output.getFileSystem(job.getConfiguration());
+        Path titleOutput = new Path(output.getParent(), "_" + output.getName() + TitleIndex.FILE_NAME);
+        TitleIndexOutputFormat.setOutputPath(job, titleOutput);
+        try {
+            if (!job.waitForCompletion(true)) {
+                return false;
+            }
+            Path index = new Path(titleOutput, "part-r-00000");
+            if (!fs.rename(index, new Path(output, TitleIndex.FILE_NAME))) {
+                throw new IOException("Could not move " + index + " into " + output);
+            }
+            Path redirects = index.suffix(TitleIndexOutputFormat.REDIRECTS_EXTENSION);
+            if (fs.exists(redirects) && !fs.rename(redirects, new Path(output, RedirectTable.FILE_NAME))) {
+                throw new IOException("Could not move " + redirects + " into " + output);
+            }
+            return true;
+        } finally {
+            fs.delete(titleOutput, true);
+        }
     }
 
     private static Options getOptions() {
@@ -120,6 +268,19 @@ public class RepackToMapFile extends Configured implements Tool {
 
         options.addOption("c", "checkNew", false, "Checks for new Wikipedia online.");
         options.addOption("r", "skipRedirect", false, "Skip redirect pages when indexing");
+        options.addOption("m", "multistream", false, "Use the multistream dump and its index instead of " +
+                "unpacking the dump.");
+        options.addOption("d", "deltaInterval", true, "Store texts as deltas against the previous revision " +
+                "of the page, with a complete text every <arg> revisions. Meant for full history dumps, it can't " +
+                "be combined with -m.");
+        options.addOption("n", "reducers", true, "Number of reducers, each writes a MapFile of a sampled range " +
+                "of revision ids. Default: 1");
+        options.addOption("f", "bloomFilter", false, "Also write a Bloom filter of the revision ids, which " +
+                "answers lookups of missing revisions without reading the MapFile.");
+        options.addOption("t", "titleIndex", false, "Also write an index of the page titles to the ids of " +
+                "their latest revisions.");
+        options.addOption("z", "blockFiles", false, "Store downloaded dumps in compressed blocks instead of " +
+                "raw xml.");
 
         return options;
     }
@@ -137,17 +298,12 @@ public class RepackToMapFile extends Configured implements Tool {
             extends Mapper<LongWritable, WikiRevisionWritable, LongWritable, WikiRevisionWritable> {
 
         private static Counter redirectPagesCounter;
-        private static boolean skipRedirect;
 
         @Override
         protected void map(LongWritable key, WikiRevisionWritable value, Context context) throws IOException,
                 InterruptedException {
             if (value.getPage().isRedirect()) {
                 redirectPagesCounter.increment(1);
-
-                if (skipRedirect) {
-                    return;
-                }
             }
 
             context.write(key, value);
@@ -156,7 +312,76 @@ public class RepackToMapFile extends Configured implements Tool {
         @Override
         protected void setup(Context context) throws IOException, InterruptedException {
             redirectPagesCounter = context.getCounter("Mapper", "redirectPages");
-            skipRedirect = context.getConfiguration().getBoolean("skipRedirect", false);
+        }
+    }
+
+    /**
+     * Stores the texts of the revisions of a page as deltas.
+     */
+    public static class DeltaMapper
+            extends Mapper<LongWritable, WikiPageRevisions, LongWritable, WikiRevisionWritable> {
+
+        private final LongWritable revisionId = new LongWritable();
+        private Counter redirectPagesCounter;
+        private RevisionDeltaEncoder encoder;
+
+        @Override
+        protected void map(LongWritable key, WikiPageRevisions value, Context context) throws IOException,
+                InterruptedException {
+            if (value.getPage().isRedirect()) {
+                redirectPagesCounter.increment(1);
+            }
+
+            encoder.reset();
+            for (WikiRevisionWritable revision : value) {
+                encoder.encode(revision);
+                revisionId.set(revision.getId());
+                context.write(revisionId, revision);
+            }
+        }
+
+        @Override
+        protected void setup(Context context) throws IOException, InterruptedException {
+            redirectPagesCounter = context.getCounter("Mapper", "redirectPages");
+            encoder = new RevisionDeltaEncoder(context.getConfiguration().getInt(SNAPSHOT_INTERVAL, 1));
+        }
+    }
+
+    /**
+     * Emits the ids and redirect targets of the revisions by the normalized titles of their pages.
+     */
+    public static class TitleMapper extends Mapper<LongWritable, WikiRevisionWritable, Text, TitleRevisionWritable> {
+        private final Text title = new Text();
+        private final TitleRevisionWritable revision = new TitleRevisionWritable();
+
+        @Override
+        protected void map(LongWritable key, WikiRevisionWritable value, Context context) throws IOException,
+                InterruptedException {
+            title.set(value.getPage().getNormalizedTitle());
+            revision.set(value);
+            context.write(title, revision);
+        }
+    }
+
+    /**
+     * Keeps the latest revision of a title, revisions with the same timestamp are ordered by id.
+     */
+    public static class LatestRevisionReducer
+            extends Reducer<Text, TitleRevisionWritable, Text, TitleRevisionWritable> {
+        private final TitleRevisionWritable latest = new TitleRevisionWritable();
+
+        @Override
+        protected void reduce(Text key, Iterable<TitleRevisionWritable> values, Context context) throws IOException,
+                InterruptedException {
+            boolean first = true;
+            for (TitleRevisionWritable value : values) {
+                // the values are reused by the iterator
+                if (first || value.isNewerThan(latest)) {
+                    latest.set(value);
+                    first = false;
+                }
+            }
+            context.write(key, latest);
         }
     }
 }
@@ -0,0 +1,124 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.inputformat.WikiPageRevisions;
+import de.gesundkrank.wikipedia.hadoop.parser.RevisionField;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.partition.InputSampler;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Samples the revision ids of a dump, which are the keys the repacked MapFile is sorted by.
+ * <p>
+ * The input formats of the dumps are keyed by revision or page id, so the ids are taken from the values: the
+ * revision itself or all revisions of a page. Up to maxSplits evenly spaced splits are read, each contributes
+ * at most numSamples / maxSplits ids that are reservoir sampled from its records. Only the metadata of the
+ * revisions is parsed.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class RevisionIdSampler implements InputSampler.Sampler<LongWritable, Object> {
+    /**
+     * Number of sampled revision ids.
+     */
+    public static final String SAMPLES = "wikipedia.repack.samples";
+    /**
+     * Maximal number of splits the samples are read from.
+     */
+    public static final String SAMPLED_SPLITS = "wikipedia.repack.sampled.splits";
+
+    private final int numSamples;
+    private final int maxSplits;
+    private final Random random = new Random(0);
+
+    public RevisionIdSampler(int numSamples, int maxSplits) {
+        this.numSamples = numSamples;
+        this.maxSplits = maxSplits;
+    }
+
+    @Override
+    public LongWritable[] getSample(InputFormat<LongWritable, Object> inputFormat, Job job)
+            throws IOException, InterruptedException {
+        List<InputSplit> splits = inputFormat.getSplits(job);
+        int sampledSplits = Math.min(maxSplits, splits.size());
+        int samplesPerSplit = Math.max(1, numSamples / Math.max(1, sampledSplits));
+        float step = splits.size() / (float) Math.max(1, sampledSplits);
+        // only the ids are sampled, so the texts aren't parsed
+        Configuration conf = new Configuration(job.getConfiguration());
+        conf.set(RevisionField.FIELDS, "");
+
+        long[] samples = new long[sampledSplits * samplesPerSplit];
+        int sampleCount = 0;
+        for (int i = 0; i < sampledSplits; i++) {
+            InputSplit split = splits.get((int) (i * step));
+            TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+            long[] reservoir = new long[samplesPerSplit];
+            long seen = 0;
+
+            try (RecordReader<LongWritable, Object> reader = inputFormat.createRecordReader(split, context)) {
+                reader.initialize(split, context);
+                while (reader.nextKeyValue()) {
+                    Object value = reader.getCurrentValue();
+                    if (value instanceof WikiPageRevisions) {
+                        for (WikiRevisionWritable revision : (WikiPageRevisions) value) {
+                            seen = sample(reservoir, seen, revision.getId());
+                        }
+                    } else {
+                        seen = sample(reservoir, seen, reader.getCurrentKey().get());
+                    }
+                }
+            }
+
+            int count = (int) Math.min(seen, samplesPerSplit);
+            System.arraycopy(reservoir, 0, samples, sampleCount, count);
+            sampleCount += count;
+        }
+
+        LongWritable[] result = new LongWritable[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            result[i] = new LongWritable(samples[i]);
+        }
+        return result;
+    }
+
+    private long sample(long[] reservoir, long seen, long id) {
+        if (seen < reservoir.length) {
+            reservoir[(int) seen] = id;
+        } else {
+            long position = (long) (random.nextDouble() * (seen + 1));
+            if (position < reservoir.length) {
+                reservoir[(int) position] = id;
+            }
+        }
+        return seen + 1;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.io.RedirectTable;
+import de.gesundkrank.wikipedia.hadoop.io.TitleIndex;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+
+/**
+ * Writes the normalized titles and the latest revisions of their pages into a {@link TitleIndex}. The titles
+ * have to arrive sorted, which a single reducer guarantees. If there are redirects, their collapsed chains are
+ * written into a {@link RedirectTable} next to the index, with the extension {@link #REDIRECTS_EXTENSION}.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class TitleIndexOutputFormat extends FileOutputFormat<Text, TitleRevisionWritable> {
+    public static final String REDIRECTS_EXTENSION = ".redirects";
+
+    @Override
+    public RecordWriter<Text, TitleRevisionWritable> getRecordWriter(TaskAttemptContext context)
+            throws IOException, InterruptedException {
+        final Configuration conf = context.getConfiguration();
+        final Path path = getDefaultWorkFile(context, "");
+        final Path redirectPath = getDefaultWorkFile(context, REDIRECTS_EXTENSION);
+        final FileSystem fs = path.getFileSystem(conf);
+        final TitleIndex.Writer out = new TitleIndex.Writer(fs.create(path, false));
+        final RedirectTable.Builder redirects = new RedirectTable.Builder();
+
+        return new RecordWriter<Text, TitleRevisionWritable>() {
+            private int ordinal;
+
+            @Override
+            public void write(Text title, TitleRevisionWritable revision) throws IOException, InterruptedException {
+                out.append(title, revision.getPageId(), revision.getRevisionId());
+                if (revision.getRedirectTarget() != null) {
+                    redirects.add(ordinal, revision.getRedirectTarget());
+                }
+                ordinal++;
+            }
+
+            @Override
+            public void close(TaskAttemptContext context) throws IOException, InterruptedException {
+                out.close();
+                if (redirects.size() == 0) {
+                    return;
+                }
+
+                // the targets are resolved by their position in the complete index
+                RedirectTable table = redirects.build(TitleIndex.read(path, conf));
+                table.write(fs.create(redirectPath, false));
+                context.getCounter("TitleIndex", "redirects").increment(table.size());
+                context.getCounter("TitleIndex", "brokenRedirects").increment(table.getBroken());
+            }
+        };
+    }
+}
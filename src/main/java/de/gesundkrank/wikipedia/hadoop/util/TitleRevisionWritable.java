@@ -0,0 +1,103 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The parts of a revision the {@link TitleIndexOutputFormat} needs: ids, timestamp and the normalized title
+ * of the redirect target, which {@link WikiRevisionWritable} does not serialize.
+ *
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class TitleRevisionWritable implements Writable {
+    private long pageId;
+    private long revisionId;
+    private long timestamp;
+    private String redirectTarget;
+
+    public void set(WikiRevisionWritable revision) {
+        WikiPageWritable page = revision.getPage();
+        pageId = page.getId();
+        revisionId = revision.getId();
+        timestamp = revision.getTimestamp();
+        redirectTarget = page.isRedirect() && page.getRedirectTarget() != null ?
+                WikiPageWritable.normalizeTitle(page.getRedirectTarget()) : null;
+    }
+
+    public void set(TitleRevisionWritable other) {
+        pageId = other.pageId;
+        revisionId = other.revisionId;
+        timestamp = other.timestamp;
+        redirectTarget = other.redirectTarget;
+    }
+
+    public long getPageId() {
+        return pageId;
+    }
+
+    public long getRevisionId() {
+        return revisionId;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Returns the normalized title the page redirects to or null if it is no redirect.
+     */
+    public String getRedirectTarget() {
+        return redirectTarget;
+    }
+
+    /**
+     * Returns true if this revision is newer than the other, revisions with the same timestamp are ordered by id.
+     */
+    public boolean isNewerThan(TitleRevisionWritable other) {
+        return timestamp > other.timestamp || timestamp == other.timestamp && revisionId > other.revisionId;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, pageId);
+        WritableUtils.writeVLong(out, revisionId);
+        out.writeLong(timestamp);
+        out.writeBoolean(redirectTarget != null);
+        if (redirectTarget != null) {
+            Text.writeString(out, redirectTarget);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        pageId = WritableUtils.readVLong(in);
+        revisionId = WritableUtils.readVLong(in);
+        timestamp = in.readLong();
+        redirectTarget = in.readBoolean() ? Text.readString(in) : null;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class RawComparatorTest {
+    private static final long[] IDS = {-1, 0, 1, 127, 128, 645849603, Long.MAX_VALUE};
+
+    @Test
+    public void comparesRevisions() throws IOException {
+        WikiRevisionWritable[] revisions = new WikiRevisionWritable[IDS.length];
+        for (int i = 0; i < IDS.length; i++) {
+            revisions[i] = WikiRevisionWritableTest.createRevision(IDS[i], "text " + i);
+        }
+        assertComparesLikeCompareTo(WikiRevisionWritable.class, revisions);
+    }
+
+    @Test
+    public void comparesPages() throws IOException {
+        WikiPageWritable[] pages = new WikiPageWritable[IDS.length];
+        for (int i = 0; i < IDS.length; i++) {
+            pages[i] = new WikiPageWritable("Page " + (IDS.length - i), IDS[i], false);
+        }
+        assertComparesLikeCompareTo(WikiPageWritable.class, pages);
+    }
+
+    @Test
+    public void comparesContributors() throws IOException {
+        WikiRevisionContributor[] contributors = new WikiRevisionContributor[IDS.length];
+        for (int i = 0; i < IDS.length; i++) {
+            contributors[i] = new WikiRevisionContributor("User " + (IDS.length - i), IDS[i]);
+        }
+        assertComparesLikeCompareTo(WikiRevisionContributor.class, contributors);
+    }
+
+    private static <T extends WritableComparable<T>> void assertComparesLikeCompareTo(Class<T> type, T[] values)
+            throws IOException {
+        WritableComparator comparator = WritableComparator.get(type);
+        assertTrue(comparator.getClass().getName(), comparator.getClass().getEnclosingClass() == type);
+
+        for (T a : values) {
+            DataOutputBuffer aBytes = serialize(a);
+            for (T b : values) {
+                DataOutputBuffer bBytes = serialize(b);
+                int raw = comparator.compare(aBytes.getData(), 0, aBytes.getLength(), bBytes.getData(), 0,
+                        bBytes.getLength());
+                assertEquals(Integer.signum(a.compareTo(b)), Integer.signum(raw));
+            }
+        }
+    }
+
+    private static DataOutputBuffer serialize(WritableComparable<?> value) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        value.write(out);
+        return out;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class WikiRevisionWritableTest {
+
+    static WikiRevisionWritable createRevision(long id, String text) {
+        WikiRevisionWritable revision = new WikiRevisionWritable(new WikiPageWritable("Anarchism", 12, false));
+        revision.setId(id);
+        revision.setTimestamp(1423196332000L);
+        revision.setContributor(new WikiRevisionContributor("ChrisGualtieri", 16333418));
+        revision.setComment("General fixes");
+        revision.setMinor(true);
+        revision.setText(text);
+        return revision;
+    }
+
+    static byte[] serialize(WikiRevisionWritable revision) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        revision.write(out);
+        byte[] bytes = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+
+    static void deserialize(byte[] bytes, WikiRevisionWritable revision) throws IOException {
+        DataInputBuffer in = new DataInputBuffer();
+        in.reset(bytes, bytes.length);
+        revision.readFields(in);
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        WikiRevisionWritable revision = createRevision(645849603, "Anarchism is a ... äöü");
+        WikiRevisionWritable copy = new WikiRevisionWritable();
+        deserialize(serialize(revision), copy);
+
+        assertEquals(revision.toString(), copy.toString());
+        assertEquals(revision.getText(), copy.getText());
+    }
+
+    @Test
+    public void roundTripNamespace() throws IOException {
+        WikiRevisionWritable revision = createRevision(1, "text");
+        revision.getPage().setNamespace(14);
+        WikiRevisionWritable copy = new WikiRevisionWritable();
+        deserialize(serialize(revision), copy);
+
+        assertEquals(14, copy.getPage().getNamespace());
+    }
+
+    @Test
+    public void roundTripWithoutOptionalFields() throws IOException {
+        WikiRevisionWritable revision = new WikiRevisionWritable(new WikiPageWritable("A", 1, true));
+        WikiRevisionWritable copy = new WikiRevisionWritable();
+        deserialize(serialize(revision), copy);
+
+        assertNull(copy.getContributor());
+        assertFalse(copy.hasText());
+        assertEquals("", copy.getComment());
+        assertEquals(revision.getPage().toString(), copy.getPage().toString());
+    }
+
+    @Test
+    public void readFieldsReusesObjects() throws IOException {
+        WikiRevisionWritable copy = new WikiRevisionWritable();
+        deserialize(serialize(createRevision(1, "first")), copy);
+        WikiPageWritable page = copy.getPage();
+        WikiRevisionContributor contributor = copy.getContributor();
+        page.setRedirectTarget("Stale target");
+
+        deserialize(serialize(createRevision(2, "second")), copy);
+        assertSame(page, copy.getPage());
+        assertSame(contributor, copy.getContributor());
+        assertEquals(2, copy.getId());
+        assertEquals("second", copy.getText());
+        assertNull(copy.getPage().getRedirectTarget());
+    }
+
+    @Test
+    public void roundTripTimestamps() throws IOException {
+        WikiRevisionWritable copy = new WikiRevisionWritable();
+        for (long timestamp : new long[]{0, -1, 1423196332000L, 1423196332123L, 979516800000L, 42}) {
+            WikiRevisionWritable revision = createRevision(1, "");
+            revision.setTimestamp(timestamp);
+            deserialize(serialize(revision), copy);
+            assertEquals(timestamp, copy.getTimestamp());
+        }
+    }
+
+    @Test
+    public void readsLegacyFormat() throws IOException {
+        WikiRevisionWritable revision = createRevision(645849603, "Anarchism is a ... äöü");
+        WikiRevisionWritable copy = new WikiRevisionWritable();
+        deserialize(serializeLegacy(revision), copy);
+
+        assertEquals(revision.toString(), copy.toString());
+    }
+
+    @Test
+    public void compactFormatIsSmaller() throws IOException {
+        WikiRevisionWritable revision = createRevision(645849603, "text");
+        assertEquals(WikiRevisionWritable.VERSION_2, serialize(revision)[0]);
+        assertTrue(serialize(revision).length * 4 < serializeLegacy(revision).length * 3);
+    }
+
+    /**
+     * Writes the revision in the format used before it was versioned.
+     */
+    private static byte[] serializeLegacy(WikiRevisionWritable revision) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        out.writeLong(revision.getId());
+        out.writeLong(revision.getTimestamp());
+        revision.getPage().write(out);
+        out.writeBoolean(true);
+        revision.getContributor().write(out);
+        out.writeUTF(revision.getComment());
+        out.writeBoolean(revision.isMinor());
+        byte[] text = revision.getText().getBytes(StandardCharsets.UTF_8);
+        out.writeBoolean(true);
+        out.writeInt(text.length);
+        out.write(text);
+
+        byte[] bytes = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.inputformat;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class MultistreamWikiInputFormatTest {
+    private static final int STREAMS = 30;
+    private static final int PAGES_PER_STREAM = 10;
+
+    private File dump;
+    private Set<Long> streamOffsets;
+    private List<Long> expectedPageIds;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        File directory = Files.createTempDirectory("multistream").toFile();
+        directory.deleteOnExit();
+        dump = new File(directory, "enwiki-latest-pages-articles-multistream.xml.bz2");
+        dump.deleteOnExit();
+        File index = new File(directory, "enwiki-latest-pages-articles-multistream-index.txt.bz2");
+        index.deleteOnExit();
+
+        streamOffsets = new HashSet<>();
+        expectedPageIds = new ArrayList<>();
+        StringBuilder indexContent = new StringBuilder();
+
+        try (FileOutputStream out = new FileOutputStream(dump)) {
+            writeStream(out, "<mediawiki>\n  <siteinfo>\n  </siteinfo>\n");
+
+            long pageId = 0;
+            for (int stream = 0; stream < STREAMS; stream++) {
+                long offset = out.getChannel().position();
+                streamOffsets.add(offset);
+
+                StringBuilder pages = new StringBuilder();
+                for (int page = 0; page < PAGES_PER_STREAM; page++) {
+                    pageId++;
+                    expectedPageIds.add(pageId);
+                    indexContent.append(offset).append(':').append(pageId).append(":Page: ").append(pageId)
+                            .append('\n');
+                    pages.append("  <page>\n    <title>Page: ").append(pageId).append("</title>\n    <id>")
+                            .append(pageId).append("</id>\n    <revision>\n      <id>").append(pageId + 1000)
+                            .append("</id>\n      <text xml:space=\"preserve\">");
+                    for (int i = 0; i < pageId * 10; i++) {
+                        pages.append(Long.toString(i * pageId, 36)).append(' ');
+                    }
+                    pages.append("</text>\n    </revision>\n  </page>\n");
+                }
+                writeStream(out, pages.toString());
+            }
+
+            writeStream(out, "</mediawiki>\n");
+        }
+
+        try (FileOutputStream out = new FileOutputStream(index)) {
+            writeStream(out, indexContent.toString());
+        }
+    }
+
+    private static void writeStream(OutputStream out, String content) throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStream bzOut = new BZip2CompressorOutputStream(stream)) {
+            bzOut.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        stream.writeTo(out);
+    }
+
+    @Test
+    public void splitsAtStreamBoundaries() throws Exception {
+        List<InputSplit> splits = getSplits(4096);
+        assertTrue(splits.size() > 1);
+
+        long expectedStart = 0;
+        for (InputSplit split : splits) {
+            FileSplit fileSplit = (FileSplit) split;
+            assertEquals(expectedStart, fileSplit.getStart());
+            assertTrue(fileSplit.getStart() == 0 || streamOffsets.contains(fileSplit.getStart()));
+            expectedStart = fileSplit.getStart() + fileSplit.getLength();
+        }
+        assertEquals(dump.length(), expectedStart);
+    }
+
+    @Test
+    public void readsAllPages() throws Exception {
+        assertEquals(expectedPageIds, readPageIds(getSplits(4096)));
+        assertEquals(expectedPageIds, readPageIds(getSplits(Long.MAX_VALUE)));
+    }
+
+    private List<InputSplit> getSplits(long splitSize) throws IOException {
+        Job job = Job.getInstance(new Configuration());
+        FileInputFormat.addInputPath(job, new Path(dump.toURI()));
+        FileInputFormat.setMaxInputSplitSize(job, splitSize);
+        return new MultistreamWikiInputFormat().getSplits(job);
+    }
+
+    private static List<Long> readPageIds(List<InputSplit> splits) throws Exception {
+        List<Long> pageIds = new ArrayList<>();
+        MultistreamWikiInputFormat inputFormat = new MultistreamWikiInputFormat();
+        TaskAttemptContext context = new TaskAttemptContextImpl(new Configuration(), new TaskAttemptID());
+
+        for (InputSplit split : splits) {
+            try (RecordReader<?, WikiRevisionWritable> reader = inputFormat.createRecordReader(split, context)) {
+                reader.initialize(split, context);
+                while (reader.nextKeyValue()) {
+                    pageIds.add(reader.getCurrentValue().getPage().getId());
+                }
+            }
+        }
+        return pageIds;
+    }
+}
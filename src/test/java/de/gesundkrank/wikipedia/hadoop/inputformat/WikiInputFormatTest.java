@@ -0,0 +1,300 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.inputformat;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.io.WikiBlockFile;
+import de.gesundkrank.wikipedia.hadoop.parser.ByteParser;
+import de.gesundkrank.wikipedia.hadoop.parser.Parser;
+import de.gesundkrank.wikipedia.hadoop.parser.RevisionField;
+import de.gesundkrank.wikipedia.hadoop.parser.StaxParser;
+import de.gesundkrank.wikipedia.hadoop.parser.WikiParser;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.compress.DefaultCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class WikiInputFormatTest {
+    private static final int PAGES = 400;
+    // 2015-01-01T00:00:00Z
+    private static final long TIMESTAMP = 1420070400000L;
+
+    private File directory;
+    private List<Long> expectedRevisionIds;
+    private List<Long> expectedFilteredIds;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("wikiinputformat").toFile();
+        directory.deleteOnExit();
+
+        expectedRevisionIds = new ArrayList<>();
+        expectedFilteredIds = new ArrayList<>();
+        String dump = createDump(expectedRevisionIds, expectedFilteredIds);
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file("dump.xml")),
+                StandardCharsets.UTF_8)) {
+            writer.write(dump);
+        }
+
+        // smallest block size, so the dump consists of several compression blocks
+        try (OutputStream out = new BZip2CompressorOutputStream(new FileOutputStream(file("dump.xml.bz2")), 1)) {
+            out.write(dump.getBytes(StandardCharsets.UTF_8));
+        }
+
+        DefaultCodec codec = new DefaultCodec();
+        codec.setConf(new Configuration());
+        try (WikiBlockFile.Writer writer = new WikiBlockFile.Writer(new FileOutputStream(file("dump.xml.blocks")),
+                codec, 20000)) {
+            writer.write(new ByteArrayInputStream(dump.getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    @DataProvider
+    public Object[][] splitSizes() {
+        return new Object[][]{{Long.MAX_VALUE}, {64 * 1024}, {7777}, {1000}, {97}};
+    }
+
+    @DataProvider
+    public Object[][] parsers() {
+        return new Object[][]{{ByteParser.class}, {StaxParser.class}, {Parser.class}};
+    }
+
+    @Test(dataProvider = "splitSizes")
+    public void readsSplitDump(long splitSize) throws Exception {
+        List<InputSplit> splits = getSplits("dump.xml", splitSize);
+        assertEquals(expectedRevisionIds, readSplits(splits, ByteParser.class));
+    }
+
+    @Test(dataProvider = "parsers")
+    public void readsSplitDumpWithParser(Class<? extends WikiParser> parserClass) throws Exception {
+        List<InputSplit> splits = getSplits("dump.xml", 7777);
+        assertEquals(expectedRevisionIds, readSplits(splits, parserClass));
+    }
+
+    @Test(dataProvider = "parsers")
+    public void skipsFieldsNotRequested(Class<? extends WikiParser> parserClass) throws Exception {
+        Job job = Job.getInstance(new Configuration());
+        WikiInputFormat.setParserClass(job, parserClass);
+        WikiInputFormat.setFields(job, RevisionField.COMMENT);
+        TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+
+        List<Long> revisionIds = new ArrayList<>();
+        for (InputSplit split : getSplits("dump.xml", 7777)) {
+            try (RecordReader<?, WikiRevisionWritable> reader = new WikiInputFormat().createRecordReader(split,
+                    context)) {
+                reader.initialize(split, context);
+                while (reader.nextKeyValue()) {
+                    WikiRevisionWritable revision = reader.getCurrentValue();
+                    assertFalse(revision.hasText());
+                    assertNull(revision.getContributor());
+                    assertEquals("comment " + revision.getId(), revision.getComment());
+                    assertTrue(revision.getTimestamp() > 0);
+                    revisionIds.add(revision.getId());
+                }
+            }
+        }
+        assertEquals(expectedRevisionIds, revisionIds);
+    }
+
+    @Test(dataProvider = "parsers")
+    public void skipsFilteredPagesAndRevisions(Class<? extends WikiParser> parserClass) throws Exception {
+        Job job = Job.getInstance(new Configuration());
+        WikiInputFormat.setParserClass(job, parserClass);
+        WikiInputFormat.setNamespaces(job, 0);
+        WikiInputFormat.setSkipRedirects(job, true);
+        WikiInputFormat.setTimestampRange(job, TIMESTAMP, Long.MAX_VALUE);
+        TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+
+        List<Long> revisionIds = new ArrayList<>();
+        for (InputSplit split : getSplits("dump.xml", 7777)) {
+            try (RecordReader<?, WikiRevisionWritable> reader = new WikiInputFormat().createRecordReader(split,
+                    context)) {
+                reader.initialize(split, context);
+                while (reader.nextKeyValue()) {
+                    WikiRevisionWritable revision = reader.getCurrentValue();
+                    assertEquals(0, revision.getPage().getNamespace());
+                    assertFalse(revision.getPage().isRedirect());
+                    revisionIds.add(revision.getId());
+                }
+            }
+        }
+        assertEquals(expectedFilteredIds, revisionIds);
+    }
+
+    @Test
+    public void readsSplitBzip2Dump() throws Exception {
+        List<InputSplit> splits = getSplits("dump.xml.bz2", 64 * 1024);
+        assertTrue(splits.size() > 1);
+        assertEquals(expectedRevisionIds, readSplits(splits, ByteParser.class));
+    }
+
+    @Test
+    public void readsCompleteBzip2Dump() throws Exception {
+        List<InputSplit> splits = getSplits("dump.xml.bz2", Long.MAX_VALUE);
+        assertEquals(1, splits.size());
+        assertEquals(expectedRevisionIds, readSplits(splits, ByteParser.class));
+    }
+
+    @Test(dataProvider = "splitSizes")
+    public void readsBlockFile(long splitSize) throws Exception {
+        List<InputSplit> splits = getSplits("dump.xml.blocks", splitSize);
+        long[] blockOffsets = WikiBlockFile.readBlockOffsets(new Path(file("dump.xml.blocks").toURI())
+                .getFileSystem(new Configuration()), new Path(file("dump.xml.blocks").toURI()));
+        assertTrue(blockOffsets.length > 10);
+        if (splitSize == Long.MAX_VALUE) {
+            assertEquals(1, splits.size());
+        } else if (splitSize < 5000) {
+            // every block is larger than the split size
+            assertEquals(blockOffsets.length - 1, splits.size());
+        }
+
+        long expectedStart = 0;
+        for (InputSplit split : splits) {
+            FileSplit fileSplit = (FileSplit) split;
+            assertEquals(expectedStart, fileSplit.getStart());
+            assertTrue(fileSplit.getStart() == 0 || Arrays.binarySearch(blockOffsets, fileSplit.getStart()) > 0);
+            expectedStart = fileSplit.getStart() + fileSplit.getLength();
+        }
+        assertEquals(file("dump.xml.blocks").length(), expectedStart);
+
+        assertEquals(expectedRevisionIds, readSplits(splits, ByteParser.class));
+    }
+
+    @Test(dataProvider = "parsers")
+    public void readsBlockFileWithParser(Class<? extends WikiParser> parserClass) throws Exception {
+        assertEquals(expectedRevisionIds, readSplits(getSplits("dump.xml.blocks", 7777), parserClass));
+    }
+
+    @Test
+    public void blockFileIsSmaller() {
+        // the random words of the test dump compress far worse than real articles
+        assertTrue(file("dump.xml.blocks").length() * 4 < file("dump.xml").length() * 3);
+    }
+
+    private File file(String name) {
+        File file = new File(directory, name);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private List<InputSplit> getSplits(String name, long splitSize) throws IOException {
+        Job job = Job.getInstance(new Configuration());
+        FileInputFormat.addInputPath(job, new Path(file(name).toURI()));
+        FileInputFormat.setMaxInputSplitSize(job, splitSize);
+        FileInputFormat.setMinInputSplitSize(job, 1);
+        return new WikiInputFormat().getSplits(job);
+    }
+
+    private static List<Long> readSplits(List<InputSplit> splits, Class<? extends WikiParser> parserClass)
+            throws Exception {
+        List<Long> revisionIds = new ArrayList<>();
+        WikiInputFormat inputFormat = new WikiInputFormat();
+        Job job = Job.getInstance(new Configuration());
+        WikiInputFormat.setParserClass(job, parserClass);
+        TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+
+        for (InputSplit split : splits) {
+            try (RecordReader<?, WikiRevisionWritable> reader = inputFormat.createRecordReader(split, context)) {
+                reader.initialize(split, context);
+                while (reader.nextKeyValue()) {
+                    revisionIds.add(reader.getCurrentValue().getId());
+                }
+            }
+        }
+        return revisionIds;
+    }
+
+    /**
+     * Creates a dump with pages of random size, some of them with several revisions. Every fourth page is a
+     * talk page, every fifth a redirect and the first revision of a page is older than the others.
+     */
+    private static String createDump(List<Long> revisionIds, List<Long> filteredIds) {
+        Random random = new Random(42);
+        StringBuilder dump = new StringBuilder("<mediawiki xml:lang=\"en\">\n  <siteinfo>\n  </siteinfo>\n");
+        long revisionId = 1000;
+
+        for (int page = 1; page <= PAGES; page++) {
+            int namespace = page % 4 == 0 ? 1 : 0;
+            boolean redirect = page % 5 == 0;
+            dump.append("  <page>\n    <title>Page ").append(page).append("</title>\n    <ns>").append(namespace)
+                    .append("</ns>\n    <id>").append(page).append("</id>\n");
+            if (redirect) {
+                dump.append("    <redirect title=\"Page 1\" />\n");
+            }
+
+            int revisions = 1 + random.nextInt(3);
+            for (int revision = 0; revision < revisions; revision++) {
+                revisionId++;
+                revisionIds.add(revisionId);
+                if (namespace == 0 && !redirect && revision > 0) {
+                    filteredIds.add(revisionId);
+                }
+                dump.append("    <revision>\n      <id>").append(revisionId).append("</id>\n")
+                        .append("      <timestamp>").append(revision == 0 ? "2014-02-06T04:18:52Z" :
+                        "2015-02-06T04:18:52Z").append("</timestamp>\n")
+                        .append("      <contributor>\n        <username>User</username>\n        <id>")
+                        .append(revisionId + 5).append("</id>\n      </contributor>\n")
+                        .append("      <comment>comment ").append(revisionId).append("</comment>\n")
+                        .append("      <text xml:space=\"preserve\">");
+                int words = random.nextInt(1000);
+                for (int word = 0; word < words; word++) {
+                    dump.append(Long.toString(random.nextLong(), 36)).append(word % 12 == 0 ? '\n' : ' ');
+                }
+                dump.append("&lt;page&gt;</text>\n    </revision>\n");
+            }
+            dump.append("  </page>\n");
+        }
+
+        return dump.append("</mediawiki>\n").toString();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.inputformat;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class WikiPageInputFormatTest {
+    private static final int PAGES = 200;
+
+    private File dump;
+    private Map<Long, List<Long>> expectedRevisions;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        dump = Files.createTempFile("wikipageinputformat", ".xml").toFile();
+        dump.deleteOnExit();
+
+        Random random = new Random(7);
+        expectedRevisions = new LinkedHashMap<>();
+        StringBuilder xml = new StringBuilder("<mediawiki>\n");
+        long revisionId = 0;
+        for (long page = 1; page <= PAGES; page++) {
+            List<Long> revisions = new ArrayList<>();
+            expectedRevisions.put(page, revisions);
+            xml.append("  <page>\n    <title>Page ").append(page).append("</title>\n    <ns>").append(page % 3)
+                    .append("</ns>\n    <id>").append(page).append("</id>\n");
+            int count = 1 + random.nextInt(8);
+            for (int i = 0; i < count; i++) {
+                revisions.add(++revisionId);
+                xml.append("    <revision>\n      <id>").append(revisionId).append("</id>\n")
+                        .append("      <text xml:space=\"preserve\">");
+                for (int word = random.nextInt(200); word > 0; word--) {
+                    xml.append(Long.toString(random.nextLong(), 36)).append(' ');
+                }
+                xml.append("</text>\n    </revision>\n");
+            }
+            xml.append("  </page>\n");
+        }
+        Files.write(dump.toPath(), xml.append("</mediawiki>\n").toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @DataProvider
+    public Object[][] splitSizesAndReuse() {
+        return new Object[][]{{Long.MAX_VALUE, false}, {Long.MAX_VALUE, true}, {5000, false}, {5000, true},
+                {333, true}};
+    }
+
+    @Test(dataProvider = "splitSizesAndReuse")
+    public void groupsRevisionsByPage(long splitSize, boolean reuse) throws Exception {
+        Map<Long, List<Long>> revisions = new LinkedHashMap<>();
+        for (InputSplit split : getSplits(splitSize)) {
+            try (RecordReader<LongWritable, WikiPageRevisions> reader = createReader(split, reuse)) {
+                while (reader.nextKeyValue()) {
+                    long pageId = reader.getCurrentKey().get();
+                    WikiPageRevisions page = reader.getCurrentValue();
+                    assertEquals(pageId, page.getPage().getId());
+                    assertEquals("Page " + pageId, page.getPage().getTitle());
+                    assertEquals(pageId % 3, page.getPage().getNamespace());
+
+                    List<Long> revisionIds = new ArrayList<>();
+                    for (WikiRevisionWritable revision : page) {
+                        assertEquals(pageId, revision.getPage().getId());
+                        revisionIds.add(revision.getId());
+                    }
+                    assertFalse(revisions.containsKey(pageId));
+                    revisions.put(pageId, revisionIds);
+
+                    // the page stays valid after the next page was read ahead
+                    assertEquals(pageId, page.getPage().getId());
+                }
+            }
+        }
+        assertEquals(expectedRevisions, revisions);
+    }
+
+    @Test
+    public void skipsRevisionsNotIterated() throws Exception {
+        List<Long> pageIds = new ArrayList<>();
+        InputSplit split = getSplits(Long.MAX_VALUE).get(0);
+        try (RecordReader<LongWritable, WikiPageRevisions> reader = createReader(split, true)) {
+            while (reader.nextKeyValue()) {
+                long pageId = reader.getCurrentKey().get();
+                pageIds.add(pageId);
+
+                // iterate nothing, one revision or everything
+                if (pageId % 3 == 1) {
+                    Iterator<WikiRevisionWritable> revisions = reader.getCurrentValue().iterator();
+                    assertTrue(revisions.hasNext());
+                    assertEquals(expectedRevisions.get(pageId).get(0).longValue(), revisions.next().getId());
+                } else if (pageId % 3 == 2) {
+                    int count = 0;
+                    for (WikiRevisionWritable ignored : reader.getCurrentValue()) {
+                        count++;
+                    }
+                    assertEquals(expectedRevisions.get(pageId).size(), count);
+                }
+            }
+        }
+        assertEquals(new ArrayList<>(expectedRevisions.keySet()), pageIds);
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void iteratesOnlyOnce() throws Exception {
+        InputSplit split = getSplits(Long.MAX_VALUE).get(0);
+        try (RecordReader<LongWritable, WikiPageRevisions> reader = createReader(split, false)) {
+            assertTrue(reader.nextKeyValue());
+            reader.getCurrentValue().iterator();
+            reader.getCurrentValue().iterator();
+        }
+    }
+
+    private List<InputSplit> getSplits(long splitSize) throws IOException {
+        Job job = Job.getInstance(new Configuration());
+        FileInputFormat.addInputPath(job, new Path(dump.toURI()));
+        FileInputFormat.setMaxInputSplitSize(job, splitSize);
+        FileInputFormat.setMinInputSplitSize(job, 1);
+        return new WikiPageInputFormat().getSplits(job);
+    }
+
+    private static RecordReader<LongWritable, WikiPageRevisions> createReader(InputSplit split, boolean reuse)
+            throws Exception {
+        Job job = Job.getInstance(new Configuration());
+        WikiInputFormat.setReuseObjects(job, reuse);
+        TaskAttemptContext context = new TaskAttemptContextImpl(job.getConfiguration(), new TaskAttemptID());
+        RecordReader<LongWritable, WikiPageRevisions> reader =
+                new WikiPageInputFormat().createRecordReader(split, context);
+        reader.initialize(split, context);
+        return reader;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class PageStoreTest {
+    private static final int REVISIONS = 1000;
+
+    private File directory;
+    private Map<Long, String> texts;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pagestore").toFile();
+        directory.deleteOnExit();
+
+        texts = new TreeMap<>();
+        Random random = new Random(42);
+        long id = 0;
+        while (texts.size() < REVISIONS) {
+            id += 1 + random.nextInt(10);
+            StringBuilder text = new StringBuilder();
+            if (random.nextBoolean()) {
+                // compressible
+                for (int i = random.nextInt(100); i >= 0; i--) {
+                    text.append("[[Link]] text ");
+                }
+            } else {
+                // short and random, the record does not get smaller
+                for (int i = random.nextInt(20); i >= 0; i--) {
+                    text.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            texts.put(id, text.toString());
+        }
+    }
+
+    private File write(String name, int compressionLevel) throws IOException {
+        File store = new File(directory, name);
+        try (PageStore.Writer writer = new PageStore.Writer(store, compressionLevel)) {
+            for (Map.Entry<Long, String> entry : texts.entrySet()) {
+                writer.append(entry.getKey(), revision(entry.getKey(), entry.getValue()));
+            }
+            assertEquals(REVISIONS, writer.size());
+        }
+        return store;
+    }
+
+    private static WikiRevisionWritable revision(long id, String text) {
+        WikiRevisionWritable revision = new WikiRevisionWritable(new WikiPageWritable("Page " + id, id / 2, false));
+        revision.setId(id);
+        revision.setTimestamp(id * 1000);
+        revision.setText(text);
+        return revision;
+    }
+
+    @Test
+    public void readsCompressedRecords() throws IOException {
+        File store = write("compressed", 6);
+        try (PageStore pageStore = new PageStore(store)) {
+            assertEquals(REVISIONS, pageStore.size());
+            for (Map.Entry<Long, String> entry : texts.entrySet()) {
+                WikiRevisionWritable revision = pageStore.get(entry.getKey());
+                assertEquals(entry.getKey().longValue(), revision.getId());
+                assertEquals(entry.getKey() / 2, revision.getPage().getId());
+                assertEquals(entry.getValue(), revision.getText());
+            }
+            assertNull(pageStore.get(0));
+            assertNull(pageStore.get(Long.MAX_VALUE));
+        }
+        assertTrue(new File(store, PageStore.FILE_NAME).length() < new File(write("plain", 0), PageStore.FILE_NAME)
+                .length());
+    }
+
+    @Test
+    public void readsPlainRecordsFromMapping() throws IOException {
+        File store = write("mapped", 0);
+        try (PageStore pageStore = new PageStore(store)) {
+            for (Map.Entry<Long, String> entry : texts.entrySet()) {
+                ByteBuffer serialized = pageStore.getSerialized(entry.getKey());
+                assertTrue(serialized.isDirect());
+                assertTrue(serialized.isReadOnly());
+                assertEquals(entry.getValue(), pageStore.get(entry.getKey()).getText());
+            }
+            for (long id = 0; id < 100; id++) {
+                if (!texts.containsKey(id)) {
+                    assertNull(pageStore.getSerialized(id));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsEmptyStore() throws IOException {
+        File store = new File(directory, "empty");
+        new PageStore.Writer(store, 6).close();
+        try (PageStore pageStore = new PageStore(store)) {
+            assertEquals(0, pageStore.size());
+            assertNull(pageStore.get(1));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsUnsortedRevisions() throws IOException {
+        try (PageStore.Writer writer = new PageStore.Writer(new File(directory, "unsorted"), 6)) {
+            writer.append(2, revision(2, "b"));
+            writer.append(1, revision(1, "a"));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        File store = new File(directory, "other");
+        assertTrue(store.mkdirs());
+        Files.write(new File(store, PageStore.FILE_NAME).toPath(),
+                "no page store at all, but long enough".getBytes(StandardCharsets.UTF_8));
+        new PageStore(store).close();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class ParallelBzip2InputStreamTest {
+    private byte[] content;
+
+    @BeforeClass
+    public void setUp() {
+        Random random = new Random(42);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 1500000) {
+            text.append(TextDeltaTest.createArticle(random, 20));
+            // long runs exercise the run length encoding of bzip2
+            for (int i = random.nextInt(600); i > 0; i--) {
+                text.append('=');
+            }
+        }
+        content = text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void decompressesBlocksInParallel() throws IOException {
+        byte[] compressed = compress(content, 1);
+        assertTrue(Arrays.equals(content, decompress(compressed, 4)));
+        assertTrue(Arrays.equals(content, decompress(compressed, 1)));
+    }
+
+    @Test
+    public void decompressesConcatenatedStreams() throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 5; i++) {
+            byte[] part = Arrays.copyOfRange(content, i * 100000, i * 100000 + 50000 + i * 70000);
+            compressed.write(compress(part, 9));
+            expected.write(part);
+        }
+        // empty stream
+        compressed.write(compress(new byte[0], 9));
+
+        assertTrue(Arrays.equals(expected.toByteArray(), decompress(compressed.toByteArray(), 3)));
+    }
+
+    @Test
+    public void readsSameAsSequentialDecompression() throws IOException {
+        byte[] compressed = compress(content, 2);
+        byte[] expected;
+        try (InputStream in = new BZip2CompressorInputStream(new ByteArrayInputStream(compressed))) {
+            expected = readFully(in);
+        }
+        assertTrue(Arrays.equals(expected, decompress(compressed, 8)));
+    }
+
+    @Test
+    public void mergesBlocksAtFalseEndOfStreamMarker() throws IOException {
+        // the symbol map of a block lists the used bytes in 16 bit groups, with exactly these bytes the groups
+        // 0x40, 0x50 and 0x60 spell the end of stream marker 0x177245385090
+        byte[] symbols = "CEFGIJKNQUWZ[\\achk".getBytes(StandardCharsets.US_ASCII);
+        Random random = new Random(7);
+        byte[] data = new byte[250000];
+        for (int i = 0; i < data.length; i++) {
+            // no runs, they would add the run lengths to the used bytes
+            do {
+                data[i] = symbols[random.nextInt(symbols.length)];
+            } while (i > 0 && data[i] == data[i - 1]);
+        }
+
+        byte[] compressed = compress(data, 1);
+        assertTrue(countEndOfStreamMarkers(compressed) > 1);
+        assertTrue(Arrays.equals(data, decompress(compressed, 2)));
+    }
+
+    @Test
+    public void failsOnTruncatedInput() throws IOException {
+        byte[] compressed = compress(content, 1);
+        try {
+            decompress(Arrays.copyOf(compressed, compressed.length / 2), 2);
+            fail("truncated input has to fail");
+        } catch (IOException e) {
+            assertEquals("bzip2 stream is truncated", e.getMessage());
+        }
+    }
+
+    @Test(timeOut = 10000)
+    public void reportsUncheckedScanFailure() throws IOException {
+        InputStream failing = new ByteArrayInputStream(compress(content, 1)) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                throw new IllegalStateException("broken input");
+            }
+        };
+        try (InputStream in = new ParallelBzip2InputStream(failing, 2)) {
+            readFully(in);
+            fail("the failure of the input has to be reported");
+        } catch (IOException e) {
+            assertEquals("broken input", e.getCause().getMessage());
+        }
+    }
+
+    private static byte[] compress(byte[] data, int blockSize) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (OutputStream bzOut = new BZip2CompressorOutputStream(out, blockSize)) {
+            bzOut.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    private static int countEndOfStreamMarkers(byte[] compressed) {
+        int count = 0;
+        long window = 0;
+        for (byte b : compressed) {
+            for (int bit = 7; bit >= 0; bit--) {
+                window = (window << 1) | ((b >>> bit) & 1);
+                if ((window & 0xffffffffffffL) == 0x177245385090L) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private static byte[] decompress(byte[] compressed, int threads) throws IOException {
+        try (InputStream in = new ParallelBzip2InputStream(new ByteArrayInputStream(compressed), threads)) {
+            return readFully(in);
+        }
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class RangedDownloaderTest {
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=([0-9]+)-([0-9]+)");
+    private static final long LAST_MODIFIED = 1420070400000L;
+    private static final int CHUNK_SIZE = 1000;
+
+    private HttpServer server;
+    private byte[] content;
+    private File directory;
+    private final Set<Long> requestedRanges = Collections.synchronizedSet(new HashSet<Long>());
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long failingRange;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        content = new byte[CHUNK_SIZE * 20 + 123];
+        new Random(42).nextBytes(content);
+        directory = Files.createTempDirectory("download").toFile();
+        directory.deleteOnExit();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/ranges", new DumpHandler(true));
+        server.createContext("/noranges", new DumpHandler(false));
+        server.start();
+    }
+
+    @AfterClass
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @BeforeMethod
+    public void reset() {
+        requestedRanges.clear();
+        failures.set(0);
+        failingRange = -1;
+    }
+
+    @Test
+    public void probesRemoteFile() throws IOException {
+        RangedDownloader.RemoteFile remote = RangedDownloader.probe(url("/ranges"));
+        assertEquals(LAST_MODIFIED, remote.getLastModified());
+        assertEquals(content.length, remote.getLength());
+        assertTrue(remote.acceptsRanges());
+        assertFalse(RangedDownloader.probe(url("/noranges")).acceptsRanges());
+    }
+
+    @Test
+    public void downloadsInParallel() throws IOException {
+        File target = file("parallel");
+        new RangedDownloader(4, CHUNK_SIZE, 0).download(url("/ranges"), target);
+
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target.toPath())));
+        assertEquals(21, requestedRanges.size());
+        assertFalse(RangedDownloader.getProgressFile(target).exists());
+    }
+
+    @Test
+    public void retriesFailedChunk() throws IOException {
+        failingRange = 5 * CHUNK_SIZE;
+        failures.set(2);
+        File target = file("retry");
+        new RangedDownloader(3, CHUNK_SIZE, 2).download(url("/ranges"), target);
+
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target.toPath())));
+        assertEquals(0, failures.get());
+    }
+
+    @Test
+    public void resumesFailedDownload() throws IOException {
+        failingRange = 7 * CHUNK_SIZE;
+        failures.set(1);
+        File target = file("resume");
+        try {
+            new RangedDownloader(1, CHUNK_SIZE, 0).download(url("/ranges"), target);
+            fail("download has to fail");
+        } catch (IOException e) {
+            assertTrue(RangedDownloader.getProgressFile(target).exists());
+        }
+
+        requestedRanges.clear();
+        new RangedDownloader(4, CHUNK_SIZE, 0).download(url("/ranges"), target);
+
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target.toPath())));
+        // the chunks before the failed one are not requested again
+        assertTrue(requestedRanges.contains(failingRange));
+        for (long start = 0; start < failingRange; start += CHUNK_SIZE) {
+            assertFalse(requestedRanges.contains(start));
+        }
+        assertFalse(RangedDownloader.getProgressFile(target).exists());
+    }
+
+    @Test
+    public void ignoresTornProgressLine() throws IOException {
+        failingRange = 7 * CHUNK_SIZE;
+        failures.set(1);
+        File target = file("torn");
+        try {
+            new RangedDownloader(1, CHUNK_SIZE, 0).download(url("/ranges"), target);
+            fail("download has to fail");
+        } catch (IOException e) {
+            // expected
+        }
+        // the failed chunk as if the process died before its newline was written
+        Files.write(RangedDownloader.getProgressFile(target).toPath(), "7".getBytes(StandardCharsets.US_ASCII),
+                StandardOpenOption.APPEND);
+
+        requestedRanges.clear();
+        new RangedDownloader(4, CHUNK_SIZE, 0).download(url("/ranges"), target);
+
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target.toPath())));
+        assertTrue(requestedRanges.contains(failingRange));
+    }
+
+    @Test
+    public void restartsIfChunkSizeChanged() throws IOException {
+        failingRange = 3 * CHUNK_SIZE;
+        failures.set(1);
+        File target = file("restart");
+        try {
+            new RangedDownloader(1, CHUNK_SIZE, 0).download(url("/ranges"), target);
+            fail("download has to fail");
+        } catch (IOException e) {
+            // expected
+        }
+
+        requestedRanges.clear();
+        new RangedDownloader(2, CHUNK_SIZE * 2, 0).download(url("/ranges"), target);
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target.toPath())));
+        assertTrue(requestedRanges.contains(0L));
+    }
+
+    @Test
+    public void downloadsWithoutRanges() throws IOException {
+        File target = file("noranges");
+        new RangedDownloader(4, CHUNK_SIZE, 0).download(url("/noranges"), target);
+
+        assertTrue(Arrays.equals(content, Files.readAllBytes(target.toPath())));
+        assertTrue(requestedRanges.isEmpty());
+    }
+
+    private URL url(String path) throws IOException {
+        return new URL("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+    private File file(String name) {
+        File file = new File(directory, name);
+        file.deleteOnExit();
+        RangedDownloader.getProgressFile(file).deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Serves the content with or without range support. The range starting at failingRange is answered
+     * with an error as long as there are failures left.
+     */
+    private class DumpHandler implements HttpHandler {
+        private final boolean ranges;
+
+        DumpHandler(boolean ranges) {
+            this.ranges = ranges;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            exchange.getResponseHeaders().set("Last-Modified", "Thu, 01 Jan 2015 00:00:00 GMT");
+            if (ranges) {
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            }
+
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.getResponseHeaders().set("Content-Length", Integer.toString(content.length));
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+                return;
+            }
+
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int start = 0;
+            int end = content.length - 1;
+            int status = 200;
+            if (ranges && range != null) {
+                Matcher matcher = RANGE_PATTERN.matcher(range);
+                assertTrue(matcher.matches());
+                start = Integer.parseInt(matcher.group(1));
+                end = Integer.parseInt(matcher.group(2));
+                status = 206;
+                requestedRanges.add((long) start);
+
+                if (start == failingRange && failures.get() > 0) {
+                    failures.decrementAndGet();
+                    exchange.sendResponseHeaders(503, -1);
+                    exchange.close();
+                    return;
+                }
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + end + "/" + content.length);
+            }
+
+            exchange.sendResponseHeaders(status, end - start + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(content, start, end - start + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import static org.testng.AssertJUnit.assertEquals;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class RedirectTableTest {
+    private static final String[] TITLES = {"A", "B", "C", "D", "E", "F", "G", "H"};
+
+    private TitleIndex index;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TitleIndex.Writer writer = new TitleIndex.Writer(out, 3)) {
+            for (int i = 0; i < TITLES.length; i++) {
+                writer.append(TITLES[i], i, i * 10);
+            }
+        }
+        index = new TitleIndex(out.toByteArray());
+    }
+
+    private RedirectTable build() throws IOException {
+        RedirectTable.Builder builder = new RedirectTable.Builder();
+        // A -> B -> C, D -> E -> D, F -> missing, G -> A -> B -> C
+        builder.add(index.indexOf("A"), "B");
+        builder.add(index.indexOf("B"), "C");
+        builder.add(index.indexOf("D"), "E");
+        builder.add(index.indexOf("E"), "D");
+        builder.add(index.indexOf("F"), "X");
+        builder.add(index.indexOf("G"), "A");
+        return builder.build(index);
+    }
+
+    @Test
+    public void collapsesChains() throws IOException {
+        RedirectTable table = build();
+        assertEquals(6, table.size());
+        assertEquals(index.indexOf("C"), table.resolve(index.indexOf("A")));
+        assertEquals(index.indexOf("C"), table.resolve(index.indexOf("B")));
+        assertEquals(index.indexOf("C"), table.resolve(index.indexOf("G")));
+        assertEquals(new TitleIndex.Entry(2, 20), index.get(table.resolve(index.indexOf("G"))));
+        assertEquals(RedirectTable.NO_REDIRECT, table.resolve(index.indexOf("C")));
+        assertEquals(RedirectTable.NO_REDIRECT, table.resolve(index.indexOf("H")));
+    }
+
+    @Test
+    public void breaksCyclesAndMissingTargets() throws IOException {
+        RedirectTable table = build();
+        assertEquals(RedirectTable.BROKEN, table.resolve(index.indexOf("D")));
+        assertEquals(RedirectTable.BROKEN, table.resolve(index.indexOf("E")));
+        assertEquals(RedirectTable.BROKEN, table.resolve(index.indexOf("F")));
+        assertEquals(3, table.getBroken());
+    }
+
+    @Test
+    public void resolvesSelfRedirects() throws IOException {
+        RedirectTable.Builder builder = new RedirectTable.Builder();
+        builder.add(index.indexOf("A"), "A");
+        builder.add(index.indexOf("B"), "A");
+        RedirectTable table = builder.build(index);
+        assertEquals(RedirectTable.BROKEN, table.resolve(index.indexOf("A")));
+        assertEquals(RedirectTable.BROKEN, table.resolve(index.indexOf("B")));
+    }
+
+    @Test
+    public void writesTable() throws IOException {
+        RedirectTable table = build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        table.write(out);
+
+        RedirectTable read = RedirectTable.read(new DataInputStream(new ByteArrayInputStream(out.toByteArray())));
+        assertEquals(table.size(), read.size());
+        for (int i = 0; i < TITLES.length; i++) {
+            assertEquals(table.resolve(i), read.resolve(i));
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsUnsortedRedirects() throws IOException {
+        RedirectTable.Builder builder = new RedirectTable.Builder();
+        builder.add(2, "A");
+        builder.add(1, "A");
+    }
+}
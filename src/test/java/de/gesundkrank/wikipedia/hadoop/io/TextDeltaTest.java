@@ -0,0 +1,113 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class TextDeltaTest {
+
+    public static String createArticle(Random random, int paragraphs) {
+        StringBuilder article = new StringBuilder();
+        for (int paragraph = 0; paragraph < paragraphs; paragraph++) {
+            for (int word = random.nextInt(80); word >= 0; word--) {
+                article.append(Long.toString(random.nextLong() & 0xffffff, 36)).append(' ');
+            }
+            article.append("\n\n");
+        }
+        return article.toString();
+    }
+
+    public static String edit(Random random, String text) {
+        StringBuilder edited = new StringBuilder(text);
+        for (int edits = 1 + random.nextInt(3); edits > 0; edits--) {
+            int position = random.nextInt(edited.length() + 1);
+            switch (random.nextInt(3)) {
+                case 0:
+                    edited.insert(position, "[[inserted link " + random.nextInt() + "]]");
+                    break;
+                case 1:
+                    edited.delete(position, Math.min(edited.length(), position + random.nextInt(200)));
+                    break;
+                default:
+                    // move a block of text to the end
+                    int end = Math.min(edited.length(), position + random.nextInt(500));
+                    String block = edited.substring(position, end);
+                    edited.delete(position, end).append(block);
+            }
+        }
+        return edited.toString();
+    }
+
+    private static String roundTrip(String base, String target) throws IOException {
+        byte[] baseBytes = base.getBytes(StandardCharsets.UTF_8);
+        byte[] targetBytes = target.getBytes(StandardCharsets.UTF_8);
+        byte[] delta = TextDelta.encode(baseBytes, baseBytes.length, targetBytes, targetBytes.length);
+        byte[] rebuilt = TextDelta.apply(baseBytes, baseBytes.length, delta, delta.length);
+        return new String(rebuilt, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void rebuildsEditedTexts() throws IOException {
+        Random random = new Random(3);
+        String text = createArticle(random, 30);
+        for (int revision = 0; revision < 200; revision++) {
+            String edited = edit(random, text);
+            assertEquals(edited, roundTrip(text, edited));
+            text = edited;
+        }
+    }
+
+    @Test
+    public void rebuildsUnrelatedTexts() throws IOException {
+        String[] texts = {"", "a", "äöü\n", "\n\n\n", "same\nsame\nsame\n", createArticle(new Random(1), 5)};
+        for (String base : texts) {
+            for (String target : texts) {
+                assertEquals(target, roundTrip(base, target));
+            }
+        }
+    }
+
+    @Test
+    public void deltaOfSmallEditIsSmall() {
+        Random random = new Random(5);
+        byte[] base = createArticle(random, 50).getBytes(StandardCharsets.UTF_8);
+        byte[] target = (new String(base, StandardCharsets.UTF_8).replaceFirst(" ", " typo ") +
+                "[[Category:Test]]").getBytes(StandardCharsets.UTF_8);
+
+        byte[] delta = TextDelta.encode(base, base.length, target, target.length);
+        assertTrue(delta.length < 50);
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void detectsWrongBase() throws IOException {
+        byte[] base = createArticle(new Random(9), 10).getBytes(StandardCharsets.UTF_8);
+        byte[] delta = TextDelta.encode(base, base.length, base, base.length);
+        TextDelta.apply(base, 10, delta, delta.length);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.io;
+
+import org.apache.hadoop.io.Text;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class TitleIndexTest {
+    private static final int TITLES = 5000;
+    private static final String[] WORDS = {"List_of_", "History_of_", "Ä", "Category:", "Talk:", "Zürich", "a", "_"};
+
+    private Map<Text, Long> titles;
+    private TitleIndex index;
+    private int rawBytes;
+    private int indexBytes;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        // Text orders by the utf-8 bytes like the index
+        titles = new TreeMap<>();
+        Random random = new Random(42);
+        while (titles.size() < TITLES) {
+            StringBuilder title = new StringBuilder();
+            int words = 1 + random.nextInt(4);
+            for (int i = 0; i < words; i++) {
+                title.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(50));
+            }
+            titles.put(new Text(title.toString()), (long) titles.size());
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TitleIndex.Writer writer = new TitleIndex.Writer(out)) {
+            for (Map.Entry<Text, Long> entry : titles.entrySet()) {
+                writer.append(entry.getKey(), entry.getValue(), entry.getValue() * 1000);
+                rawBytes += entry.getKey().getLength() + 16;
+            }
+        }
+        indexBytes = out.size();
+        index = new TitleIndex(out.toByteArray());
+    }
+
+    @Test
+    public void findsAllTitles() {
+        assertEquals(TITLES, index.size());
+        for (Map.Entry<Text, Long> entry : titles.entrySet()) {
+            assertEquals(new TitleIndex.Entry(entry.getValue(), entry.getValue() * 1000),
+                    index.get(entry.getKey().toString()));
+            assertEquals(new TitleIndex.Entry(entry.getValue(), entry.getValue() * 1000), index.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void findsTitlesByPosition() {
+        int ordinal = 0;
+        for (Map.Entry<Text, Long> entry : titles.entrySet()) {
+            assertEquals(ordinal, index.indexOf(entry.getKey()));
+            assertEquals(ordinal, index.indexOf(entry.getKey().toString()));
+            assertEquals(new TitleIndex.Entry(entry.getValue(), entry.getValue() * 1000), index.get(ordinal));
+            ordinal++;
+        }
+        assertEquals(-1, index.indexOf("zzz"));
+    }
+
+    @Test(expectedExceptions = IndexOutOfBoundsException.class)
+    public void rejectsUnknownPositions() {
+        index.get(TITLES);
+    }
+
+    @Test
+    public void missesUnknownTitles() {
+        assertNull(index.get(""));
+        assertNull(index.get("0"));
+        assertNull(index.get("a"));
+        assertNull(index.get("zzz"));
+        assertNull(index.get("\uffff"));
+        for (Text title : titles.keySet()) {
+            assertNull(index.get(title + "x"));
+        }
+    }
+
+    @Test
+    public void frontCodesTitles() {
+        assertTrue(String.format("%d bytes for %d raw bytes", indexBytes, rawBytes),
+                indexBytes * 3 < rawBytes * 2);
+    }
+
+    @Test
+    public void readsEmptyIndex() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new TitleIndex.Writer(out).close();
+        TitleIndex empty = new TitleIndex(out.toByteArray());
+        assertEquals(0, empty.size());
+        assertNull(empty.get("a"));
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsUnsortedTitles() throws IOException {
+        try (TitleIndex.Writer writer = new TitleIndex.Writer(new ByteArrayOutputStream())) {
+            writer.append("b", 1, 1);
+            writer.append("a", 2, 2);
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        new TitleIndex("no title index at all".getBytes(StandardCharsets.UTF_8));
+    }
+}
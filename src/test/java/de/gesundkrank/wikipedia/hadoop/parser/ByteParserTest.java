@@ -0,0 +1,184 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.parser;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionContributor;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import javax.xml.bind.DatatypeConverter;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class ByteParserTest {
+
+    private ByteParser parser;
+    private WikiRevisionWritable currentRevision;
+
+    @BeforeClass
+    public void setUp() {
+        parser = new ByteParser(getClass().getResourceAsStream("/wikidump_example.xml"));
+    }
+
+    @Test
+    public void readFirstRevision() throws IOException {
+        currentRevision = parser.readNextRevision();
+        assertNotNull(currentRevision);
+    }
+
+    @Test(dependsOnMethods = "readFirstRevision")
+    public void readSecondRevision() throws IOException {
+        readFirstRevision();
+    }
+
+    @Test(dependsOnMethods = "readFirstRevision")
+    public void firstRevisionHasFields() {
+        assertEquals(631144794, currentRevision.getId());
+
+        long expectedDate = DatatypeConverter.parseDateTime("2014-10-26T04:50:23Z").getTimeInMillis();
+        assertEquals(expectedDate, currentRevision.getTimestamp());
+
+        assertEquals("add [[WP:RCAT|rcat]]s", currentRevision.getComment());
+        assertEquals("#REDIRECT [[Computer accessibility]]\n\n{{Redr|move|from CamelCase|up}}",
+                currentRevision.getText());
+
+        WikiRevisionContributor contributor = currentRevision.getContributor();
+        assertNotNull(contributor);
+        assertEquals("Paine Ellsworth", contributor.getUsername());
+        assertEquals(9092818, contributor.getId());
+
+        WikiPageWritable page = currentRevision.getPage();
+        assertNotNull(page);
+        assertEquals("AccessibleComputing", page.getTitle());
+        assertEquals(10, page.getId());
+        assertEquals(true, page.isRedirect());
+        assertEquals("Computer accessibility", page.getRedirectTarget());
+    }
+
+    @Test(dependsOnMethods = "readSecondRevision")
+    public void secondRevisionHasFields() {
+        assertEquals(645849603, currentRevision.getId());
+
+        long expectedDate = DatatypeConverter.parseDateTime("2015-02-06T04:18:52Z").getTimeInMillis();
+        assertEquals(expectedDate, currentRevision.getTimestamp());
+
+        String expectedStart = "{{Redirect2|Anarchist|Anarchists|the fictional character|Anarchist (comics)" +
+                "|other uses|Anarchists (disambiguation)}}";
+        assertTrue(currentRevision.getText().startsWith(expectedStart));
+        assertTrue(currentRevision.getText().endsWith("[[Category:Far-left politics]]"));
+
+        // entities are decoded
+        assertTrue(currentRevision.getText().contains("<ref>"));
+
+        WikiPageWritable page = currentRevision.getPage();
+        assertEquals("Anarchism", page.getTitle());
+        assertEquals(12, page.getId());
+        assertEquals(false, page.isRedirect());
+        assertNull(page.getRedirectTarget());
+    }
+
+    @Test
+    public void readsSameRevisionsAsLineParser() throws IOException {
+        ByteParser byteParser = new ByteParser(getClass().getResourceAsStream("/wikidump_example.xml"));
+        Parser lineParser = new Parser();
+        BufferedReader in = new BufferedReader(new InputStreamReader(
+                getClass().getResourceAsStream("/wikidump_example.xml"), StandardCharsets.UTF_8));
+
+        int count = 0;
+        WikiRevisionWritable revision;
+        while ((revision = byteParser.readNextRevision()) != null) {
+            WikiRevisionWritable expected = lineParser.readNextRevision(in);
+            assertEquals(expected.getId(), revision.getId());
+            assertEquals(expected.getTimestamp(), revision.getTimestamp());
+            assertEquals(expected.isMinor(), revision.isMinor());
+            assertEquals(expected.getPage().toString(), revision.getPage().toString());
+            assertEquals(expected.getPage().getRedirectTarget(), revision.getPage().getRedirectTarget());
+            assertEquals(String.valueOf(expected.getContributor()), String.valueOf(revision.getContributor()));
+            count++;
+        }
+
+        assertEquals(85, count);
+    }
+
+    @Test
+    public void reusesRevision() throws IOException {
+        ByteParser expectedParser = new ByteParser(getClass().getResourceAsStream("/wikidump_example.xml"));
+        ByteParser reusingParser = new ByteParser(getClass().getResourceAsStream("/wikidump_example.xml"));
+        WikiRevisionWritable reuse = new WikiRevisionWritable();
+
+        WikiRevisionWritable expected;
+        while ((expected = expectedParser.readNextRevision()) != null) {
+            WikiRevisionWritable revision = reusingParser.readNextRevision(reuse);
+            assertSame(reuse, revision);
+            assertEquals(expected.toString(), revision.toString());
+        }
+    }
+
+    @Test
+    public void readsAnyLayout() throws IOException {
+        String xml = "<mediawiki><page><title>A &amp; B</title><ns>0</ns><id>7</id><redirect title=\"C &amp; D\"/>" +
+                "<revision><id>8</id><timestamp>2015-02-06T04:18:52Z</timestamp><contributor><ip>127.0.0.1</ip>" +
+                "</contributor><minor/><comment>&quot;x&quot;</comment><text xml:space=\"preserve\">a &#228;&#x1F600;" +
+                "\nb&lt;</text></revision></page></mediawiki>";
+        ByteParser byteParser = new ByteParser(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+
+        WikiRevisionWritable revision = byteParser.readNextRevision();
+        assertNotNull(revision);
+        assertEquals("A & B", revision.getPage().getTitle());
+        assertEquals(7, revision.getPage().getId());
+        assertTrue(revision.getPage().isRedirect());
+        assertEquals("C & D", revision.getPage().getRedirectTarget());
+        assertEquals(8, revision.getId());
+        assertTrue(revision.isMinor());
+        assertEquals("\"x\"", revision.getComment());
+        assertEquals("a ä😀\nb<", revision.getText());
+        assertEquals(-1, revision.getContributor().getId());
+
+        assertNull(byteParser.readNextRevision());
+    }
+
+    @Test
+    public void parseTimestamp() {
+        String[] timestamps = {"2014-10-26T04:50:23Z", "2001-01-15T13:15:00Z", "1969-12-31T23:59:59Z",
+                "2000-02-29T00:00:00.123Z", "2015-02-06T04:18:52+01:30"};
+
+        for (String timestamp : timestamps) {
+            byte[] bytes = timestamp.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(DatatypeConverter.parseDateTime(timestamp).getTimeInMillis(),
+                    ByteParser.parseTimestamp(bytes, 0, bytes.length));
+        }
+
+        byte[] malformed = "yesterday".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(-1, ByteParser.parseTimestamp(malformed, 0, malformed.length));
+    }
+}
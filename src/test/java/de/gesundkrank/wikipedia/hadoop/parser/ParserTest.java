@@ -108,6 +108,7 @@ public class ParserTest {
         assertEquals("AccessibleComputing", page.getTitle());
         assertEquals(10, page.getId());
         assertEquals(true, page.isRedirect());
+        assertEquals("Computer accessibility", page.getRedirectTarget());
     }
 
     @Test(dependsOnMethods = "readSecondRevision")
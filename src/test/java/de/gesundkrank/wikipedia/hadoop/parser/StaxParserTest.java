@@ -0,0 +1,96 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.parser;
+
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class StaxParserTest {
+
+    @Test
+    public void readsSameRevisionsAsByteParser() throws IOException {
+        WikiParser expectedParser = new ByteParser();
+        expectedParser.initialize(getClass().getResourceAsStream("/wikidump_example.xml"), new Configuration());
+        WikiParser parser = new StaxParser();
+        parser.initialize(getClass().getResourceAsStream("/wikidump_example.xml"), new Configuration());
+
+        // the example dump is cut off in the middle of the last page, so only complete revisions are compared
+        int count = 0;
+        WikiRevisionWritable expected;
+        while ((expected = expectedParser.readNextRevision()) != null) {
+            WikiRevisionWritable revision = parser.readNextRevision();
+            assertNotNull(revision);
+            assertEquals(expected.toString(), revision.toString());
+            assertEquals(expected.getPage().getRedirectTarget(), revision.getPage().getRedirectTarget());
+            count++;
+        }
+
+        assertEquals(85, count);
+    }
+
+    @Test
+    public void readsPagesWithoutRoot() throws IOException {
+        String xml = "<page><title>A</title><id>1</id><revision><id>2</id>" +
+                "<contributor deleted=\"deleted\" /><text xml:space=\"preserve\">a\n&lt;b&gt;</text></revision></page>\n" +
+                "<page>\n<title>B</title>\n<id>3</id>\n<redirect title=\"A\" />\n<revision>\n<id>4</id>\n<minor />\n" +
+                "<contributor>\n<username>x</username>\n<id>5</id>\n</contributor>\n</revision>\n</page>\n";
+        WikiParser parser = new StaxParser();
+        parser.initialize(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), new Configuration());
+
+        WikiRevisionWritable revision = parser.readNextRevision();
+        assertEquals(2, revision.getId());
+        assertEquals("A", revision.getPage().getTitle());
+        assertNull(revision.getContributor());
+        assertEquals("a\n<b>", revision.getText());
+
+        revision = parser.readNextRevision();
+        assertEquals(4, revision.getId());
+        assertEquals(3, revision.getPage().getId());
+        assertTrue(revision.getPage().isRedirect());
+        assertEquals("A", revision.getPage().getRedirectTarget());
+        assertTrue(revision.isMinor());
+        assertEquals("x", revision.getContributor().getUsername());
+        assertEquals(5, revision.getContributor().getId());
+
+        assertNull(parser.readNextRevision());
+    }
+
+    @Test
+    public void toleratesOpenRootElement() throws IOException {
+        String xml = "<mediawiki><page><title>A</title><id>1</id><revision><id>2</id></revision></page>";
+        WikiParser parser = new StaxParser();
+        parser.initialize(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), new Configuration());
+
+        assertEquals(2, parser.readNextRevision().getId());
+        assertNull(parser.readNextRevision());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.io.RevisionDeltaEncoder;
+import de.gesundkrank.wikipedia.hadoop.io.TextDeltaTest;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertFalse;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class DeltaRevisionReaderTest {
+    private static final int PAGES = 5;
+    private static final int REVISIONS = 40;
+    private static final int SNAPSHOT_INTERVAL = 8;
+
+    private Path mapFile;
+    private Map<Long, String> expectedTexts;
+    private long textBytes;
+    private long storedBytes;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        File directory = Files.createTempDirectory("deltarevisions").toFile();
+        directory.deleteOnExit();
+        mapFile = new Path(new File(directory, "revisions").toURI());
+
+        // revisions of all pages, ordered by id like in a repacked MapFile
+        Random random = new Random(11);
+        Map<Long, WikiRevisionWritable> revisions = new TreeMap<>();
+        expectedTexts = new TreeMap<>();
+        for (int page = 0; page < PAGES; page++) {
+            RevisionDeltaEncoder encoder = new RevisionDeltaEncoder(SNAPSHOT_INTERVAL);
+            WikiPageWritable pageWritable = new WikiPageWritable("Page " + page, page, false);
+            String text = TextDeltaTest.createArticle(random, 20);
+
+            for (int i = 0; i < REVISIONS; i++) {
+                long id = i * PAGES + page;
+                text = TextDeltaTest.edit(random, text);
+                expectedTexts.put(id, text);
+                textBytes += text.getBytes(StandardCharsets.UTF_8).length;
+
+                WikiRevisionWritable revision = new WikiRevisionWritable(pageWritable);
+                revision.setId(id);
+                revision.setText(text);
+                encoder.encode(revision);
+                storedBytes += revision.getTextLength();
+                revisions.put(id, revision);
+            }
+        }
+
+        try (MapFile.Writer writer = new MapFile.Writer(new Configuration(), mapFile,
+                MapFile.Writer.keyClass(LongWritable.class), MapFile.Writer.valueClass(WikiRevisionWritable.class))) {
+            for (WikiRevisionWritable revision : revisions.values()) {
+                writer.append(new LongWritable(revision.getId()), revision);
+            }
+        }
+    }
+
+    @Test
+    public void storesDeltas() {
+        assertTrue(storedBytes * 3 < textBytes);
+    }
+
+    @Test
+    public void readsRevisionsInOrder() throws IOException {
+        try (DeltaRevisionReader reader = new DeltaRevisionReader(mapFile, new Configuration(), 16)) {
+            for (Map.Entry<Long, String> entry : expectedTexts.entrySet()) {
+                WikiRevisionWritable revision = reader.read(entry.getKey());
+                assertFalse(revision.isTextDelta());
+                assertEquals(entry.getValue(), revision.getText());
+            }
+        }
+    }
+
+    @Test
+    public void readsRevisionsWithoutCache() throws IOException {
+        try (DeltaRevisionReader reader = new DeltaRevisionReader(mapFile, new Configuration(), 0)) {
+            long id = (REVISIONS - 1) * PAGES + 2;
+            assertEquals(expectedTexts.get(id), reader.read(id).getText());
+            assertNull(reader.read(-5));
+        }
+    }
+
+    @Test
+    public void storedRevisionsAreDeltas() throws IOException {
+        try (MapFile.Reader reader = new MapFile.Reader(mapFile, new Configuration())) {
+            WikiRevisionWritable revision = new WikiRevisionWritable();
+            reader.get(new LongWritable(PAGES), revision);
+            assertTrue(revision.isTextDelta());
+            assertEquals(0, revision.getTextBaseId());
+
+            reader.get(new LongWritable(SNAPSHOT_INTERVAL * PAGES), revision);
+            assertFalse(revision.isTextDelta());
+        }
+    }
+}
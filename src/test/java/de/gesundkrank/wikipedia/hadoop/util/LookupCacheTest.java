@@ -0,0 +1,109 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class LookupCacheTest {
+
+    /**
+     * Returns the text "value n" for keys below 100 and records the loaded keys.
+     */
+    private static class CountingLoader implements LookupCache.Loader<LongWritable, Text> {
+        private final List<Long> loaded = new ArrayList<>();
+
+        @Override
+        public Text load(LongWritable key) throws IOException {
+            loaded.add(key.get());
+            return key.get() < 100 ? new Text("value " + key.get()) : null;
+        }
+    }
+
+    @Test
+    public void cachesValuesAndMissingKeys() throws IOException {
+        LookupCache<LongWritable, Text> cache = new LookupCache<>(1024 * 1024);
+        CountingLoader loader = new CountingLoader();
+
+        Text value = cache.get(new LongWritable(1), loader);
+        assertEquals(new Text("value 1"), value);
+        assertSame(value, cache.get(new LongWritable(1), loader));
+        assertNull(cache.get(new LongWritable(200), loader));
+        assertNull(cache.get(new LongWritable(200), loader));
+
+        assertEquals(2, loader.loaded.size());
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getNegativeHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(0.5, cache.getHitRate(), 0.0001);
+        assertEquals(2, cache.size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        CountingLoader loader = new CountingLoader();
+        LookupCache<LongWritable, Text> sizing = new LookupCache<>(1024 * 1024);
+        sizing.get(new LongWritable(0), loader);
+        long entryBytes = sizing.getBytes();
+
+        // room for three entries
+        LookupCache<LongWritable, Text> cache = new LookupCache<>(entryBytes * 3);
+        for (long key = 0; key < 3; key++) {
+            cache.get(new LongWritable(key), loader);
+        }
+        cache.get(new LongWritable(0), loader);
+        cache.get(new LongWritable(3), loader);
+
+        assertEquals(3, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+
+        // key 1 was the least recently used one
+        loader.loaded.clear();
+        cache.get(new LongWritable(0), loader);
+        cache.get(new LongWritable(2), loader);
+        cache.get(new LongWritable(3), loader);
+        assertTrue(loader.loaded.isEmpty());
+        cache.get(new LongWritable(1), loader);
+        assertEquals(1, loader.loaded.size());
+    }
+
+    @Test
+    public void skipsEntriesLargerThanCache() throws IOException {
+        LookupCache<LongWritable, Text> cache = new LookupCache<>(16);
+        CountingLoader loader = new CountingLoader();
+
+        assertEquals(new Text("value 1"), cache.get(new LongWritable(1), loader));
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BloomMapFile;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class MapFileReaderTest {
+    private static final int REVISIONS = 2000;
+    private static final int THREADS = 8;
+    private static final int LOOKUPS = 500;
+
+    private Path first;
+    private Path second;
+    private Path filtered;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        File directory = Files.createTempDirectory("mapfilereader").toFile();
+        directory.deleteOnExit();
+        first = writeMapFile(new File(directory, "first"), "first");
+        second = writeMapFile(new File(directory, "second"), "second");
+        filtered = writeMapFile(new File(directory, "filtered"), "filtered", true);
+    }
+
+    private static Path writeMapFile(File file, String prefix) throws IOException {
+        return writeMapFile(file, prefix, false);
+    }
+
+    private static Path writeMapFile(File file, String prefix, boolean bloomFilter) throws IOException {
+        Path path = new Path(file.toURI());
+        SequenceFile.Writer.Option keyClass = MapFile.Writer.keyClass(LongWritable.class);
+        SequenceFile.Writer.Option valueClass = SequenceFile.Writer.valueClass(WikiRevisionWritable.class);
+        SequenceFile.Writer.Option compression = SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK);
+        try (MapFile.Writer writer = bloomFilter ?
+                new BloomMapFile.Writer(new Configuration(), path, keyClass, valueClass, compression) :
+                new MapFile.Writer(new Configuration(), path, keyClass, valueClass, compression)) {
+            for (long id = 0; id < REVISIONS; id++) {
+                WikiRevisionWritable revision = new WikiRevisionWritable(new WikiPageWritable("Page " + id, id, false));
+                revision.setId(id);
+                revision.setText(prefix + " " + id);
+                writer.append(new LongWritable(id), revision);
+            }
+        }
+        return path;
+    }
+
+    @Test
+    public void readsConcurrently() throws Exception {
+        try (MapFileReader reader = new MapFileReader(first, new Configuration(), 2)) {
+            assertEquals(0, lookup(reader, "first"));
+        }
+    }
+
+    @Test
+    public void readsConcurrentlyWithCache() throws Exception {
+        try (MapFileReader reader = new MapFileReader(first, new Configuration(), 3)) {
+            reader.setCacheSize(64 * 1024);
+            assertEquals(0, lookup(reader, "first"));
+            assertEquals(THREADS * LOOKUPS, reader.getCache().getHits() + reader.getCache().getMisses());
+        }
+    }
+
+    @Test
+    public void readsIndependentInstances() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt(MapFileReader.POOL_SIZE, 4);
+
+        MapFileReader firstReader = new MapFileReader(first, conf);
+        try (MapFileReader secondReader = new MapFileReader(second, conf)) {
+            assertEquals(4, firstReader.getPoolSize());
+            assertEquals("first 7", firstReader.read(7).getText());
+            assertEquals("second 7", secondReader.read(7).getText());
+
+            // closed readers are reopened on demand
+            firstReader.close();
+            assertEquals("first 8", firstReader.read(8).getText());
+        } finally {
+            firstReader.close();
+        }
+    }
+
+    @Test
+    public void answersMissesFromBloomFilter() throws Exception {
+        try (MapFileReader reader = new MapFileReader(filtered, new Configuration(), 1)) {
+            assertNotNull(reader.getBloomFilter());
+            for (long id = 0; id < REVISIONS; id++) {
+                assertEquals("filtered " + id, reader.read(id).getText());
+            }
+            assertEquals(0, reader.getSavedLookups());
+
+            for (long id = REVISIONS; id < 2 * REVISIONS; id++) {
+                try {
+                    reader.read(id);
+                    fail();
+                } catch (MapFileReader.ArticleNotFoundException e) {
+                    // missing revision
+                }
+            }
+            // only false positives are looked up
+            assertTrue(reader.getSavedLookups() > REVISIONS * 95 / 100);
+
+            List<Long> revisionIds = Arrays.asList(1L, 2L * REVISIONS, 3L);
+            assertEquals(new TreeSet<>(Arrays.asList(1L, 3L)), reader.readAll(revisionIds).keySet());
+        }
+
+        try (MapFileReader reader = new MapFileReader(first, new Configuration(), 1)) {
+            assertNull(reader.getBloomFilter());
+        }
+    }
+
+    @Test
+    public void readsBatches() throws Exception {
+        try (MapFileReader reader = new MapFileReader(second, new Configuration(), 1)) {
+            List<Long> revisionIds = new ArrayList<>();
+            for (long id = REVISIONS + 10; id >= 0; id -= 3) {
+                revisionIds.add(id);
+            }
+            revisionIds.add(0L);
+
+            Map<Long, WikiRevisionWritable> revisions = reader.readAll(revisionIds);
+            assertEquals(new TreeSet<>(revisionIds).headSet((long) REVISIONS), revisions.keySet());
+            for (Map.Entry<Long, WikiRevisionWritable> entry : revisions.entrySet()) {
+                assertEquals("second " + entry.getKey(), entry.getValue().getText());
+            }
+            assertTrue(reader.readAll(Collections.<Long>emptyList()).isEmpty());
+        }
+    }
+
+    /**
+     * Looks up random revisions on several threads.
+     *
+     * @return number of wrong lookups
+     */
+    private static int lookup(final MapFileReader reader, final String prefix) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int thread = 0; thread < THREADS; thread++) {
+                final long seed = thread;
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        Random random = new Random(seed);
+                        int errors = 0;
+                        for (int i = 0; i < LOOKUPS; i++) {
+                            long id = random.nextInt(REVISIONS);
+                            WikiRevisionWritable revision = reader.read(id);
+                            if (revision.getId() != id || !revision.getText().equals(prefix + " " + id)) {
+                                errors++;
+                            }
+                        }
+                        return errors;
+                    }
+                }));
+            }
+
+            int errors = 0;
+            for (Future<Integer> future : futures) {
+                errors += future.get();
+            }
+            return errors;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
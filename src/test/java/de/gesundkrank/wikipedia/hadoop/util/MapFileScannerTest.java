@@ -0,0 +1,157 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertTrue;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class MapFileScannerTest {
+    private static final int KEYS = 5000;
+
+    private Path path;
+    private int blocks;
+    private MapFileScanner scanner;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        File directory = Files.createTempDirectory("mapfilescanner").toFile();
+        directory.deleteOnExit();
+        path = new Path(new File(directory, "map").toURI());
+
+        // small blocks, so the file has many of them
+        Configuration conf = new Configuration();
+        conf.setInt("io.seqfile.compress.blocksize", 4096);
+        try (MapFile.Writer writer = new MapFile.Writer(conf, path,
+                MapFile.Writer.keyClass(LongWritable.class),
+                SequenceFile.Writer.valueClass(Text.class),
+                SequenceFile.Writer.compression(SequenceFile.CompressionType.BLOCK))) {
+            // only even keys exist
+            for (long key = 0; key < 2 * KEYS; key += 2) {
+                writer.append(new LongWritable(key), new Text(value(key)));
+            }
+        }
+
+        try (SequenceFile.Reader index = new SequenceFile.Reader(conf,
+                SequenceFile.Reader.file(new Path(path, MapFile.INDEX_FILE_NAME)))) {
+            while (index.next(new LongWritable(), new LongWritable())) {
+                blocks++;
+            }
+        }
+        scanner = new MapFileScanner(path, conf);
+    }
+
+    @AfterClass
+    public void tearDown() throws IOException {
+        scanner.close();
+    }
+
+    private static String value(long key) {
+        return "value of " + key + " with some padding to fill the blocks";
+    }
+
+    @Test
+    public void readsAllKeys() throws IOException {
+        List<LongWritable> keys = new ArrayList<>();
+        for (long key = 0; key < 2 * KEYS; key++) {
+            keys.add(new LongWritable(key));
+        }
+
+        long seeks = scanner.getSeeks();
+        Map<Long, String> values = getAll(keys);
+        assertEquals(KEYS, values.size());
+        for (Map.Entry<Long, String> entry : values.entrySet()) {
+            assertEquals(value(entry.getKey()), entry.getValue());
+        }
+        // dense keys are read in one sequential pass
+        assertTrue(blocks > 10);
+        assertEquals(1, scanner.getSeeks() - seeks);
+    }
+
+    @Test
+    public void readsSparseKeys() throws IOException {
+        Random random = new Random(42);
+        TreeMap<Long, LongWritable> sorted = new TreeMap<>();
+        while (sorted.size() < 500) {
+            long key = random.nextInt(2 * KEYS + 10) - 5;
+            sorted.put(key, new LongWritable(key));
+        }
+
+        long seeks = scanner.getSeeks();
+        Map<Long, String> values = getAll(new ArrayList<>(sorted.values()));
+        int expected = 0;
+        for (long key : sorted.keySet()) {
+            if (key >= 0 && key < 2 * KEYS && key % 2 == 0) {
+                assertEquals(value(key), values.get(key));
+                expected++;
+            }
+        }
+        assertEquals(expected, values.size());
+        // every block is decompressed at most once
+        assertTrue(scanner.getSeeks() - seeks <= blocks);
+    }
+
+    @Test
+    public void readsSameValuesAsMapFileReader() throws IOException {
+        List<LongWritable> keys = new ArrayList<>();
+        for (long key = 1000; key < 1100; key++) {
+            keys.add(new LongWritable(key));
+        }
+
+        Map<Long, String> values = getAll(keys);
+        try (MapFile.Reader reader = new MapFile.Reader(path, new Configuration())) {
+            for (LongWritable key : keys) {
+                Text value = (Text) reader.get(key, new Text());
+                assertEquals(value == null ? null : value.toString(), values.get(key.get()));
+            }
+        }
+    }
+
+    private Map<Long, String> getAll(List<LongWritable> keys) throws IOException {
+        final Map<Long, String> values = new TreeMap<>();
+        scanner.getAll(keys, new MapFileScanner.Visitor<LongWritable, Text>() {
+            @Override
+            public void visit(LongWritable key, Text value) {
+                values.put(key.get(), value.toString());
+            }
+        });
+        return values;
+    }
+}
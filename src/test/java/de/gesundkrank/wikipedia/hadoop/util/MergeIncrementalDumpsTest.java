@@ -0,0 +1,271 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.inputformat.WikiInputFormat;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class MergeIncrementalDumpsTest {
+    private File directory;
+    private Path store;
+    private Path partitionedStore;
+    private Path update;
+    private Path deletedPages;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("merge").toFile();
+        directory.deleteOnExit();
+
+        // pages 1 to 5 with revisions page * 10 and page * 10 + 1
+        store = new Path(new File(directory, "store").toURI());
+        writeStore(store, 1, 5);
+
+        // the same revisions in two partitions split at revision 30
+        partitionedStore = new Path(new File(directory, "partitioned").toURI());
+        writeStore(new Path(partitionedStore, "part-r-00000"), 1, 2);
+        writeStore(new Path(partitionedStore, "part-r-00001"), 3, 5);
+        try (SequenceFile.Writer writer = SequenceFile.createWriter(new Configuration(),
+                SequenceFile.Writer.file(new Path(partitionedStore, PartitionedMapFile.PARTITION_FILE)),
+                SequenceFile.Writer.keyClass(LongWritable.class),
+                SequenceFile.Writer.valueClass(NullWritable.class))) {
+            writer.append(new LongWritable(30), NullWritable.get());
+        }
+
+        // page 2 changed twice, page 3 became a redirect and page 6 is new
+        File updateFile = new File(directory, "enwiki-20150102-pages-meta-hist-incr.xml");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(updateFile), StandardCharsets.UTF_8)) {
+            writer.write("<mediawiki>\n");
+            writePage(writer, 2, false, 100, 101);
+            writePage(writer, 3, true, 102);
+            writePage(writer, 6, false, 103);
+            writer.write("</mediawiki>\n");
+        }
+        update = new Path(updateFile.toURI());
+
+        File deletedFile = new File(directory, "deleted.txt");
+        Files.write(deletedFile.toPath(), "5\n".getBytes(StandardCharsets.UTF_8));
+        deletedPages = new Path(deletedFile.toURI());
+    }
+
+    private static void writeStore(Path mapFile, int firstPage, int lastPage) throws IOException {
+        try (MapFile.Writer writer = new MapFile.Writer(new Configuration(), mapFile,
+                MapFile.Writer.keyClass(LongWritable.class),
+                MapFile.Writer.valueClass(WikiRevisionWritable.class))) {
+            for (int page = firstPage; page <= lastPage; page++) {
+                for (int i = 0; i < 2; i++) {
+                    WikiRevisionWritable revision = new WikiRevisionWritable(
+                            new WikiPageWritable("Page " + page, page, false));
+                    revision.setId(page * 10 + i);
+                    revision.setTimestamp(1420070400000L + i);
+                    revision.setText("old " + page);
+                    writer.append(new LongWritable(revision.getId()), revision);
+                }
+            }
+        }
+    }
+
+    private static void writePage(Writer writer, int page, boolean redirect, long... revisions) throws IOException {
+        writer.write("  <page>\n    <title>Page " + page + "</title>\n    <ns>0</ns>\n    <id>" + page + "</id>\n");
+        if (redirect) {
+            writer.write("    <redirect title=\"Page 1\" />\n");
+        }
+        for (int i = 0; i < revisions.length; i++) {
+            writer.write("    <revision>\n      <id>" + revisions[i] + "</id>\n      <timestamp>2015-01-02T00:00:0" +
+                    i + "Z</timestamp>\n      <text xml:space=\"preserve\">new " + revisions[i] +
+                    "</text>\n    </revision>\n");
+        }
+        writer.write("  </page>\n");
+    }
+
+    @Test
+    public void readsPageIdsOfDumps() throws IOException {
+        Map<Long, Boolean> pages = MergeIncrementalDumps.readPageIds(Collections.singletonList(update),
+                new Configuration());
+
+        Map<Long, Boolean> expected = new TreeMap<>();
+        expected.put(2L, false);
+        expected.put(3L, true);
+        expected.put(6L, false);
+        assertEquals(expected, pages);
+    }
+
+    @Test
+    public void replacesChangedPages() throws Exception {
+        assertEquals(replacedPages(), merge("replaced", store, localConf(), false, false));
+    }
+
+    @Test
+    public void mergesPartitionsSeparately() throws Exception {
+        Configuration conf = localConf();
+        assertEquals(replacedPages(), merge("partitions", partitionedStore, conf, false, false));
+
+        try (PartitionedMapFile merged = new PartitionedMapFile(new Path(new File(directory, "partitions").toURI()),
+                conf)) {
+            assertEquals(2, merged.getNumPartitions());
+            for (int partition = 0; partition < merged.getNumPartitions(); partition++) {
+                LongWritable key = new LongWritable();
+                WikiRevisionWritable value = new WikiRevisionWritable();
+                while (merged.getReader(partition).next(key, value)) {
+                    assertEquals(partition, merged.getPartition(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * The latest revision of a page has to be copied, the iterator refills it with the next page.
+     */
+    @Test
+    public void replacesChangedPagesWithObjectReuse() throws Exception {
+        Configuration conf = localConf();
+        conf.setBoolean(WikiInputFormat.REUSE_OBJECTS, true);
+        assertEquals(replacedPages(), merge("reused", store, conf, false, false));
+    }
+
+    private static Map<Long, String> replacedPages() {
+        Map<Long, String> expected = new TreeMap<>();
+        expected.put(10L, "old 1");
+        expected.put(11L, "old 1");
+        expected.put(40L, "old 4");
+        expected.put(41L, "old 4");
+        expected.put(101L, "new 101");
+        expected.put(102L, "new 102");
+        expected.put(103L, "new 103");
+        return expected;
+    }
+
+    /**
+     * Page 3 became a redirect, its old revisions are dropped as well.
+     */
+    @Test
+    public void keepsHistoryAndSkipsRedirects() throws Exception {
+        Map<Long, String> merged = merge("history", store, localConf(), true, true);
+
+        Map<Long, String> expected = new TreeMap<>();
+        expected.put(10L, "old 1");
+        expected.put(11L, "old 1");
+        expected.put(20L, "old 2");
+        expected.put(21L, "old 2");
+        expected.put(40L, "old 4");
+        expected.put(41L, "old 4");
+        expected.put(100L, "new 100");
+        expected.put(101L, "new 101");
+        expected.put(103L, "new 103");
+        assertEquals(expected, merged);
+    }
+
+    @Test
+    public void rebuildsTitleIndex() throws Exception {
+        Configuration conf = localConf();
+        Path titledStore = new Path(new File(directory, "titled").toURI());
+        writeStore(titledStore, 1, 5);
+        Job job = Job.getInstance(conf);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        FileInputFormat.addInputPath(job, new Path(titledStore, MapFile.DATA_FILE_NAME));
+        assertTrue(RepackToMapFile.writeTitleIndex(job, titledStore));
+
+        merge("titles", titledStore, conf, false, false);
+        try (MapFileReader reader = new MapFileReader(new Path(new File(directory, "titles").toURI()), conf)) {
+            assertEquals(5, reader.getTitleIndex().size());
+            assertEquals(101, reader.readByTitle("Page 2").getId());
+            assertEquals(102, reader.readByTitle("Page 3").getId());
+            assertEquals(103, reader.readByTitle("Page 6").getId());
+            // the MapFile doesn't store redirect targets
+            assertNull(reader.getRedirectTable());
+            try {
+                reader.readByTitle("Page 5");
+                fail("deleted pages have to be removed from the index");
+            } catch (MapFileReader.ArticleNotFoundException e) {
+                // deleted page
+            }
+        }
+    }
+
+    @Test
+    public void requiresDayOfLastDumpWithBasePath() throws Exception {
+        MergeIncrementalDumps merge = new MergeIncrementalDumps();
+        merge.setConf(new Configuration());
+        assertEquals(1, merge.run(new String[]{"-s", store.toString(), "-o", directory.getPath(), "-b",
+                directory.getPath()}));
+    }
+
+    private static Configuration localConf() {
+        Configuration conf = new Configuration();
+        conf.set("mapreduce.framework.name", "local");
+        conf.set("fs.defaultFS", "file:///");
+        return conf;
+    }
+
+    private Map<Long, String> merge(String name, Path store, Configuration conf, boolean keepHistory,
+                                    boolean skipRedirect) throws Exception {
+        Path output = new Path(new File(directory, name).toURI());
+        MergeIncrementalDumps merge = new MergeIncrementalDumps();
+        merge.setConf(conf);
+        assertEquals(0, merge.run(store, Collections.singletonList(update), deletedPages, output, keepHistory,
+                skipRedirect));
+
+        Map<Long, String> revisions = new TreeMap<>();
+        try (PartitionedMapFile merged = new PartitionedMapFile(output, conf)) {
+            LongWritable key = new LongWritable();
+            WikiRevisionWritable value = new WikiRevisionWritable();
+            long lastKey = -1;
+            for (int partition = 0; partition < merged.getNumPartitions(); partition++) {
+                while (merged.getReader(partition).next(key, value)) {
+                    assertTrue(key.get() > lastKey);
+                    lastKey = key.get();
+                    revisions.put(key.get(), value.getText());
+                }
+            }
+        }
+        return revisions;
+    }
+}
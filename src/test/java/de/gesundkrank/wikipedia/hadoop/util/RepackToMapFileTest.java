@@ -0,0 +1,410 @@
+/*
+ * This file is part of wikipedia-hadoop.
+ * Copyright (C) 2015 Jan Graßegger
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see [http://www.gnu.org/licenses/].
+ */
+
+package de.gesundkrank.wikipedia.hadoop.util;
+
+import de.gesundkrank.wikipedia.hadoop.WikiPageWritable;
+import de.gesundkrank.wikipedia.hadoop.WikiRevisionWritable;
+import de.gesundkrank.wikipedia.hadoop.io.PageStore;
+import de.gesundkrank.wikipedia.hadoop.io.TextDeltaTest;
+import de.gesundkrank.wikipedia.hadoop.parser.ByteParser;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.testng.AssertJUnit.assertEquals;
+import static org.testng.AssertJUnit.assertNotNull;
+import static org.testng.AssertJUnit.assertNull;
+import static org.testng.AssertJUnit.assertSame;
+import static org.testng.AssertJUnit.assertTrue;
+import static org.testng.AssertJUnit.fail;
+
+/**
+ * @author Jan Graßegger<jan@anycook.de>
+ */
+public class RepackToMapFileTest {
+    private static final int REDUCERS = 3;
+
+    private File directory;
+    private Map<Long, String> expectedTexts;
+    private Map<String, WikiRevisionWritable> latestRevisions;
+
+    @BeforeClass
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("repack").toFile();
+        directory.deleteOnExit();
+
+        File dumpDirectory = new File(new File(directory, "dumps"), "en");
+        assertTrue(dumpDirectory.mkdirs());
+        try (InputStream in = getClass().getResourceAsStream("/wikidump_example.xml")) {
+            Files.copy(in, new File(dumpDirectory, "enwiki-latest-pages-articles.xml").toPath());
+        }
+
+        expectedTexts = new TreeMap<>();
+        latestRevisions = new TreeMap<>();
+        ByteParser parser = new ByteParser(getClass().getResourceAsStream("/wikidump_example.xml"));
+        WikiRevisionWritable revision;
+        while ((revision = parser.readNextRevision()) != null) {
+            expectedTexts.put(revision.getId(), revision.getText());
+            WikiRevisionWritable latest = latestRevisions.get(revision.getPage().getNormalizedTitle());
+            if (latest == null || latest.getTimestamp() < revision.getTimestamp()) {
+                latestRevisions.put(revision.getPage().getNormalizedTitle(), revision);
+            }
+        }
+    }
+
+    @Test
+    public void writesOneMapFilePerPartition() throws Exception {
+        Path output = repack("partitioned", REDUCERS);
+        Configuration conf = new Configuration();
+
+        Path[] mapFiles = PartitionedMapFile.getMapFiles(output, conf);
+        assertEquals(REDUCERS, mapFiles.length);
+
+        // the partitions hold consecutive ranges of the revision ids
+        Map<Long, String> texts = new TreeMap<>();
+        long lastKey = -1;
+        for (Path mapFile : mapFiles) {
+            try (MapFile.Reader reader = new MapFile.Reader(mapFile, conf)) {
+                LongWritable key = new LongWritable();
+                WikiRevisionWritable value = new WikiRevisionWritable();
+                while (reader.next(key, value)) {
+                    assertTrue(key.get() > lastKey);
+                    lastKey = key.get();
+                    texts.put(key.get(), value.getText());
+                }
+            }
+        }
+        assertEquals(expectedTexts, texts);
+    }
+
+    @Test
+    public void routesLookupsToPartitions() throws Exception {
+        Path output = repack("routed", REDUCERS);
+
+        try (PartitionedMapFile mapFile = new PartitionedMapFile(output, new Configuration())) {
+            assertEquals(REDUCERS, mapFile.getNumPartitions());
+            for (Map.Entry<Long, String> entry : expectedTexts.entrySet()) {
+                WikiRevisionWritable revision = new WikiRevisionWritable();
+                assertEquals(revision, mapFile.get(new LongWritable(entry.getKey()), revision));
+                assertEquals(entry.getValue(), revision.getText());
+            }
+            assertNull(mapFile.get(new LongWritable(1), new WikiRevisionWritable()));
+        }
+
+        MapFileReader reader = MapFileReader.getInstance();
+        reader.setPath(output.toString());
+        long revisionId = expectedTexts.keySet().iterator().next();
+        assertEquals(expectedTexts.get(revisionId), reader.read(revisionId).getText());
+    }
+
+    @Test
+    public void cachesLookups() throws Exception {
+        Path output = repack("cached", REDUCERS);
+        MapFileReader reader = MapFileReader.getInstance();
+        reader.setPath(output.toString());
+        reader.setCacheSize(1024 * 1024);
+
+        try {
+            long revisionId = expectedTexts.keySet().iterator().next();
+            assertSame(reader.read(revisionId), reader.read(revisionId));
+            for (int i = 0; i < 2; i++) {
+                try {
+                    reader.read(1);
+                    fail();
+                } catch (MapFileReader.ArticleNotFoundException e) {
+                    // missing revision
+                }
+            }
+
+            LookupCache<?, ?> cache = reader.getCache();
+            assertEquals(2, cache.getMisses());
+            assertEquals(2, cache.getHits());
+            assertEquals(1, cache.getNegativeHits());
+        } finally {
+            reader.setCacheSize(0);
+        }
+    }
+
+    @Test
+    public void looksUpTitles() throws Exception {
+        Path output = repack("titles", REDUCERS, true);
+
+        try (MapFileReader reader = new MapFileReader(output, new Configuration())) {
+            assertEquals(latestRevisions.size(), reader.getTitleIndex().size());
+            for (Map.Entry<String, WikiRevisionWritable> entry : latestRevisions.entrySet()) {
+                WikiRevisionWritable revision = reader.readByTitle(entry.getKey());
+                assertEquals(entry.getValue().getId(), revision.getId());
+                assertEquals(entry.getValue().getText(), revision.getText());
+                assertEquals(entry.getValue().getPage().getId(), reader.read(entry.getKey()).getId());
+            }
+
+            try {
+                reader.readByTitle("No such article");
+                fail();
+            } catch (MapFileReader.ArticleNotFoundException e) {
+                // missing title
+            }
+
+            List<String> titles = new ArrayList<>(latestRevisions.keySet());
+            titles.add("No such article");
+            Map<String, WikiRevisionWritable> revisions = reader.readAllByTitle(titles);
+            assertEquals(latestRevisions.size(), revisions.size());
+            for (Map.Entry<String, WikiRevisionWritable> entry : latestRevisions.entrySet()) {
+                assertEquals(entry.getValue().getText(), revisions.get(entry.getKey()).getText());
+            }
+        }
+    }
+
+    @Test
+    public void followsRedirects() throws Exception {
+        Path output = repack("redirects", 1, true);
+
+        try (MapFileReader reader = new MapFileReader(output, new Configuration())) {
+            int redirects = 0;
+            int resolved = 0;
+            for (Map.Entry<String, WikiRevisionWritable> entry : latestRevisions.entrySet()) {
+                if (entry.getValue().getPage().isRedirect()) {
+                    redirects++;
+                }
+
+                WikiRevisionWritable target = finalTarget(entry.getValue());
+                if (target != entry.getValue()) {
+                    resolved++;
+                }
+                assertEquals(target.getId(), reader.readByTitle(entry.getKey(), true).getId());
+                assertEquals(entry.getValue().getId(), reader.readByTitle(entry.getKey()).getId());
+            }
+
+            assertTrue(resolved > 0);
+            assertEquals(redirects, reader.getRedirectTable().size());
+            assertEquals(redirects - resolved, reader.getRedirectTable().getBroken());
+
+            reader.setFollowRedirects(true);
+            assertEquals(latestRevisions.get("Ayn_Rand").getId(), reader.readByTitle("AynRand").getId());
+        }
+    }
+
+    /**
+     * Follows the redirects of a revision, redirects that end in a cycle or a missing page are returned.
+     */
+    private WikiRevisionWritable finalTarget(WikiRevisionWritable revision) {
+        Set<String> visited = new HashSet<>();
+        WikiRevisionWritable current = revision;
+        while (current.getPage().isRedirect()) {
+            if (!visited.add(current.getPage().getNormalizedTitle())) {
+                return revision;
+            }
+            current = latestRevisions.get(WikiPageWritable.normalizeTitle(current.getPage().getRedirectTarget()));
+            if (current == null) {
+                return revision;
+            }
+        }
+        return current;
+    }
+
+    @Test
+    public void exportsPageStore() throws Exception {
+        Path output = repack("export", REDUCERS, true);
+        File storeDirectory = new File(directory, "export-store");
+
+        ExportPageStore export = new ExportPageStore();
+        export.setConf(new Configuration());
+        assertEquals(expectedTexts.size(), export.export(output, storeDirectory, 6));
+
+        try (PageStore store = new PageStore(storeDirectory)) {
+            assertEquals(expectedTexts.size(), store.size());
+            for (Map.Entry<Long, String> entry : expectedTexts.entrySet()) {
+                assertEquals(entry.getValue(), store.get(entry.getKey()).getText());
+            }
+            for (Map.Entry<String, WikiRevisionWritable> entry : latestRevisions.entrySet()) {
+                assertEquals(entry.getValue().getId(), store.getByTitle(entry.getKey(), false).getId());
+                assertEquals(finalTarget(entry.getValue()).getId(), store.getByTitle(entry.getKey(), true).getId());
+            }
+            assertNull(store.getByTitle("No such article", true));
+        }
+    }
+
+    @Test
+    public void filtersMissingRevisions() throws Exception {
+        Path output = repack("bloom", REDUCERS, false, true);
+
+        try (MapFileReader reader = new MapFileReader(output, new Configuration())) {
+            assertNotNull(reader.getBloomFilter());
+            for (Map.Entry<Long, String> entry : expectedTexts.entrySet()) {
+                assertEquals(entry.getValue(), reader.read(entry.getKey()).getText());
+            }
+            assertEquals(0, reader.getSavedLookups());
+
+            int misses = 0;
+            for (long revisionId = 0; misses < 100; revisionId++) {
+                if (expectedTexts.containsKey(revisionId)) {
+                    continue;
+                }
+                misses++;
+                try {
+                    reader.read(revisionId);
+                    fail();
+                } catch (MapFileReader.ArticleNotFoundException e) {
+                    // missing revision
+                }
+            }
+            assertTrue(reader.getSavedLookups() > 90);
+        }
+    }
+
+    @Test
+    public void readsSingleMapFile() throws Exception {
+        Path output = repack("single", 1);
+
+        try (PartitionedMapFile mapFile = new PartitionedMapFile(output, new Configuration())) {
+            assertEquals(1, mapFile.getNumPartitions());
+            for (long revisionId : expectedTexts.keySet()) {
+                assertEquals(0, mapFile.getPartition(new LongWritable(revisionId)));
+                WikiRevisionWritable revision = new WikiRevisionWritable();
+                assertEquals(revision, mapFile.get(new LongWritable(revisionId), revision));
+            }
+        }
+    }
+
+    @Test
+    public void looksUpTitlesOfDeltas() throws Exception {
+        File dumpDirectory = new File(new File(directory, "history"), "en");
+        assertTrue(dumpDirectory.mkdirs());
+
+        Random random = new Random(5);
+        Map<String, String> latestTexts = new TreeMap<>();
+        Map<Long, String> texts = new TreeMap<>();
+        StringBuilder xml = new StringBuilder("<mediawiki>\n");
+        long revisionId = 0;
+        for (int page = 1; page <= 5; page++) {
+            xml.append("  <page>\n    <title>Page ").append(page).append("</title>\n    <ns>0</ns>\n    <id>")
+                    .append(page).append("</id>\n");
+            String text = TextDeltaTest.createArticle(random, 10);
+            for (int day = 1; day <= 12; day++) {
+                text = TextDeltaTest.edit(random, text);
+                xml.append("    <revision>\n      <id>").append(++revisionId).append("</id>\n      <timestamp>")
+                        .append(String.format("2015-01-%02dT00:00:00Z", day)).append("</timestamp>\n")
+                        .append("      <text xml:space=\"preserve\">").append(text).append("</text>\n")
+                        .append("    </revision>\n");
+                texts.put(revisionId, text);
+            }
+            latestTexts.put("Page " + page, text);
+            xml.append("  </page>\n");
+        }
+        Files.write(new File(dumpDirectory, "enwiki-latest-pages-articles.xml").toPath(),
+                xml.append("</mediawiki>\n").toString().getBytes(StandardCharsets.UTF_8));
+
+        Configuration conf = new Configuration();
+        conf.setInt(RepackToMapFile.SNAPSHOT_INTERVAL, 5);
+        conf.setBoolean(RepackToMapFile.TITLE_INDEX, true);
+        Path output = repack("deltas", "history", conf);
+
+        try (MapFileReader reader = new MapFileReader(output, new Configuration())) {
+            reader.setCacheSize(1024 * 1024);
+            // the latest revisions are stored as deltas
+            long latestId = reader.getTitleIndex().get(0).getRevisionId();
+            try (PartitionedMapFile mapFile = new PartitionedMapFile(output, new Configuration())) {
+                WikiRevisionWritable stored = new WikiRevisionWritable();
+                assertNotNull(mapFile.get(new LongWritable(latestId), stored));
+                assertTrue(stored.isTextDelta());
+            }
+
+            for (int i = 0; i < 2; i++) {
+                for (Map.Entry<String, String> entry : latestTexts.entrySet()) {
+                    assertEquals(entry.getValue(), reader.readByTitle(entry.getKey()).getText());
+                }
+            }
+
+            Map<String, WikiRevisionWritable> revisions = reader.readAllByTitle(latestTexts.keySet());
+            assertEquals(latestTexts.size(), revisions.size());
+            for (Map.Entry<String, String> entry : latestTexts.entrySet()) {
+                assertEquals(entry.getValue(), revisions.get(entry.getKey()).getText());
+            }
+        }
+
+        // the bases are looked up while the batch holds the only reader, with and without cached texts
+        for (int textCacheSize : new int[]{0, 64}) {
+            Configuration readerConf = new Configuration();
+            readerConf.setInt(MapFileReader.TEXT_CACHE_SIZE, textCacheSize);
+            try (MapFileReader reader = new MapFileReader(output, readerConf, 1)) {
+                Map<Long, String> read = new TreeMap<>();
+                for (Map.Entry<Long, WikiRevisionWritable> entry : reader.readAll(texts.keySet()).entrySet()) {
+                    read.put(entry.getKey(), entry.getValue().getText());
+                }
+                assertEquals(texts, read);
+            }
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void rejectsDeltasOfMultistreamDumps() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setBoolean(RepackToMapFile.MULTISTREAM, true);
+        conf.setInt(RepackToMapFile.SNAPSHOT_INTERVAL, 10);
+
+        RepackToMapFile repack = new RepackToMapFile();
+        repack.setConf(conf);
+        repack.run(new File(directory, "dumps").getAbsolutePath(), new File(directory, "multistream").getAbsolutePath(),
+                false, false);
+    }
+
+    private Path repack(String name, int reducers) throws Exception {
+        return repack(name, reducers, false);
+    }
+
+    private Path repack(String name, int reducers, boolean titleIndex) throws Exception {
+        return repack(name, reducers, titleIndex, false);
+    }
+
+    private Path repack(String name, int reducers, boolean titleIndex, boolean bloomFilter) throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt(RepackToMapFile.REDUCERS, reducers);
+        conf.setBoolean(RepackToMapFile.TITLE_INDEX, titleIndex);
+        conf.setBoolean(MapFileOutputFormat.BLOOM_FILTER, bloomFilter);
+        return repack(name, "dumps", conf);
+    }
+
+    private Path repack(String name, String dumps, Configuration conf) throws Exception {
+        conf.set("mapreduce.framework.name", "local");
+        conf.set("fs.defaultFS", "file:///");
+        conf.setInt(RevisionIdSampler.SAMPLES, 30);
+
+        RepackToMapFile repack = new RepackToMapFile();
+        repack.setConf(conf);
+        String output = new File(directory, name).getAbsolutePath();
+        assertEquals(0, repack.run(new File(directory, dumps).getAbsolutePath(), output, false, false));
+        return new Path(new File(output).toURI());
+    }
+}